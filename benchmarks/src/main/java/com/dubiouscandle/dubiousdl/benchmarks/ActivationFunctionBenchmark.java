@@ -0,0 +1,74 @@
+package com.dubiouscandle.dubiousdl.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Matrix;
+
+/**
+ * every ActivationFunction constant, its derivative and its fused backward pass on a width x m matrix. -p fastmath=true measures the fast
+ * math approximations instead
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector,jdk.incubator.foreign" })
+public class ActivationFunctionBenchmark {
+	@Param({ "IDENTITY", "RELU", "LEAKY_RELU", "SIGMOID", "TANH", "SOFT_PLUS", "ELU", "SWISH", "SIN" })
+	public String function;
+
+	@Param({ "64", "256", "1024" })
+	public int width;
+
+	@Param({ "1", "32", "256" })
+	public int m;
+
+	@Param({ "false" })
+	public boolean fastmath;
+
+	private ActivationFunction g;
+	private Matrix x, a, da, out;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		// every fork is a new jvm, so this is set before the mode is read
+		System.setProperty("dubiousdl.fastmath", Boolean.toString(fastmath));
+		g = (ActivationFunction) ActivationFunction.class.getField(function).get(null);
+		Random random = new Random(1);
+		x = Matrices.random(width, m, false, random);
+		a = new Matrix(width, m);
+		g.get(x, a);
+		da = Matrices.random(width, m, false, random);
+		out = new Matrix(width, m);
+	}
+
+	@Benchmark
+	public void get() {
+		g.get(x, out);
+	}
+
+	@Benchmark
+	public void deriv() {
+		g.deriv(x, out);
+	}
+
+	@Benchmark
+	public void backward() {
+		g.backward(x, a, da, out);
+	}
+}
@@ -0,0 +1,39 @@
+package com.dubiouscandle.dubiousdl.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * runs the benchmarks with the gc profiler, so every result comes with the bytes allocated per operation
+ * (gc.alloc.rate.norm) next to the ops/s. takes the usual jmh command line options, e.g. a regex to pick benchmarks,
+ * -p m=32 to fix a parameter or -l to list the benchmarks.
+ */
+public final class Benchmarks {
+	private Benchmarks() {
+	}
+
+	public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+		CommandLineOptions options = new CommandLineOptions(args);
+		Runner runner = new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build());
+
+		if (options.shouldHelp()) {
+			options.showHelp();
+		} else if (options.shouldList()) {
+			runner.list();
+		} else if (options.shouldListWithParams()) {
+			runner.listWithParams(options);
+		} else if (options.shouldListProfilers()) {
+			options.listProfilers();
+		} else if (options.shouldListResultFormats()) {
+			options.listResultFormats();
+		} else {
+			runner.run();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.dubiouscandle.dubiousdl.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.Matrix;
+
+/**
+ * both LossFunction constants on a batch of m outputs. the softmax loss gets 10 classes (the digits output), the binary
+ * loss a single output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector,jdk.incubator.foreign" })
+public class LossFunctionBenchmark {
+	@Param({ "SOFT_MAX_CROSS_ENTROPY_LOSS", "BINARY_CROSS_ENTROPY_LOSS" })
+	public String function;
+
+	@Param({ "1", "32", "256" })
+	public int m;
+
+	private LossFunction J;
+	private Matrix output, target, error;
+	private int[] labels;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		J = (LossFunction) LossFunction.class.getField(function).get(null);
+		int classes = J == LossFunction.BINARY_CROSS_ENTROPY_LOSS ? 1 : 10;
+
+		Random random = new Random(1);
+		output = Matrices.random(classes, m, false, random);
+		target = classes == 1 ? Matrices.random(1, m, false, random) : Matrices.oneHot(classes, m, random);
+		error = new Matrix(classes, m);
+
+		// the class of the 1 in each column, or the rounded target of the binary loss
+		labels = new int[m];
+		for (int j = 0; j < m; j++) {
+			for (int i = 0; i < classes; i++) {
+				if (classes == 1 ? target.get(0, j) >= 0.5f : target.get(i, j) == 1) {
+					labels[j] = classes == 1 ? 1 : i;
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void getError() {
+		J.getError(output, target, error);
+	}
+
+	@Benchmark
+	public float getLoss() {
+		return J.getLoss(output, target);
+	}
+
+	@Benchmark
+	public float getErrorAndLoss() {
+		return J.getErrorAndLoss(output, target, error);
+	}
+
+	@Benchmark
+	public float getErrorAndLossLabels() {
+		return J.getErrorAndLoss(output, labels, error);
+	}
+}
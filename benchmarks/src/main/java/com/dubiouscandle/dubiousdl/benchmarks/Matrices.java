@@ -0,0 +1,40 @@
+package com.dubiouscandle.dubiousdl.benchmarks;
+
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.Matrix;
+
+/**
+ * inputs shared by the benchmarks
+ */
+final class Matrices {
+	private Matrices() {
+	}
+
+	/**
+	 * @return a rows x cols matrix of values between -1 and 1. if transposed it is stored as the transpose of a
+	 *         cols x rows matrix.
+	 */
+	static Matrix random(int rows, int cols, boolean transposed, Random random) {
+		Matrix matrix = transposed ? new Matrix(cols, rows) : new Matrix(rows, cols);
+		float[] data = matrix.data();
+		for (int i = 0; i < data.length; i++) {
+			data[i] = random.nextFloat(-1, 1);
+		}
+		if (transposed) {
+			matrix.transpose();
+		}
+		return matrix;
+	}
+
+	/**
+	 * @return a classes x m matrix with a single 1 in every column
+	 */
+	static Matrix oneHot(int classes, int m, Random random) {
+		Matrix matrix = new Matrix(classes, m);
+		for (int j = 0; j < m; j++) {
+			matrix.set(random.nextInt(classes), j, 1);
+		}
+		return matrix;
+	}
+}
@@ -0,0 +1,55 @@
+package com.dubiouscandle.dubiousdl.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dubiouscandle.dubiousdl.Matrix;
+
+/**
+ * the elementwise Matrix operations on a width x m matrix
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector,jdk.incubator.foreign" })
+public class MatrixBenchmark {
+	@Param({ "64", "256", "1024" })
+	public int width;
+
+	@Param({ "1", "32", "256" })
+	public int m;
+
+	private Matrix x, y, bias;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		x = Matrices.random(width, m, false, random);
+		y = Matrices.random(width, m, false, random);
+		bias = Matrices.random(width, 1, false, random);
+	}
+
+	@Benchmark
+	public void addBroadcasted() {
+		x.addBroadcasted(bias);
+	}
+
+	@Benchmark
+	public void hadamardProduct() {
+		Matrix.hadamardProduct(x, y);
+	}
+}
@@ -0,0 +1,74 @@
+package com.dubiouscandle.dubiousdl.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Adam;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+
+/**
+ * a digits shaped model, 784 inputs, two hidden layers of the given width and 10 outputs, with a batch of m
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector,jdk.incubator.foreign" })
+public class ModelBenchmark {
+	@Param({ "64", "256", "1024" })
+	public int width;
+
+	@Param({ "1", "32", "256" })
+	public int m;
+
+	private Model model;
+	private Adam adam;
+	private Matrix in, out, target;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		model = new Model(
+				new ActivationFunction[] { ActivationFunction.LEAKY_RELU, ActivationFunction.LEAKY_RELU,
+						ActivationFunction.IDENTITY },
+				new int[] { 784, width, width, 10 }, m, new Initializer.HeNormal(random));
+		adam = new Adam(model, LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f);
+
+		in = Matrices.random(784, m, false, random);
+		out = new Matrix(10, m);
+		target = Matrices.oneHot(10, m, random);
+	}
+
+	@Benchmark
+	public void forwardPropagate() {
+		model.forwardPropagate(in, out);
+	}
+
+	@Benchmark
+	public void predict() {
+		model.predict(in, out);
+	}
+
+	@Benchmark
+	public void adamStep() {
+		// a tiny learning rate keeps the weights from drifting much over millions of steps
+		adam.step(in, target, 1e-6f);
+	}
+}
@@ -0,0 +1,60 @@
+package com.dubiouscandle.dubiousdl.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dubiouscandle.dubiousdl.Matrix;
+
+/**
+ * Matrix.multiply of a width x width matrix with a width x m matrix, the shape of a hidden layer, for every combination
+ * of transposed operands and result
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector,jdk.incubator.foreign" })
+public class MultiplyBenchmark {
+	@Param({ "64", "256", "1024" })
+	public int width;
+
+	@Param({ "1", "32", "256" })
+	public int m;
+
+	@Param({ "false", "true" })
+	public boolean transposeA;
+
+	@Param({ "false", "true" })
+	public boolean transposeB;
+
+	@Param({ "false", "true" })
+	public boolean transposeC;
+
+	private Matrix a, b, c;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		a = Matrices.random(width, width, transposeA, random);
+		b = Matrices.random(width, m, transposeB, random);
+		c = Matrices.random(width, m, transposeC, random);
+	}
+
+	@Benchmark
+	public void multiply() {
+		Matrix.multiply(a, b, c);
+	}
+}
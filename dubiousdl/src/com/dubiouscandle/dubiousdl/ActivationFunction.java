@@ -16,6 +16,10 @@ public interface ActivationFunction extends Serializable {
 		public float derivImpl(float x) {
 			return x <= 0 ? 0.01f : 1;
 		}
+
+		private Object readResolve() {
+			return LEAKY_RELU;
+		}
 	};
 
 	ActivationFunction TANH = new ActivationFunction() {
@@ -31,6 +35,15 @@ public interface ActivationFunction extends Serializable {
 			float tanh = (float) Math.tanh(x);
 			return 1 - tanh * tanh;
 		}
+
+		@Override
+		public float derivImpl(float x, float y) {
+			return 1 - y * y;
+		}
+
+		private Object readResolve() {
+			return TANH;
+		}
 	};
 
 	ActivationFunction SOFT_PLUS = new ActivationFunction() {
@@ -45,6 +58,10 @@ public interface ActivationFunction extends Serializable {
 		public float derivImpl(float x) {
 			return (float) (1.0 / (1.0 + Math.exp(-x)));
 		}
+
+		private Object readResolve() {
+			return SOFT_PLUS;
+		}
 	};
 
 	ActivationFunction SIN = new ActivationFunction() {
@@ -59,6 +76,10 @@ public interface ActivationFunction extends Serializable {
 		public float derivImpl(float x) {
 			return (float) Math.cos(x);
 		}
+
+		private Object readResolve() {
+			return SIN;
+		}
 	};
 
 	ActivationFunction ELU = new ActivationFunction() {
@@ -73,6 +94,15 @@ public interface ActivationFunction extends Serializable {
 		public float derivImpl(float x) {
 			return x > 0 ? 1 : (float) Math.exp(x);
 		}
+
+		@Override
+		public float derivImpl(float x, float y) {
+			return x > 0 ? 1 : y + 1;
+		}
+
+		private Object readResolve() {
+			return ELU;
+		}
 	};
 
 	ActivationFunction SWISH = new ActivationFunction() {
@@ -88,6 +118,10 @@ public interface ActivationFunction extends Serializable {
 			float sigmoid = (float) (1 / (1 + Math.exp(-x)));
 			return sigmoid * (1 + x * (1 - sigmoid));
 		}
+
+		private Object readResolve() {
+			return SWISH;
+		}
 	};
 
 	ActivationFunction IDENTITY = new ActivationFunction() {
@@ -102,6 +136,10 @@ public interface ActivationFunction extends Serializable {
 		public float derivImpl(float x) {
 			return 1;
 		}
+
+		private Object readResolve() {
+			return IDENTITY;
+		}
 	};
 
 	ActivationFunction RELU = new ActivationFunction() {
@@ -116,6 +154,10 @@ public interface ActivationFunction extends Serializable {
 		public float derivImpl(float x) {
 			return x <= 0 ? 0 : 1;
 		}
+
+		private Object readResolve() {
+			return RELU;
+		}
 	};
 
 	ActivationFunction SIGMOID = new ActivationFunction() {
@@ -131,6 +173,15 @@ public interface ActivationFunction extends Serializable {
 			float sigmoid = (float) (1.0 / (1.0 + Math.exp(-x)));
 			return sigmoid * (1 - sigmoid);
 		}
+
+		@Override
+		public float derivImpl(float x, float y) {
+			return y * (1 - y);
+		}
+
+		private Object readResolve() {
+			return SIGMOID;
+		}
 	};
 
 	/**
@@ -149,8 +200,23 @@ public interface ActivationFunction extends Serializable {
 	 */
 	float derivImpl(float x);
 
+	/**
+	 * Computes the derivative of the activation for a single element from both its input and its activation. Functions
+	 * whose derivative can be written in terms of the activation override this to skip computing it again, the default
+	 * ignores y.
+	 * 
+	 * @param x the input value
+	 * @param y the activation of x, getImpl(x)
+	 * @return the derivative of the activation function at the given input value
+	 */
+	default float derivImpl(float x, float y) {
+		return derivImpl(x);
+	}
+
 	/**
 	 * Applies the activation function element-wise to an array of inputs and stores the results in the output array.
+	 * For the array of a matrix, which can be longer than the matrix, see {@link Matrix#data()}, use
+	 * {@link #get(Matrix, Matrix)} or {@link #get(float[], float[], int)} with its size.
 	 * 
 	 * @param x   the input array
 	 * @param out the output array to store results
@@ -160,13 +226,28 @@ public interface ActivationFunction extends Serializable {
 			throw new IllegalArgumentException("Input and output arrays do not match in length.");
 		}
 
-		for (int i = 0; i < x.length; i++) {
-			out[i] = getImpl(x[i]);
+		get(x, out, x.length);
+	}
+
+	/**
+	 * Applies the activation function element-wise to the first len inputs of an array and stores the results in the
+	 * output array.
+	 * 
+	 * @param x   the input array
+	 * @param out the output array to store results
+	 * @param len the number of values, at most the length of either array
+	 */
+	default void get(float[] x, float[] out, int len) {
+		if (len < 0 || len > x.length || len > out.length) {
+			throw new IllegalArgumentException("Length out of range of the arrays.");
 		}
+
+		Kernels.INSTANCE.activate(this, x, out, len);
 	}
 
 	/**
 	 * Applies the derivative of the activation function element-wise to an array of inputs and stores the results in the output array.
+	 * For the array of a matrix, see {@link #get(float[], float[])}.
 	 * 
 	 * @param x   the input array
 	 * @param out the output array to store results
@@ -176,8 +257,91 @@ public interface ActivationFunction extends Serializable {
 			throw new IllegalArgumentException("Input and output arrays do not match in length.");
 		}
 
-		for (int i = 0; i < x.length; i++) {
-			out[i] = derivImpl(x[i]);
+		deriv(x, out, x.length);
+	}
+
+	/**
+	 * Applies the derivative of the activation function element-wise to the first len inputs of an array and stores the
+	 * results in the output array.
+	 * 
+	 * @param x   the input array
+	 * @param out the output array to store results
+	 * @param len the number of values, at most the length of either array
+	 */
+	default void deriv(float[] x, float[] out, int len) {
+		if (len < 0 || len > x.length || len > out.length) {
+			throw new IllegalArgumentException("Length out of range of the arrays.");
+		}
+
+		Kernels.INSTANCE.derive(this, x, out, len);
+	}
+
+	/**
+	 * Applies the activation function element-wise to the values of a matrix and stores the results in the output matrix.
+	 * 
+	 * @param x   the input matrix
+	 * @param out the output matrix to store results
+	 */
+	default void get(Matrix x, Matrix out) {
+		if (x.size() != out.size()) {
+			throw new IllegalArgumentException("Input and output matrices do not match in size.");
+		}
+
+		if (x.hasArray() && out.hasArray()) {
+			Kernels.INSTANCE.activate(this, x.data, out.data, x.size());
+		} else {
+			for (int i = 0; i < x.size(); i++) {
+				out.store(i, getImpl(x.load(i)));
+			}
+		}
+	}
+
+	/**
+	 * Applies the derivative of the activation function element-wise to the values of a matrix and stores the results in
+	 * the output matrix.
+	 * 
+	 * @param x   the input matrix
+	 * @param out the output matrix to store results
+	 */
+	default void deriv(Matrix x, Matrix out) {
+		if (x.size() != out.size()) {
+			throw new IllegalArgumentException("Input and output matrices do not match in size.");
+		}
+
+		if (x.hasArray() && out.hasArray()) {
+			Kernels.INSTANCE.derive(this, x.data, out.data, x.size());
+		} else {
+			for (int i = 0; i < x.size(); i++) {
+				out.store(i, derivImpl(x.load(i)));
+			}
+		}
+	}
+
+	/**
+	 * Computes the gradient with respect to the inputs of the activation function from the gradient with respect to its
+	 * outputs, dz = da * g'(z) element-wise, in one pass. The derivative is computed from the cached activations where
+	 * it can be, see {@link #derivImpl(float, float)}.
+	 * 
+	 * @param z  the inputs of the activation function
+	 * @param a  the activations of z
+	 * @param da the gradient with respect to a
+	 * @param dz the output matrix to store the gradient with respect to z, which may be da
+	 */
+	default void backward(Matrix z, Matrix a, Matrix da, Matrix dz) {
+		if (z.rows() != a.rows() || z.cols() != a.cols() || z.rows() != da.rows() || z.cols() != da.cols()
+				|| z.rows() != dz.rows() || z.cols() != dz.cols()) {
+			throw new IllegalArgumentException("Dimension mismatch.");
+		}
+
+		if (z.hasArray() && a.hasArray() && da.hasArray() && dz.hasArray() && a.transposed == z.transposed
+				&& da.transposed == z.transposed && dz.transposed == z.transposed) {
+			Kernels.INSTANCE.backward(this, z.data, a.data, da.data, dz.data, z.size());
+		} else {
+			for (int i = 0; i < z.rows(); i++) {
+				for (int j = 0; j < z.cols(); j++) {
+					dz.set(i, j, da.get(i, j) * derivImpl(z.get(i, j), a.get(i, j)));
+				}
+			}
 		}
 	}
 
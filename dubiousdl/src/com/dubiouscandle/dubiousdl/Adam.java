@@ -1,8 +1,23 @@
 package com.dubiouscandle.dubiousdl;
 
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import com.dubiouscandle.dubiousdl.MetricsListener.Pass;
+
 public class Adam {
 	private static final float EPSILON = 1e-5f;
 
+	/**
+	 * parameter matrices with at least twice this many elements are updated in parallel chunks
+	 */
+	private static final int GRAIN = 1 << 16;
+
 	private final Model model;
 
 	// cached matrices to avoid reallocation every iteration
@@ -28,18 +43,100 @@ public class Adam {
 
 	private final LossFunction J;
 
+	/**
+	 * keep the activations of every checkpointEvery-th layer and recompute the others, or 0 to keep them all
+	 */
+	private final int checkpointEvery;
+
+	/**
+	 * each worker forward and back propagates some columns of the batch. the first one ends up with the summed gradients.
+	 */
+	private final Worker[] workers;
+
+	/**
+	 * masks[l] is 0 for the pruned weights of layer l and 1 for the others, null until {@link #prune} is called
+	 */
+	private Matrix[] masks;
+
 	private int t = 1;
 
+	private float loss = Float.NaN;
+
+	// bias corrections of the moments for the current t
+	private float c1, c2;
+
 	public Adam(Model model, LossFunction J, float B1, float B2) {
+		this(model, J, B1, B2, 1);
+	}
+
+	/**
+	 * creates an adam optimizer that splits the columns of every batch between workers tasks on the
+	 * {@link ComputePool}.<br>
+	 * every worker propagates its columns forward and back on matrices of its own and computes the gradients for them.
+	 * those are summed in a fixed tree, so the result does not depend on how the workers were scheduled, and then the
+	 * parameters get a single update. the weights match the ones of a single worker up to float rounding.<br>
+	 * with more than one worker the activations of the batch are not left in the model, only the output is in
+	 * {@link #output}.
+	 * 
+	 * @param model
+	 * @param J
+	 * @param B1
+	 * @param B2
+	 * @param workers how many parts to split every batch into, between 1 and the batch size of the model
+	 */
+	public Adam(Model model, LossFunction J, float B1, float B2, int workers) {
+		this(model, J, B1, B2, workers, 0);
+	}
+
+	/**
+	 * creates an adam optimizer that trains with gradient checkpointing, which trades compute for the memory of the
+	 * activations.<br>
+	 * only the input and the activations of every checkpointEvery-th layer are kept through a step. the layers in
+	 * between form segments that share one set of matrices for their activations and z, and the gradients of the
+	 * activations share two matrices for all layers. the backward pass forward propagates every segment again from the
+	 * activations kept at its start before going through it, except for the last segment, which is still there from
+	 * the forward pass. that is up to one more forward pass per step, see {@link #recomputed}, and the gradients are
+	 * the same as without checkpointing.<br>
+	 * the activations and z of the model are replaced by ones laid out like this, so after a step the model only holds
+	 * the activations of the kept layers and of the last segment. see {@link #activationBytes} for how much memory a
+	 * checkpoint interval takes and {@link #checkpointInterval} for picking one that fits a budget.
+	 * 
+	 * @param model
+	 * @param J
+	 * @param B1
+	 * @param B2
+	 * @param workers         how many parts to split every batch into, between 1 and the batch size of the model
+	 * @param checkpointEvery from 1 up to the number of layers, or 0 to keep every activation
+	 */
+	public Adam(Model model, LossFunction J, float B1, float B2, int workers, int checkpointEvery) {
+		if (workers < 1 || workers > model.m) {
+			throw new IllegalArgumentException("Workers must be between 1 and the batch size.");
+		}
+		if (workers > 1 && model.W[1].confined) {
+			throw new IllegalArgumentException("A model in a confined arena can only be trained by one worker.");
+		}
+		if (checkpointEvery < 0 || checkpointEvery > model.L) {
+			throw new IllegalArgumentException("Checkpoint interval must be between 0 and the number of layers.");
+		}
+		if (checkpointEvery > 0 && model.arena != null) {
+			throw new IllegalArgumentException("A model in an arena can't be trained with checkpointing.");
+		}
+
 		this.model = model;
 		this.B1 = B1;
 		this.B2 = B2;
 
 		this.J = J;
+		this.checkpointEvery = checkpointEvery;
 
-		output = new Matrix(model.output_size, model.m);
+		output = model.allocate(model.output_size, model.m);
 
 		this.L = model.L;
+		if (checkpointEvery > 0) {
+			Matrix[][] activations = checkpointed(model.n, model.m, checkpointEvery);
+			System.arraycopy(activations[0], 0, model.a, 0, L + 1);
+			System.arraycopy(activations[1], 0, model.z, 0, L + 1);
+		}
 		this.W = model.W;
 		this.a = model.a;
 		this.Z = model.z;
@@ -47,11 +144,38 @@ public class Adam {
 
 		this.g = model.g;
 
-		dW = Matrix.deepClone(model.W);
-		db = Matrix.deepClone(model.b);
-
-		da = Matrix.deepClone(model.a);
-		dz = Matrix.deepClone(model.z);
+		dW = emptyCopyOf(model.W);
+		db = emptyCopyOf(model.b);
+
+		this.workers = new Worker[workers];
+		if (workers == 1) {
+			if (checkpointEvery > 0) {
+				da = gradients(model.n, model.m);
+				dz = da;
+			} else {
+				da = emptyCopyOf(model.a);
+				dz = emptyCopyOf(model.z);
+			}
+			this.workers[0] = new Worker(0, a, Z, da, dz, dW, db, null);
+		} else {
+			for (int w = 0; w < workers; w++) {
+				int from = w * model.m / workers;
+				int cols = (w + 1) * model.m / workers - from;
+				Matrix[] dW = w == 0 ? this.dW : heapCopyOf(W), db = w == 0 ? this.db : heapCopyOf(b);
+				Matrix target = new Matrix(model.output_size, cols);
+				if (checkpointEvery > 0) {
+					Matrix[][] activations = checkpointed(model.n, cols, checkpointEvery);
+					Matrix[] gradients = gradients(model.n, cols);
+					this.workers[w] = new Worker(from, activations[0], activations[1], gradients, gradients, dW, db,
+							target);
+				} else {
+					this.workers[w] = new Worker(from, columns(cols), columns(cols), columns(cols), columns(cols), dW,
+							db, target);
+				}
+			}
+			da = this.workers[0].da;
+			dz = this.workers[0].dz;
+		}
 
 		mW = new Matrix[L + 1];
 		vW = new Matrix[L + 1];
@@ -59,104 +183,661 @@ public class Adam {
 		vb = new Matrix[L + 1];
 
 		for (int l = 1; l <= L; l++) {
-			mW[l] = Matrix.emptyCopyOf(W[l]);
-			vW[l] = Matrix.emptyCopyOf(W[l]);
-			mb[l] = Matrix.emptyCopyOf(b[l]);
-			vb[l] = Matrix.emptyCopyOf(b[l]);
+			mW[l] = model.allocate(W[l].rows(), W[l].cols());
+			vW[l] = model.allocate(W[l].rows(), W[l].cols());
+			mb[l] = model.allocate(b[l].rows(), b[l].cols());
+			vb[l] = model.allocate(b[l].rows(), b[l].cols());
 		}
 	}
 
+	/**
+	 * @return the number of bytes of the activations, z and gradients of the activations and z of a batch that
+	 *         training model with an adam optimizer made with these arguments takes, counting the ones in the model.
+	 *         the parameters, their gradients and moments come on top.
+	 */
+	public static long activationBytes(Model model, int workers, int checkpointEvery) {
+		int[] n = model.n;
+		long sum = 0;
+		for (int l = 0; l <= model.L; l++) {
+			sum += n[l];
+		}
+
+		if (checkpointEvery == 0) {
+			// the model's activations and z, and each worker's activations, z and their gradients
+			return 4 * (2 * sum * model.m + (workers == 1 ? 2 : 4) * sum * model.m);
+		}
+
+		long floats = checkpointedFloats(n, model.m, checkpointEvery);
+		if (workers == 1) {
+			return 4 * (floats + 2L * widest(n) * model.m);
+		}
+		for (int w = 0; w < workers; w++) {
+			int cols = (w + 1) * model.m / workers - w * model.m / workers;
+			floats += checkpointedFloats(n, cols, checkpointEvery) + 2L * widest(n) * cols;
+		}
+		return 4 * floats;
+	}
+
+	/**
+	 * picks how often to checkpoint for {@link #Adam(Model, LossFunction, float, float, int, int)}: 0 if every
+	 * activation fits in the budget, otherwise the interval that fits and recomputes the fewest layers, and of those the
+	 * one that takes the least memory.
+	 * 
+	 * @param model
+	 * @param workers
+	 * @param budget  the most bytes {@link #activationBytes} may take
+	 * @return the checkpoint interval
+	 * @throws IllegalArgumentException if even the smallest layout doesn't fit
+	 */
+	public static int checkpointInterval(Model model, int workers, long budget) {
+		if (activationBytes(model, workers, 0) <= budget) {
+			return 0;
+		}
+		int best = 0, smallest = 0;
+		long least = Long.MAX_VALUE;
+		for (int k = 1; k <= model.L; k++) {
+			long bytes = activationBytes(model, workers, k);
+			if (bytes <= budget && (best == 0 || recomputed(model.L, k) < recomputed(model.L, best)
+					|| recomputed(model.L, k) == recomputed(model.L, best)
+							&& bytes < activationBytes(model, workers, best))) {
+				best = k;
+			}
+			if (bytes < least) {
+				least = bytes;
+				smallest = k;
+			}
+		}
+		if (best == 0) {
+			throw new IllegalArgumentException("The activations need at least " + least
+					+ " bytes, with a checkpoint every " + smallest + " layers.");
+		}
+		return best;
+	}
+
+	/**
+	 * @return how many layers a step forward propagates a second time when checkpointing every k of L layers: all but
+	 *         those of the last segment
+	 */
+	public static int recomputed(int L, int k) {
+		return k == 0 ? 0 : (L - 1) / k * k;
+	}
+
+	/**
+	 * lays out the activations and z of cols columns for checkpointing every k layers. a[0] and a[l] for l below L that
+	 * are a multiple of k get arrays of their own. every other layer l is at position (l - 1) % k of its segment, and
+	 * its activations and z are stored in the arrays of that position, which are as long as the widest layer there
+	 * needs. z[0] is never used and left null.
+	 * 
+	 * @return the activations and the z, indexed by layer
+	 */
+	private static Matrix[][] checkpointed(int[] n, int cols, int k) {
+		int L = n.length - 1;
+		int[] aLengths = new int[k], zLengths = new int[k];
+		for (int l = 1; l <= L; l++) {
+			int p = (l - 1) % k;
+			zLengths[p] = Math.max(zLengths[p], n[l] * cols);
+			if (!kept(l, L, k)) {
+				aLengths[p] = Math.max(aLengths[p], n[l] * cols);
+			}
+		}
+
+		float[][] aSlots = new float[k][], zSlots = new float[k][];
+		for (int p = 0; p < k; p++) {
+			aSlots[p] = new float[aLengths[p]];
+			zSlots[p] = new float[zLengths[p]];
+		}
+
+		Matrix[] a = new Matrix[L + 1], z = new Matrix[L + 1];
+		a[0] = new Matrix(n[0], cols);
+		for (int l = 1; l <= L; l++) {
+			int p = (l - 1) % k;
+			a[l] = kept(l, L, k) ? new Matrix(n[l], cols) : new Matrix(aSlots[p], n[l], cols);
+			z[l] = new Matrix(zSlots[p], n[l], cols);
+		}
+		return new Matrix[][] { a, z };
+	}
+
+	/**
+	 * @return how many floats {@link #checkpointed} allocates
+	 */
+	private static long checkpointedFloats(int[] n, int cols, int k) {
+		int L = n.length - 1;
+		long[] aLengths = new long[k], zLengths = new long[k];
+		long floats = (long) n[0] * cols;
+		for (int l = 1; l <= L; l++) {
+			int p = (l - 1) % k;
+			zLengths[p] = Math.max(zLengths[p], (long) n[l] * cols);
+			if (kept(l, L, k)) {
+				floats += (long) n[l] * cols;
+			} else {
+				aLengths[p] = Math.max(aLengths[p], (long) n[l] * cols);
+			}
+		}
+		for (int p = 0; p < k; p++) {
+			floats += aLengths[p] + zLengths[p];
+		}
+		return floats;
+	}
+
+	/**
+	 * @return whether the activations of layer l are kept through a step when checkpointing every k layers
+	 */
+	private static boolean kept(int l, int L, int k) {
+		return l == 0 || (l < L && l % k == 0);
+	}
+
+	/**
+	 * @return matrices for the gradients of the activations and z of cols columns when checkpointing. the back
+	 *         propagation only ever needs those of two neighbouring layers, so the even layers share one array and the
+	 *         odd layers another, and the gradient of z of a layer is computed in place of the one of its activation.
+	 */
+	private static Matrix[] gradients(int[] n, int cols) {
+		int L = n.length - 1;
+		float[] even = new float[widest(n) * cols], odd = new float[widest(n) * cols];
+		Matrix[] gradients = new Matrix[L + 1];
+		for (int l = 0; l <= L; l++) {
+			gradients[l] = new Matrix(l % 2 == 0 ? even : odd, n[l], cols);
+		}
+		return gradients;
+	}
+
+	private static int widest(int[] n) {
+		int widest = 0;
+		for (int size : n) {
+			widest = Math.max(widest, size);
+		}
+		return widest;
+	}
+
+	/**
+	 * @return an array of matrices on the heap with cols columns and as many rows as each layer of the model
+	 */
+	private Matrix[] columns(int cols) {
+		Matrix[] matrices = new Matrix[L + 1];
+		for (int l = 0; l <= L; l++) {
+			matrices[l] = new Matrix(model.n[l], cols);
+		}
+		return matrices;
+	}
+
+	/**
+	 * @return an array with a matrix of zeros on the heap of the same dimension for every matrix in the array. null
+	 *         elements stay null.
+	 */
+	private static Matrix[] heapCopyOf(Matrix[] matrixArray) {
+		Matrix[] copy = new Matrix[matrixArray.length];
+		for (int i = 0; i < copy.length; i++) {
+			if (matrixArray[i] != null) {
+				copy[i] = Matrix.emptyCopyOf(matrixArray[i]);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * copies the columns of batch starting at from into the columns of part
+	 */
+	private static void copyColumns(Matrix batch, int from, Matrix part) {
+		if (batch.hasArray() && !batch.transposed) {
+			for (int i = 0; i < part.rows; i++) {
+				System.arraycopy(batch.data, i * batch.cols + from, part.data, i * part.cols, part.cols);
+			}
+		} else {
+			for (int i = 0; i < part.rows; i++) {
+				for (int j = 0; j < part.cols; j++) {
+					part.data[i * part.cols + j] = batch.get(i, from + j);
+				}
+			}
+		}
+	}
+
+	/**
+	 * copies the columns of part into the columns of batch starting at from
+	 */
+	private static void pasteColumns(Matrix part, Matrix batch, int from) {
+		if (batch.hasArray() && !batch.transposed) {
+			for (int i = 0; i < part.rows; i++) {
+				System.arraycopy(part.data, i * part.cols, batch.data, i * batch.cols + from, part.cols);
+			}
+		} else {
+			for (int i = 0; i < part.rows; i++) {
+				for (int j = 0; j < part.cols; j++) {
+					batch.set(i, from + j, part.data[i * part.cols + j]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * x += y for matrices of the same dimension and layout
+	 */
+	private static void addTo(Matrix x, Matrix y) {
+		if (x.hasArray() && y.hasArray()) {
+			Kernels.INSTANCE.add(x.data, 0, y.data, 0, x.size());
+		} else {
+			for (int i = 0; i < x.size(); i++) {
+				x.store(i, x.load(i) + y.load(i));
+			}
+		}
+	}
+
+	/**
+	 * allocates a matrix of the same dimension for every matrix in the array, in the same place the model allocates its
+	 * matrices. null elements stay null.
+	 * 
+	 * @param matrixArray
+	 * @return a new Matrix[]
+	 */
+	private Matrix[] emptyCopyOf(Matrix[] matrixArray) {
+		Matrix[] copy = new Matrix[matrixArray.length];
+		for (int i = 0; i < copy.length; i++) {
+			if (matrixArray[i] != null) {
+				copy[i] = model.allocate(matrixArray[i].rows(), matrixArray[i].cols());
+			}
+		}
+		return copy;
+	}
+
 	public void step(Matrix input, Matrix target, float alpha) {
 		if (target.rows() != output.rows() || target.cols() != output.cols()) {
 			throw new IllegalArgumentException("Invalid expected output.");
 		}
-		if (input.rows() != model.input_size || input.cols() != model.m) {
+
+		step(input, null, target, null, alpha);
+	}
+
+	/**
+	 * takes a step with the targets given as class indices instead of a one hot matrix, so none has to be built. the
+	 * loss function gets the labels through {@link LossFunction#getErrorAndLoss(Matrix, int[], Matrix)}.
+	 * 
+	 * @param input
+	 * @param labels the class of every column of input
+	 * @param alpha
+	 */
+	public void step(Matrix input, int[] labels, float alpha) {
+		if (labels.length != model.m) {
+			throw new IllegalArgumentException("Invalid number of labels.");
+		}
+
+		step(input, null, null, labels, alpha);
+	}
+
+	/**
+	 * takes a step for an input that is mostly zeros. the first layer is propagated through the values of input that
+	 * are stored, and the gradient of its weights is only accumulated for the rows of input that aren't zero, see
+	 * {@link SparseGemm}.
+	 * 
+	 * @param input
+	 * @param target
+	 * @param alpha
+	 */
+	public void step(SparseMatrix input, Matrix target, float alpha) {
+		if (target.rows() != output.rows() || target.cols() != output.cols()) {
+			throw new IllegalArgumentException("Invalid expected output.");
+		}
+
+		step(null, input, target, null, alpha);
+	}
+
+	/**
+	 * same as {@link #step(SparseMatrix, Matrix, float)} with the targets given as class indices
+	 * 
+	 * @param input
+	 * @param labels the class of every column of input
+	 * @param alpha
+	 */
+	public void step(SparseMatrix input, int[] labels, float alpha) {
+		if (labels.length != model.m) {
+			throw new IllegalArgumentException("Invalid number of labels.");
+		}
+
+		step(null, input, null, labels, alpha);
+	}
+
+	/**
+	 * takes a step for either input or sparseInput towards either target or labels, whichever are not null
+	 */
+	private void step(Matrix input, SparseMatrix sparseInput, Matrix target, int[] labels, float alpha) {
+		int rows = input != null ? input.rows() : sparseInput.rows();
+		int cols = input != null ? input.cols() : sparseInput.cols();
+		if (rows != model.input_size || cols != model.m) {
 			throw new IllegalArgumentException("Invalid expected output.");
 		}
 
-		clearCache();
-		model.forwardPropagate(input, output);
+		long start = Metrics.start();
+		long allocated = Metrics.allocated();
+
+		c1 = (float) (1 - Math.pow(B1, t));
+		c2 = (float) (1 - Math.pow(B2, t));
 
-		J.getError(output, target, dz[L]);
+		inParallel(workers.length, w -> workers[w].propagate(input, sparseInput, target, labels));
+		sumGradients();
+
+		float sum = 0;
+		for (Worker worker : workers) {
+			sum += worker.loss * worker.a[0].cols();
+		}
+		loss = sum / model.m;
 
+		// the gradients are only averaged over the batch inside the update
+		long updateStart = Metrics.start();
 		for (int l = L; l >= 1; l--) {
-			computeBackPropagationStep(l, alpha);
+			update(W[l], mW[l], vW[l], dW[l], 1.0f / model.m, alpha);
+			update(b[l], mb[l], vb[l], db[l], 1.0f / model.m, alpha);
+			if (masks != null) {
+				Matrix.hadamardProduct(W[l], masks[l]);
+			}
 		}
+		Metrics.update(updateStart);
 
 		t++;
+		Metrics.step(start, allocated, loss);
 	}
 
-	private void clearCache() {
-		for (Matrix matrix : da) {
-			if (matrix != null)
-				matrix.clear();
+	/**
+	 * prunes the weights of the model to sparsity by magnitude, see {@link Pruner}, and keeps the pruned weights at 0
+	 * in every step from now on by masking them after the update. the moments of the pruned weights are reset.<br>
+	 * calling it again replaces the masks. the weights pruned before are 0, so they have the smallest magnitudes and
+	 * stay pruned as long as sparsity doesn't go down, which is how to prune gradually, see
+	 * {@link Pruner#sparsity(long, long, long, float)}.
+	 * 
+	 * @param sparsity the fraction of the weights to prune, from 0 to 1
+	 */
+	public void prune(float sparsity) {
+		masks = Pruner.masks(model, sparsity);
+		for (int l = 1; l <= L; l++) {
+			Matrix.hadamardProduct(W[l], masks[l]);
+			Matrix.hadamardProduct(mW[l], masks[l]);
+			Matrix.hadamardProduct(vW[l], masks[l]);
 		}
-		for (Matrix matrix : dz) {
-			if (matrix != null)
-				matrix.clear();
+	}
+
+	/**
+	 * @return the average loss over the batch of the last step, before its update. it comes out of the same pass as
+	 *         the gradient of the loss, so it costs next to nothing. NaN before the first step.
+	 */
+	public float loss() {
+		return loss;
+	}
+
+	/**
+	 * adds the gradients of all workers into the first one, pairing them up in a tree: 1 into 0, 3 into 2, ..., then 2
+	 * into 0, 6 into 4 and so on
+	 */
+	private void sumGradients() {
+		for (int stride = 1; stride < workers.length; stride *= 2) {
+			int step = 2 * stride;
+			int pairs = (workers.length - stride + step - 1) / step;
+			inParallel(pairs, p -> workers[p * step].add(workers[p * step + step / 2]));
 		}
-		for (Matrix matrix : dW) {
-			if (matrix != null)
-				matrix.clear();
+	}
+
+	/**
+	 * runs task for 0 up to count, in parallel on the {@link ComputePool} if there is more than one
+	 */
+	private static void inParallel(int count, IntConsumer task) {
+		if (count == 1) {
+			task.accept(0);
+			return;
 		}
-		for (Matrix matrix : db) {
-			if (matrix != null)
-				matrix.clear();
+
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int index = i;
+			tasks.add(ForkJoinTask.adapt(() -> task.accept(index)));
+		}
+
+		ForkJoinPool pool = ComputePool.get();
+		if (ForkJoinTask.getPool() == pool) {
+			ForkJoinTask.invokeAll(tasks);
+		} else {
+			pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
 		}
-		output.clear();
 	}
 
-	private void computeBackPropagationStep(int l, float alpha) {
-		if (l != L) {
-			g[l].deriv(Z[l].data(), dz[l].data());
-			Matrix.hadamardProduct(dz[l], da[l]);
+	/**
+	 * the matrices one worker propagates its columns of the batch with
+	 */
+	private final class Worker {
+		/**
+		 * the first column of the batch this worker propagates
+		 */
+		private final int from;
+
+		private final Matrix[] a, z, da, dz, dW, db;
+		// transposes of the weights and activations, so the shared matrices never have their flag flipped
+		private final Matrix[] WT, aT;
+		/**
+		 * this workers columns of the target and labels, or null if it has the whole batch
+		 */
+		private final Matrix target;
+		private final int[] labels;
+
+		/**
+		 * the average loss of this workers columns in the last step
+		 */
+		private float loss;
+
+		/**
+		 * this workers columns of the input of the current step if it is sparse, null otherwise. a[0] isn't used then.
+		 */
+		private SparseMatrix x;
+
+		/**
+		 * @param from   the first column of the batch this worker propagates
+		 * @param a
+		 * @param z
+		 * @param da
+		 * @param dz
+		 * @param dW
+		 * @param db
+		 * @param target where to copy the columns of the target, or null if this worker has the whole batch
+		 */
+		Worker(int from, Matrix[] a, Matrix[] z, Matrix[] da, Matrix[] dz, Matrix[] dW, Matrix[] db, Matrix target) {
+			this.from = from;
+			this.a = a;
+			this.z = z;
+			this.da = da;
+			this.dz = dz;
+			this.dW = dW;
+			this.db = db;
+			this.target = target;
+			this.labels = target == null ? null : new int[target.cols()];
+
+			WT = new Matrix[L + 1];
+			aT = new Matrix[L + 1];
+			for (int l = 0; l <= L; l++) {
+				WT[l] = l == 0 ? null : W[l].transposedView();
+				aT[l] = a[l].transposedView();
+			}
+		}
+
+		/**
+		 * forward and back propagates this workers columns of the batch, leaving the gradients in dW and db
+		 * 
+		 * @param input       the input of the whole batch, or null if sparseInput is given
+		 * @param sparseInput the input of the whole batch, or null if input is given
+		 * @param batchTarget the target of the whole batch, or null if batchLabels are given
+		 * @param batchLabels the labels of the whole batch, or null if batchTarget is given
+		 */
+		void propagate(Matrix input, SparseMatrix sparseInput, Matrix batchTarget, int[] batchLabels) {
+			if (target == null) {
+				x = sparseInput;
+				if (x != null) {
+					model.forwardPropagate(x, output);
+				} else {
+					model.forwardPropagate(input, output);
+				}
+				if (batchTarget != null) {
+					loss = J.getErrorAndLoss(output, batchTarget, dz[L]);
+				} else {
+					loss = J.getErrorAndLoss(output, batchLabels, dz[L]);
+				}
+			} else {
+				if (sparseInput != null) {
+					x = sparseInput.columns(from, a[0].cols());
+				} else {
+					x = null;
+					copyColumns(input, from, a[0]);
+				}
+				for (int l = 1; l <= L; l++) {
+					forward(l, Pass.FORWARD);
+				}
+				pasteColumns(a[L], output, from);
+
+				if (batchTarget != null) {
+					copyColumns(batchTarget, from, target);
+					loss = J.getErrorAndLoss(a[L], target, dz[L]);
+				} else {
+					System.arraycopy(batchLabels, from, labels, 0, labels.length);
+					loss = J.getErrorAndLoss(a[L], labels, dz[L]);
+				}
+			}
+
+			for (int l = L; l >= 1; l--) {
+				if (checkpointEvery > 0 && l < L && l % checkpointEvery == 0) {
+					recompute(l);
+				}
+				computeBackPropagationStep(l);
+			}
 		}
 
-		a[l - 1].transpose();
-		Matrix.multiply(dz[l], a[l - 1], dW[l]);
-		a[l - 1].transpose();
-		dW[l].multiply(1.0f / model.m);
+		/**
+		 * forward propagates the segment of layers ending at layer l again from the activations kept at its start,
+		 * since the segments above it have been stored in the same matrices since the forward pass
+		 */
+		private void recompute(int l) {
+			for (int j = l - checkpointEvery + 1; j <= l; j++) {
+				forward(j, Pass.RECOMPUTE);
+			}
+		}
 
-		dz[l].sumOfCols(db[l]);
-		db[l].multiply(1.0f / model.m);
+		private void forward(int l, Pass pass) {
+			long start = Metrics.start();
+			if (l == 1 && x != null) {
+				SparseGemm.dense(W[1], x, b[1], g[1], z[1], a[1]);
+			} else {
+				Gemm.dense(W[l], a[l - 1], b[l], g[l], z[l], a[l]);
+			}
+			Metrics.layer(l, pass, start);
+		}
 
-		W[l].transpose();
-		Matrix.multiply(W[l], dz[l], da[l - 1]);
-		W[l].transpose();
+		private void computeBackPropagationStep(int l) {
+			long start = Metrics.start();
+			if (l != L) {
+				g[l].backward(z[l], a[l], da[l], dz[l]);
+			}
+
+			if (l == 1 && x != null) {
+				SparseGemm.gradient(dz[1], x, dW[1]);
+			} else {
+				Matrix.multiply(dz[l], aT[l - 1], dW[l]);
+			}
+			dz[l].sumOfCols(db[l]);
+			// nothing needs the gradient of the input
+			if (l > 1) {
+				Matrix.multiply(WT[l], dz[l], da[l - 1]);
+			}
+			Metrics.layer(l, Pass.BACKWARD, start);
+		}
 
-		for (int i = 0; i < mW[l].data().length; i++) {
-			float m = mW[l].data()[i];
-			float v = vW[l].data()[i];
-			float g = dW[l].data()[i];
+		/**
+		 * adds the gradients of other to the ones of this worker
+		 */
+		void add(Worker other) {
+			for (int l = 1; l <= L; l++) {
+				addTo(dW[l], other.dW[l]);
+				addTo(db[l], other.db[l]);
+			}
+		}
+	}
+	/**
+	 * applies the adam update to the parameters using their gradient and moments. large parameter matrices are split
+	 * across the {@link ComputePool}.
+	 * 
+	 * @param param
+	 * @param mParam
+	 * @param vParam
+	 * @param dParam the summed gradient
+	 * @param scale  what dParam is multiplied by to get the gradient
+	 * @param alpha
+	 */
+	private void update(Matrix param, Matrix mParam, Matrix vParam, Matrix dParam, float scale, float alpha) {
+		if (!param.hasArray() || !mParam.hasArray() || !vParam.hasArray() || !dParam.hasArray()) {
+			updateBuffers(param.buffer(), mParam.buffer(), vParam.buffer(), dParam.buffer(), param.size(), scale, alpha);
+			return;
+		}
 
-			m = B1 * m + (1 - B1) * g;
-			v = B2 * v + (1 - B2) * g * g;
+		int size = param.size();
+		ForkJoinPool pool = ComputePool.get();
+		if (size < 2 * GRAIN || pool.getParallelism() == 1) {
+			Kernels.INSTANCE.adam(param.data, mParam.data, vParam.data, dParam.data, 0, size, scale, B1, B2, c1, c2,
+					alpha, EPSILON);
+			return;
+		}
 
-			float m_hat = m / (float) (1 - Math.pow(B1, t));
-			float v_hat = v / (float) (1 - Math.pow(B2, t));
+		Update update = new Update(param.data, mParam.data, vParam.data, dParam.data, 0, size, scale, alpha);
+		if (ForkJoinTask.getPool() == pool) {
+			update.invoke();
+		} else {
+			pool.invoke(update);
+		}
+	}
 
-			W[l].data()[i] = W[l].data()[i] - alpha * m_hat / (float) Math.sqrt(v_hat + EPSILON);
+	/**
+	 * updates a range of parameters, splitting it in half until it is no larger than {@link #GRAIN}
+	 */
+	private final class Update extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final float[] param, m, v, d;
+		private final int off, len;
+		private final float scale, alpha;
+
+		Update(float[] param, float[] m, float[] v, float[] d, int off, int len, float scale, float alpha) {
+			this.param = param;
+			this.m = m;
+			this.v = v;
+			this.d = d;
+			this.off = off;
+			this.len = len;
+			this.scale = scale;
+			this.alpha = alpha;
+		}
 
-			mW[l].data()[i] = m;
-			vW[l].data()[i] = v;
+		@Override
+		protected void compute() {
+			if (len <= GRAIN) {
+				Kernels.INSTANCE.adam(param, m, v, d, off, len, scale, B1, B2, c1, c2, alpha, EPSILON);
+			} else {
+				int half = len / 2;
+				invokeAll(new Update(param, m, v, d, off, half, scale, alpha),
+						new Update(param, m, v, d, off + half, len - half, scale, alpha));
+			}
 		}
-		
-		for (int i = 0; i < mb[l].data().length; i++) {
-			float m = mb[l].data()[i];
-			float v = vb[l].data()[i];
-			float g = db[l].data()[i];
+	}
+
+	/**
+	 * same as {@link #update} for parameters that are not backed by arrays
+	 */
+	private void updateBuffers(FloatBuffer param, FloatBuffer mParam, FloatBuffer vParam, FloatBuffer dParam, int size,
+			float scale, float alpha) {
+		for (int i = 0; i < size; i++) {
+			float m = mParam.get(i);
+			float v = vParam.get(i);
+			float g = dParam.get(i) * scale;
 
 			m = B1 * m + (1 - B1) * g;
 			v = B2 * v + (1 - B2) * g * g;
 
-			float m_hat = m / (float) (1 - Math.pow(B1, t));
-			float v_hat = v / (float) (1 - Math.pow(B2, t));
+			float m_hat = m / c1;
+			float v_hat = v / c2;
 
-			b[l].data()[i] = b[l].data()[i] - alpha * m_hat / (float) Math.sqrt(v_hat + EPSILON);
+			param.put(i, param.get(i) - alpha * m_hat / (float) Math.sqrt(v_hat + EPSILON));
 
-			mb[l].data()[i] = m;
-			vb[l].data()[i] = v;
+			mParam.put(i, m);
+			vParam.put(i, v);
 		}
 	}
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+package com.dubiouscandle.dubiousdl;
+
+/**
+ * a dataset of records that are float arrays on the heap
+ */
+public class ArrayDataset implements Dataset {
+	private final float[][] records;
+	private final int[] labels;
+	private final int len;
+	private final int recordSize;
+
+	/**
+	 * the arrays are used as they are, not copied
+	 *
+	 * @param records    the first len are the records, each of length recordSize
+	 * @param labels     the first len are the labels
+	 * @param len
+	 * @param recordSize
+	 */
+	public ArrayDataset(float[][] records, int[] labels, int len, int recordSize) {
+		if (len < 0 || len > records.length || len > labels.length) {
+			throw new IllegalArgumentException("Invalid length.");
+		}
+		for (int i = 0; i < len; i++) {
+			if (records[i].length != recordSize) {
+				throw new IllegalArgumentException("Invalid embedding.");
+			}
+		}
+
+		this.records = records;
+		this.labels = labels;
+		this.len = len;
+		this.recordSize = recordSize;
+	}
+
+	@Override
+	public int size() {
+		return len;
+	}
+
+	@Override
+	public int recordSize() {
+		return recordSize;
+	}
+
+	@Override
+	public int label(int index) {
+		return labels[index];
+	}
+
+	@Override
+	public void read(int index, float[] out, int offset, int stride) {
+		float[] record = records[index];
+		for (int k = 0; k < recordSize; k++) {
+			out[offset + k * stride] = record[k];
+		}
+	}
+}
@@ -2,37 +2,69 @@ package com.dubiouscandle.dubiousdl;
 
 import java.util.Random;
 
+/**
+ * draws batches from a {@link Dataset} in a random order. every pass over the dataset shuffles a permutation of the
+ * record indices, the records themselves are never copied or moved.
+ */
 public class Batch {
 	private final Random random;
 	private int index;
 
-	private float[][] embeddings;
-	private int[] labels;
+	private final Dataset dataset;
+	private final int[] order;
 
 	private Matrix input;
 	private Matrix target;
+	private final int[] batchLabels;
 
 	private final int batchSize;
 	private final int numClasses;
 	private final int embeddingSize;
 
+	/**
+	 * draws batches from the first len embeddings and labels, the arrays are used as they are, not copied
+	 */
 	public Batch(float[][] embeddings, int[] labels, int len, int numClasses, int embeddingSize, int batchSize,
 			Random random) {
-		this.random = random;
-		this.embeddingSize = embeddingSize;
-		this.embeddings = new float[len][];
+		this(new ArrayDataset(embeddings, labels, len, embeddingSize), numClasses, batchSize, random);
+	}
 
-		for (int i = 0; i < len; i++) {
-			this.embeddings[i] = embeddings[i].clone();
-			if (embeddings[i].length != embeddingSize) {
-				throw new IllegalArgumentException("Invalid embedding.");
-			}
+	/**
+	 * @param dataset
+	 * @param numClasses the labels must be in [0, numClasses)
+	 * @param batchSize
+	 * @param random     decides the order of the records
+	 */
+	public Batch(Dataset dataset, int numClasses, int batchSize, Random random) {
+		this(dataset, numClasses, batchSize, random, true);
+	}
+
+	/**
+	 * @param dataset
+	 * @param numClasses     the labels must be in [0, numClasses)
+	 * @param batchSize
+	 * @param random         decides the order of the records
+	 * @param oneHotTargets  whether to also write the labels as a one hot target matrix. without, {@link #target()} is
+	 *                       null and only {@link #labels()} are there, which is all the int[] label methods of
+	 *                       {@link LossFunction} and {@link Adam} need
+	 */
+	public Batch(Dataset dataset, int numClasses, int batchSize, Random random, boolean oneHotTargets) {
+		if (batchSize < 1 || batchSize > dataset.size()) {
+			throw new IllegalArgumentException("Batch size must be between 1 and the size of the dataset.");
 		}
 
-		this.labels = labels.clone();
+		this.random = random;
+		this.dataset = dataset;
+		this.embeddingSize = dataset.recordSize();
+
+		order = new int[dataset.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
 
 		input = new Matrix(embeddingSize, batchSize);
-		target = new Matrix(numClasses, batchSize);
+		target = oneHotTargets ? new Matrix(numClasses, batchSize) : null;
+		batchLabels = new int[batchSize];
 
 		this.batchSize = batchSize;
 		this.numClasses = numClasses;
@@ -41,53 +73,79 @@ public class Batch {
 		next();
 	}
 
+	/**
+	 * moves on to the next batch, reshuffling once there are not enough records left in this pass
+	 */
 	public void next() {
+		advance();
+		fill(input, target, batchLabels);
+	}
+
+	/**
+	 * moves the position in the permutation to the next batch
+	 */
+	void advance() {
 		index += batchSize;
 
-		if (index + batchSize > embeddings.length) {
+		if (index + batchSize > order.length) {
 			shuffle();
 			index = 0;
 		}
+	}
 
+	/**
+	 * writes the current batch into input, target and labels, which need to have the dimensions of {@link #input()},
+	 * {@link #target()} and {@link #labels()}. the matrices must be backed by arrays, target may be null.
+	 */
+	void fill(Matrix input, Matrix target, int[] labels) {
+		long start = Metrics.start();
+		float[] in = input.data;
 		for (int i = 0; i < batchSize; i++) {
-			int label = labels[index + i];
+			int record = order[index + i];
+			int label = dataset.label(record);
 			if (label < 0 || label >= numClasses) {
 				throw new IllegalArgumentException("Label " + label + " out of bounds.");
 			}
 
-			for (int j = 0; j < embeddingSize; j++) {
-				input.set(j, i, embeddings[index + i][j]);
-			}
-			for (int j = 0; j < numClasses; j++) {
-				target.set(j, i, j == label ? 1.0f : 0.0f);
+			// column i of the row major input and target
+			dataset.read(record, in, i, batchSize);
+			labels[i] = label;
+			if (target != null) {
+				float[] out = target.data;
+				for (int j = 0; j < numClasses; j++) {
+					out[j * batchSize + i] = j == label ? 1.0f : 0.0f;
+				}
 			}
 		}
+		Metrics.batch(batchSize, start);
 	}
 
 	private void shuffle() {
-		for (int i = embeddings.length - 1; i > 0; i--) {
+		for (int i = order.length - 1; i > 0; i--) {
 			int j = random.nextInt(i + 1);
 
-			swap(i, j);
+			int temp = order[i];
+			order[i] = order[j];
+			order[j] = temp;
 		}
 	}
 
-	private void swap(int i, int j) {
-		float[] tempValue = embeddings[i];
-		embeddings[i] = embeddings[j];
-		embeddings[j] = tempValue;
-
-		int tempLabel = labels[i];
-		labels[i] = labels[j];
-		labels[j] = tempLabel;
-	}
-
 	public Matrix input() {
 		return input;
 	}
 
+	/**
+	 * @return the one hot targets, or null if the batch was created without them
+	 */
 	public Matrix target() {
 		return target;
 	}
 
+	/**
+	 * @return the class of every column of the input
+	 */
+	public int[] labels() {
+		return batchLabels;
+	}
+
 }
@@ -0,0 +1,178 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * prepares batches on a background thread while the training thread works on the previous one. a producer thread
+ * fills a ring of preallocated input and target matrices, optionally transforms them, and hands them over in order.
+ * <br>
+ * the batches are the same, in the same order, as those of a {@link Batch} with the same dataset and random: only the
+ * producer uses the random, so a seeded one makes the pipeline reproducible. the same goes for a transform that uses a
+ * seeded random of its own, since it is called on one batch after the other on the producer thread.<br>
+ * like a batch, the first batch is ready once the constructor returns and next moves on to the following one. the
+ * matrices returned by input and target belong to the pipeline again once next is called.
+ */
+public class BatchPipeline implements AutoCloseable {
+	/**
+	 * changes a batch in place after it is filled and before the trainer gets it, e.g. to normalize or augment the
+	 * samples. called on the producer thread.
+	 */
+	public interface Transform {
+		/**
+		 * @param input  embedding_size x batch_size, one sample per column
+		 * @param target num_classes x batch_size
+		 */
+		void apply(Matrix input, Matrix target);
+	}
+
+	private static final int FAILED = -1;
+
+	private final Batch batch;
+	private final Transform transform;
+
+	private final Matrix[] inputs;
+	private final Matrix[] targets;
+	private final int[][] labels;
+
+	/**
+	 * the slots the producer may fill, and the filled slots in order
+	 */
+	private final BlockingQueue<Integer> free;
+	private final BlockingQueue<Integer> filled;
+
+	private final Thread producer;
+	private volatile Throwable failure;
+	private volatile boolean closed;
+
+	private int current;
+
+	/**
+	 * @param dataset
+	 * @param numClasses
+	 * @param batchSize
+	 * @param random     decides the order of the records
+	 * @param depth      the number of batches in the ring, at least 2: one for the trainer and the rest for the
+	 *                   producer to fill ahead
+	 * @param transform  applied to every batch, or null
+	 */
+	public BatchPipeline(Dataset dataset, int numClasses, int batchSize, Random random, int depth,
+			Transform transform) {
+		if (depth < 2) {
+			throw new IllegalArgumentException("Depth must be at least 2.");
+		}
+
+		batch = new Batch(dataset, numClasses, batchSize, random, false);
+		this.transform = transform;
+
+		inputs = new Matrix[depth];
+		targets = new Matrix[depth];
+		labels = new int[depth][];
+		free = new ArrayBlockingQueue<>(depth);
+		filled = new ArrayBlockingQueue<>(depth);
+		for (int s = 0; s < depth; s++) {
+			inputs[s] = new Matrix(dataset.recordSize(), batchSize);
+			targets[s] = new Matrix(numClasses, batchSize);
+			labels[s] = new int[batchSize];
+			free.add(s);
+		}
+
+		producer = new Thread(this::produce, "dubiousdl-batch-pipeline");
+		producer.setDaemon(true);
+		producer.start();
+
+		current = take();
+	}
+
+	/**
+	 * @param dataset
+	 * @param numClasses
+	 * @param batchSize
+	 * @param random     decides the order of the records
+	 * @param depth      the number of batches in the ring, at least 2
+	 */
+	public BatchPipeline(Dataset dataset, int numClasses, int batchSize, Random random, int depth) {
+		this(dataset, numClasses, batchSize, random, depth, null);
+	}
+
+	private void produce() {
+		try {
+			while (!closed) {
+				int slot = free.take();
+				// the batch was already moved to its first position by its constructor
+				batch.fill(inputs[slot], targets[slot], labels[slot]);
+				if (transform != null) {
+					transform.apply(inputs[slot], targets[slot]);
+				}
+				batch.advance();
+				filled.put(slot);
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} catch (Throwable e) {
+			// errors too, or next would wait forever for a batch that never comes
+			failure = e;
+			filled.offer(FAILED);
+		}
+	}
+
+	/**
+	 * waits for the next filled slot
+	 */
+	private int take() {
+		int slot;
+		try {
+			slot = filled.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a batch.", e);
+		}
+		if (slot == FAILED) {
+			filled.offer(FAILED);
+			throw new IllegalStateException("Preparing a batch failed.", failure);
+		}
+		return slot;
+	}
+
+	/**
+	 * hands the current batch back to the producer and waits for the next one
+	 */
+	public void next() {
+		if (closed) {
+			throw new IllegalStateException("Pipeline is closed.");
+		}
+
+		free.add(current);
+		current = take();
+	}
+
+	public Matrix input() {
+		return inputs[current];
+	}
+
+	public Matrix target() {
+		return targets[current];
+	}
+
+	/**
+	 * @return the class of every column of the input
+	 */
+	public int[] labels() {
+		return labels[current];
+	}
+
+	/**
+	 * stops the producer thread
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		producer.interrupt();
+		try {
+			producer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * the pool that matrix operations big enough to be worth splitting run on.<br>
+ * by default it has one thread per available processor, which can be changed for the whole process with the
+ * dubiousdl.threads system property or with {@link #setParallelism(int)}. a pool owned by the caller can be injected with
+ * {@link #set(ForkJoinPool)}.
+ */
+public final class ComputePool {
+	private static volatile ForkJoinPool pool = new ForkJoinPool(
+			Integer.getInteger("dubiousdl.threads", Runtime.getRuntime().availableProcessors()));
+
+	private ComputePool() {
+	}
+
+	/**
+	 * @return the pool parallel operations run on
+	 */
+	public static ForkJoinPool get() {
+		return pool;
+	}
+
+	/**
+	 * makes parallel operations run on the inputed pool. the caller stays responsible for shutting it down.
+	 *
+	 * @param pool
+	 */
+	public static void set(ForkJoinPool pool) {
+		if (pool == null) {
+			throw new IllegalArgumentException("Pool cannot be null.");
+		}
+		ComputePool.pool = pool;
+	}
+
+	/**
+	 * replaces the pool with a new one of the inputed number of threads. a parallelism of 1 keeps all work on the calling
+	 * thread.<br>
+	 * safe to call while work is running: the old pool isn't shut down, so operations that already got it from
+	 * {@link #get()} finish on it, and its threads exit on their own once they have been idle for a minute.
+	 *
+	 * @param parallelism
+	 */
+	public static void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be atleast 1.");
+		}
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * @return the number of threads of the current pool
+	 */
+	public static int parallelism() {
+		return pool.getParallelism();
+	}
+}
@@ -0,0 +1,34 @@
+package com.dubiouscandle.dubiousdl;
+
+/**
+ * a labeled dataset of fixed size records that {@link Batch} draws its batches from. records are read by index, so a
+ * dataset can be shuffled through a permutation of the indices without ever moving the records themselves.<br>
+ * implementations must allow reading from several threads at the same time.
+ */
+public interface Dataset {
+	/**
+	 * @return the number of records
+	 */
+	int size();
+
+	/**
+	 * @return the number of values in a record
+	 */
+	int recordSize();
+
+	/**
+	 * @param index
+	 * @return the label of the record at index
+	 */
+	int label(int index);
+
+	/**
+	 * reads the record at index into out, value k goes to out[offset + k * stride]
+	 *
+	 * @param index
+	 * @param out
+	 * @param offset
+	 * @param stride
+	 */
+	void read(int index, float[] out, int offset, int stride);
+}
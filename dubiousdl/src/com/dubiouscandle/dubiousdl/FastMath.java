@@ -0,0 +1,260 @@
+package com.dubiouscandle.dubiousdl;
+
+/**
+ * float approximations of the transcendental activation functions and their derivatives, used by the activation
+ * kernels instead of the exact double precision versions when the dubiousdl.fastmath system property is set to true.
+ * the exact versions stay the default, and getImpl and derivImpl are always exact.<br>
+ * everything is built from one exp: the input is split into n ln 2 + r with |r| <= ln 2 / 2, e^r - 1 is a polynomial
+ * in r and 2^n is put straight into the exponent bits. it only uses float multiplications, additions and divisions, so
+ * the results are the same in the interpreter and in compiled code, unlike those of Math.exp.<br>
+ * this replaces the scalar loops of {@link Kernels}. {@link VectorKernels} only replaces soft plus, computing the same
+ * values a vector at a time, and the derivative of swish: the jdk's vector exp and tanh the other functions use are
+ * faster than these approximations.<br>
+ * the largest errors over an evenly spread sample of the floats in [-100, 100], checked by
+ * experiments.fastmath.FastMathCheck against double precision, absolute where the exact value is at most 1 in
+ * magnitude and relative above that:
+ * <ul>
+ * <li>{@link ActivationFunction#SIGMOID} and its derivative: 2e-7</li>
+ * <li>{@link ActivationFunction#TANH} and its derivative: 2e-7</li>
+ * <li>{@link ActivationFunction#SOFT_PLUS} and its derivative: 2e-7</li>
+ * <li>{@link ActivationFunction#ELU} and its derivative: 2e-7</li>
+ * <li>{@link ActivationFunction#SWISH}: 2e-7, its derivative 3e-7</li>
+ * </ul>
+ * exp itself saturates outside of [{@link #EXP_MIN}, {@link #EXP_MAX}], which only shows in values too small to
+ * matter next to the bounds above.
+ */
+final class FastMath {
+	static final boolean ENABLED = Boolean.getBoolean("dubiousdl.fastmath");
+
+	/**
+	 * the range exp is computed on, where e^x and everything computed from it stays a normal float. subnormal results
+	 * are many times slower on x86.
+	 */
+	static final float EXP_MIN = -87;
+	static final float EXP_MAX = 87;
+	/**
+	 * e^x - 1 rounds to -1 below this
+	 */
+	static final float EXPM1_MIN = -18;
+
+	static final float LOG2E = 1.44269504f;
+	/**
+	 * ln 2 split in two, LN2_HI has few enough bits that n * LN2_HI is exact
+	 */
+	static final float LN2_HI = 0.693359375f;
+	static final float LN2_LO = -2.12194440e-4f;
+	static final float LN2 = 0.693147181f;
+	/**
+	 * 1.5 * 2^23: adding it rounds a float to an integer, which ends up in the low bits
+	 */
+	static final float ROUND = 12582912f;
+
+	/**
+	 * e^r - 1 = r + r^2 (P0 + r (P1 + ...)) for |r| <= ln 2 / 2, from cephes expf
+	 */
+	static final float P0 = 5.0000001201e-1f;
+	static final float P1 = 1.6666665459e-1f;
+	static final float P2 = 4.1665795894e-2f;
+	static final float P3 = 8.3334519073e-3f;
+	static final float P4 = 1.3981999507e-3f;
+	static final float P5 = 1.9875691500e-4f;
+
+	/**
+	 * tanh(x) = x + x^3 (T0 + x^2 (T1 + ...)) for |x| < TANH_SMALL, from cephes tanhf, where 1 - 2 / (e^2x + 1) cancels
+	 */
+	static final float TANH_SMALL = 0.625f;
+	/**
+	 * tanh(x) rounds to 1 above this
+	 */
+	static final float TANH_LARGE = 9.5f;
+	static final float T0 = -3.33332819422e-1f;
+	static final float T1 = 1.33314422036e-1f;
+	static final float T2 = -5.37397155531e-2f;
+	static final float T3 = 2.06390887954e-2f;
+	static final float T4 = -5.70498872745e-3f;
+
+	/**
+	 * the bits of sqrt(1/2): log1p reduces 1 + t to m 2^k with m in [sqrt(1/2), sqrt(2))
+	 */
+	static final int SQRT_HALF_BITS = 0x3f3504f3;
+
+	private FastMath() {
+	}
+
+	/**
+	 * @return e^x, saturating outside of [{@link #EXP_MIN}, {@link #EXP_MAX}]
+	 */
+	static float exp(float x) {
+		x = Math.max(EXP_MIN, Math.min(EXP_MAX, x));
+		float t = x * LOG2E + ROUND;
+		float n = t - ROUND;
+		float scale = Float.intBitsToFloat(Float.floatToRawIntBits(t) - Float.floatToRawIntBits(ROUND) + 127 << 23);
+		float q = expm1Reduced(x - n * LN2_HI - n * LN2_LO);
+		return (q + 1) * scale;
+	}
+
+	/**
+	 * @return e^x - 1 without the cancellation of exp(x) - 1 near 0
+	 */
+	static float expm1(float x) {
+		x = Math.max(EXPM1_MIN, Math.min(EXP_MAX, x));
+		float t = x * LOG2E + ROUND;
+		float n = t - ROUND;
+		float scale = Float.intBitsToFloat(Float.floatToRawIntBits(t) - Float.floatToRawIntBits(ROUND) + 127 << 23);
+		float q = expm1Reduced(x - n * LN2_HI - n * LN2_LO);
+		return scale * q + (scale - 1);
+	}
+
+	/**
+	 * @return e^r - 1 for |r| <= ln 2 / 2
+	 */
+	private static float expm1Reduced(float r) {
+		float p = P5;
+		p = p * r + P4;
+		p = p * r + P3;
+		p = p * r + P2;
+		p = p * r + P1;
+		p = p * r + P0;
+		return p * (r * r) + r;
+	}
+
+	/**
+	 * @return ln(1 + t) for t in [0, 1]
+	 */
+	static float log1p(float t) {
+		float y = 1 + t;
+		// what got rounded off of t in 1 + t, divided by 1 + t
+		float c = (t - (y - 1)) / y;
+		int bits = Float.floatToRawIntBits(y) - SQRT_HALF_BITS;
+		float k = bits >> 23;
+		float f = Float.intBitsToFloat((bits & 0x007fffff) + SQRT_HALF_BITS) - 1;
+		// ln(m) = 2 atanh(s) for s = (m - 1) / (m + 1), |s| <= 0.172
+		float s = f / (2 + f);
+		float z = s * s;
+		float p = 2f / 9;
+		p = p * z + 2f / 7;
+		p = p * z + 2f / 5;
+		p = p * z + 2f / 3;
+		p = p * z + 2;
+		return k * LN2 + (s * p + c);
+	}
+
+	static float sigmoid(float x) {
+		return 1 / (1 + exp(-x));
+	}
+
+	static float tanh(float x) {
+		float abs = Math.abs(x);
+		if (abs < TANH_SMALL) {
+			float z = x * x;
+			float p = T4;
+			p = p * z + T3;
+			p = p * z + T2;
+			p = p * z + T1;
+			p = p * z + T0;
+			return p * z * x + x;
+		}
+		return Math.copySign(1 - 2 / (exp(2 * Math.min(abs, TANH_LARGE)) + 1), x);
+	}
+
+	static float softPlus(float x) {
+		return Math.max(x, 0) + log1p(exp(-Math.abs(x)));
+	}
+
+	static float elu(float x) {
+		return x > 0 ? x : expm1(x);
+	}
+
+	static float swish(float x) {
+		return x / (1 + exp(-x));
+	}
+
+	static float swishDerivative(float x) {
+		// 1 - s = e^-x s, which doesn't cancel when s is close to 1
+		float e = exp(-x);
+		float s = 1 / (1 + e);
+		return s * (1 + x * (e * s));
+	}
+
+	/**
+	 * @return whether g is one of the functions approximated here
+	 */
+	static boolean approximates(ActivationFunction g) {
+		return g == ActivationFunction.SIGMOID || g == ActivationFunction.TANH || g == ActivationFunction.SOFT_PLUS
+				|| g == ActivationFunction.ELU || g == ActivationFunction.SWISH;
+	}
+
+	/**
+	 * out[i] = an approximation of g(x[i]) for i from from up to len, for the functions this approximates
+	 */
+	static void activate(ActivationFunction g, float[] x, float[] out, int from, int len) {
+		if (g == ActivationFunction.SIGMOID) {
+			for (int i = from; i < len; i++) {
+				out[i] = sigmoid(x[i]);
+			}
+		} else if (g == ActivationFunction.TANH) {
+			for (int i = from; i < len; i++) {
+				out[i] = tanh(x[i]);
+			}
+		} else if (g == ActivationFunction.SOFT_PLUS) {
+			for (int i = from; i < len; i++) {
+				out[i] = softPlus(x[i]);
+			}
+		} else if (g == ActivationFunction.ELU) {
+			for (int i = from; i < len; i++) {
+				out[i] = elu(x[i]);
+			}
+		} else if (g == ActivationFunction.SWISH) {
+			for (int i = from; i < len; i++) {
+				out[i] = swish(x[i]);
+			}
+		}
+	}
+
+	/**
+	 * out[i] = an approximation of g'(x[i]) for i from from up to len, for the functions this approximates
+	 */
+	static void derive(ActivationFunction g, float[] x, float[] out, int from, int len) {
+		if (g == ActivationFunction.SIGMOID) {
+			for (int i = from; i < len; i++) {
+				// 1 - s = e^-x s, which doesn't cancel when s is close to 1
+				float e = exp(-x[i]);
+				float s = 1 / (1 + e);
+				out[i] = s * (e * s);
+			}
+		} else if (g == ActivationFunction.TANH) {
+			for (int i = from; i < len; i++) {
+				float t = tanh(x[i]);
+				out[i] = 1 - t * t;
+			}
+		} else if (g == ActivationFunction.SOFT_PLUS) {
+			for (int i = from; i < len; i++) {
+				out[i] = sigmoid(x[i]);
+			}
+		} else if (g == ActivationFunction.ELU) {
+			for (int i = from; i < len; i++) {
+				out[i] = x[i] > 0 ? 1 : exp(x[i]);
+			}
+		} else if (g == ActivationFunction.SWISH) {
+			for (int i = from; i < len; i++) {
+				out[i] = swishDerivative(x[i]);
+			}
+		}
+	}
+
+	/**
+	 * out[i] = da[i] * an approximation of g'(x[i]) for i from from up to len, for soft plus and swish, the functions
+	 * this approximates whose derivative can't be computed from their activation
+	 */
+	static void backward(ActivationFunction g, float[] x, float[] da, float[] out, int from, int len) {
+		if (g == ActivationFunction.SOFT_PLUS) {
+			for (int i = from; i < len; i++) {
+				out[i] = da[i] * sigmoid(x[i]);
+			}
+		} else if (g == ActivationFunction.SWISH) {
+			for (int i = from; i < len; i++) {
+				out[i] = da[i] * swishDerivative(x[i]);
+			}
+		}
+	}
+}
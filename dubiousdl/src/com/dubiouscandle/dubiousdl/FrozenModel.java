@@ -0,0 +1,128 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * an immutable copy of the weights of a model that any number of threads can run inference on at the same time.<br>
+ * the weights are copied once when the model is frozen and only ever read afterwards. each caller works in a
+ * {@link Session} of its own, which holds the scratch buffers for one batch. sessions are kept in a lock free pool and
+ * reused, so after warming up a call doesn't block and only allocates the small matrix headers of the layer outputs,
+ * no matter how many threads share the model.
+ */
+public final class FrozenModel {
+	private final int capacity;
+	private final int input_size;
+	private final int output_size;
+
+	private final Matrix[] W;
+	private final Matrix[] b;
+	private final int[] n;
+	private final ActivationFunction[] g;
+
+	private final ConcurrentLinkedQueue<Session> sessions = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * copies the weights of model. the model should not be trained while it is being frozen.
+	 * 
+	 * @param model
+	 * @param capacity the largest batch size a session accepts
+	 */
+	public FrozenModel(Model model, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+
+		this.capacity = capacity;
+		this.input_size = model.input_size;
+		this.output_size = model.output_size;
+		this.n = model.n.clone();
+		this.g = model.g.clone();
+
+		W = new Matrix[n.length];
+		b = new Matrix[n.length];
+		for (int l = 1; l < n.length; l++) {
+			W[l] = new Matrix(model.W[l]);
+			b[l] = new Matrix(model.b[l]);
+		}
+	}
+
+	/**
+	 * @return the largest batch size a session accepts
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	public int inputSize() {
+		return input_size;
+	}
+
+	public int outputSize() {
+		return output_size;
+	}
+
+	/**
+	 * takes a session from the pool, or creates one if all of them are in use. close it to give it back.
+	 * 
+	 * @return a session only the calling thread uses until it is closed
+	 */
+	public Session openSession() {
+		Session session = sessions.poll();
+		if (session == null) {
+			session = new Session();
+		}
+		session.open.set(true);
+		return session;
+	}
+
+	/**
+	 * computes the output for a batch of inputs in a pooled session. safe to call from any number of threads.
+	 * 
+	 * @param in  input_size x batch for any batch from 1 up to the capacity
+	 * @param out output_size x batch
+	 */
+	public void predict(Matrix in, Matrix out) {
+		try (Session session = openSession()) {
+			session.predict(in, out);
+		}
+	}
+
+	/**
+	 * the scratch buffers one caller needs to run the frozen model. must not be used by two threads at once or after it
+	 * is closed.
+	 */
+	public final class Session implements AutoCloseable {
+		private final Predictor predictor = new Predictor(W, b, n, g, capacity);
+		/**
+		 * whether the session is out of the pool, so closing it twice doesn't put it in the pool twice
+		 */
+		private final AtomicBoolean open = new AtomicBoolean();
+
+		private Session() {
+		}
+
+		/**
+		 * computes the output of the frozen model for a batch of inputs
+		 * 
+		 * @param in  input_size x batch for any batch from 1 up to the capacity
+		 * @param out output_size x batch
+		 */
+		public void predict(Matrix in, Matrix out) {
+			if (!open.get()) {
+				throw new IllegalStateException("Session is closed.");
+			}
+			predictor.predict(in, out);
+		}
+
+		/**
+		 * gives this session back to the pool of its model. closing it again does nothing.
+		 */
+		@Override
+		public void close() {
+			if (open.compareAndSet(true, false)) {
+				sessions.offer(this);
+			}
+		}
+	}
+}
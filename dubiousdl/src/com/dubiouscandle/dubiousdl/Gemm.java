@@ -0,0 +1,629 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * matrix multiplication kernel that works directly on the storage of matrices.<br>
+ * the operands are cut into blocks that fit in the caches (KC x NC of b for L2, MC x KC of a for L1), each block is packed
+ * into a contiguous buffer and the register blocked micro kernel of {@link Kernels} computes MR x NR tiles of the result
+ * from the packed buffers.<br>
+ * products with enough work are split into tiles of the result which run on the {@link ComputePool}.<br>
+ * {@link #dense} fuses adding a bias and applying an activation function into the step that stores each finished tile,
+ * while the tile is still in cache.<br>
+ * off heap operands are read and written through their buffers in the packing and storing steps, the micro kernel only
+ * ever sees the packed heap buffers.<br>
+ * products with only a few columns, like a batch of one, or only a few rows are matrix vector products, which the micro
+ * kernel would mostly spend on padding, so they are dot products or axpys straight on the arrays of the operands
+ * instead.
+ */
+final class Gemm {
+	private static final Kernels KERNELS = Kernels.INSTANCE;
+	static final int MR = KERNELS.mr();
+	static final int NR = KERNELS.nr();
+	static final int MC = 128;
+	static final int KC = 256;
+	static final int NC = 512;
+
+	/**
+	 * below this many multiply-adds packing costs more than it saves
+	 */
+	private static final int SMALL = 32 * 32 * 32;
+
+	/**
+	 * products with at most this many columns or rows are matrix vector products. a column or row costs about a quarter
+	 * of what a tile of NR columns does, so they pay off up to a quarter of NR columns, and up to 4 rows of the 4 or 6
+	 * of a tile.
+	 */
+	private static final int THIN_COLUMNS = Math.max(1, NR / 4);
+	private static final int THIN_ROWS = 4;
+
+	/**
+	 * products are split into tiles of the result until each tile has about this many multiply-adds
+	 */
+	static final int GRAIN = 128 * 128 * 128;
+
+	/**
+	 * packed a block, packed b block and the micro kernel tile. one set per thread.
+	 */
+	private static final ThreadLocal<float[][]> BUFFERS = ThreadLocal
+			.withInitial(() -> new float[][] { new float[(MC + MR - 1) / MR * MR * KC], new float[KC * NC],
+					new float[MR * NR] });
+
+	/**
+	 * the gathered inputs, the collected outputs and a row copied out of a buffer of the matrix vector products, grown
+	 * as needed. one set per thread.
+	 */
+	private static final ThreadLocal<float[][]> VECTORS = ThreadLocal.withInitial(() -> new float[3][0]);
+
+	private Gemm() {
+	}
+
+	/**
+	 * computes c = a * b. the dimensions should already have been checked.
+	 */
+	static void multiply(Matrix a, Matrix b, Matrix c) {
+		multiply(a, b, c, null);
+	}
+
+	/**
+	 * computes out = g(w * x + bias) where bias is a column vector added to every column of the product. if z is not null
+	 * w * x + bias is stored in it as well. the dimensions should already have been checked.
+	 */
+	static void dense(Matrix w, Matrix x, Matrix bias, ActivationFunction g, Matrix z, Matrix out) {
+		boolean fusable = out.data != null && !out.transposed
+				&& (z == null || (z.data != null && !z.transposed))
+				&& (long) w.rows() * x.cols() * w.cols() >= SMALL && !thin(w, x, out);
+
+		Matrix c = z != null ? z : out;
+		if (fusable) {
+			multiply(w, x, c, new Epilogue(bias, g, z == null ? null : z.data, out.data, out.cols));
+		} else {
+			multiply(w, x, c);
+			c.addBroadcasted(bias);
+			g.get(c, out);
+		}
+	}
+
+	/**
+	 * computes c = a * b and then runs the epilogue on every finished tile if there is one, timed for {@link Metrics}
+	 */
+	private static void multiply(Matrix a, Matrix b, Matrix c, Epilogue epilogue) {
+		long start = Metrics.start();
+		product(a, b, c, epilogue);
+		Metrics.multiply(a.rows(), b.cols(), a.cols(), start);
+	}
+
+	private static void product(Matrix a, Matrix b, Matrix c, Epilogue epilogue) {
+		int m = a.rows(), n = b.cols(), k = a.cols();
+		if (m == 0 || n == 0) {
+			return;
+		}
+		if (k == 0) {
+			c.clear();
+			return;
+		}
+
+		ForkJoinPool pool = ComputePool.get();
+		boolean serial = (long) m * n * k < 2L * GRAIN || pool.getParallelism() == 1 || a.confined || b.confined
+				|| c.confined;
+		if (serial && epilogue == null && thin(a, b, c)) {
+			multiplyThin(a, b, c);
+			return;
+		}
+		if ((long) m * n * k < SMALL) {
+			multiplySmall(a, b, c);
+			return;
+		}
+
+		if (serial) {
+			multiplyBlocked(0, 0, m, n, k, a, b, c, epilogue);
+		} else {
+			Tile tile = new Tile(0, 0, m, n, k, a, b, c, epilogue);
+			if (ForkJoinTask.getPool() == pool) {
+				tile.invoke();
+			} else {
+				pool.invoke(tile);
+			}
+		}
+	}
+
+	/**
+	 * computes the rows x cols tile of c starting at (i0, j0). tiles that are still too big are cut in half along their
+	 * longer side in micro kernels, at a multiple of the micro kernel size. a side of only one micro kernel is never
+	 * cut, since one half would be the whole tile.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Tile extends RecursiveAction {
+		private final int i0, j0, rows, cols, k;
+		private final Matrix a, b, c;
+		private final Epilogue epilogue;
+
+		Tile(int i0, int j0, int rows, int cols, int k, Matrix a, Matrix b, Matrix c, Epilogue epilogue) {
+			this.i0 = i0;
+			this.j0 = j0;
+			this.rows = rows;
+			this.cols = cols;
+			this.k = k;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.epilogue = epilogue;
+		}
+
+		@Override
+		protected void compute() {
+			if ((long) rows * cols * k < 2L * GRAIN || (rows <= MR && cols <= NR)) {
+				multiplyBlocked(i0, j0, rows, cols, k, a, b, c, epilogue);
+			} else if (rows > MR && (rows / MR >= cols / NR || cols <= NR)) {
+				// both halves get at least one micro kernel of rows, so neither is this tile again
+				int half = (rows / 2 + MR - 1) / MR * MR;
+				invokeAll(new Tile(i0, j0, half, cols, k, a, b, c, epilogue),
+						new Tile(i0 + half, j0, rows - half, cols, k, a, b, c, epilogue));
+			} else {
+				int half = (cols / 2 + NR - 1) / NR * NR;
+				invokeAll(new Tile(i0, j0, rows, half, k, a, b, c, epilogue),
+						new Tile(i0, j0 + half, rows, cols - half, k, a, b, c, epilogue));
+			}
+		}
+	}
+
+	/**
+	 * adds a bias to every row of the product and applies an activation function to it. runs on each tile of the result
+	 * once the whole sum over k is in it. the matrices it writes are always backed by untransposed arrays.
+	 */
+	private static final class Epilogue {
+		private final Matrix bias;
+		private final ActivationFunction g;
+		private final float[] z;
+		private final float[] out;
+		private final int ld;
+
+		/**
+		 * @param bias a column vector with one value per row of the product
+		 * @param g    the activation function
+		 * @param z    where to store the product plus bias, or null
+		 * @param out  where to store the activated values
+		 * @param ld   the row length of z and out
+		 */
+		Epilogue(Matrix bias, ActivationFunction g, float[] z, float[] out, int ld) {
+			this.bias = bias;
+			this.g = g;
+			this.z = z;
+			this.out = out;
+			this.ld = ld;
+		}
+
+		/**
+		 * finishes the h x w corner of tile which belongs at (i0, j0). if accumulate is set the sums of the previous
+		 * blocks of k are stored in z, or in out if there is no z.
+		 */
+		void apply(float[] tile, int i0, int j0, int h, int w, boolean accumulate) {
+			float[] partial = z != null ? z : out;
+
+			for (int i = 0; i < h; i++) {
+				int dst = (i0 + i) * ld + j0;
+				int src = i * NR;
+				float b = bias.load(i0 + i);
+				for (int j = 0; j < w; j++) {
+					float value = accumulate ? partial[dst + j] + tile[src + j] : tile[src + j];
+					tile[src + j] = value + b;
+				}
+				if (z != null) {
+					System.arraycopy(tile, src, z, dst, w);
+				}
+			}
+
+			g.get(tile, tile);
+
+			for (int i = 0; i < h; i++) {
+				System.arraycopy(tile, i * NR, out, (i0 + i) * ld + j0, w);
+			}
+		}
+	}
+
+	/**
+	 * computes the m x n tile of c starting at (i0, j0) on the calling thread, using rows i0 to i0 + m of a and columns
+	 * j0 to j0 + n of b. if there is an epilogue it finishes each tile instead of it being stored in c.
+	 */
+	private static void multiplyBlocked(int i0, int j0, int m, int n, int k, Matrix a, Matrix b, Matrix c,
+			Epilogue epilogue) {
+		float[][] buffers = BUFFERS.get();
+		float[] ap = buffers[0];
+		float[] bp = buffers[1];
+		float[] tile = buffers[2];
+
+		for (int jc = 0; jc < n; jc += NC) {
+			int nc = Math.min(NC, n - jc);
+
+			for (int pc = 0; pc < k; pc += KC) {
+				int kc = Math.min(KC, k - pc);
+				boolean accumulate = pc != 0;
+
+				if (b.data == null) {
+					packB(b.buffer, b.rowStride(), b.colStride(), pc, j0 + jc, kc, nc, bp);
+				} else if (b.transposed) {
+					packBTransposed(b.data, b.cols, pc, j0 + jc, kc, nc, bp);
+				} else {
+					packB(b.data, b.cols, pc, j0 + jc, kc, nc, bp);
+				}
+
+				for (int ic = 0; ic < m; ic += MC) {
+					int mc = Math.min(MC, m - ic);
+
+					if (a.data == null) {
+						packA(a.buffer, a.rowStride(), a.colStride(), i0 + ic, pc, mc, kc, ap);
+					} else if (a.transposed) {
+						packATransposed(a.data, a.cols, i0 + ic, pc, mc, kc, ap);
+					} else {
+						packA(a.data, a.cols, i0 + ic, pc, mc, kc, ap);
+					}
+
+					for (int jr = 0; jr < nc; jr += NR) {
+						int w = Math.min(NR, nc - jr);
+						for (int ir = 0; ir < mc; ir += MR) {
+							int h = Math.min(MR, mc - ir);
+
+							KERNELS.microKernel(kc, ap, ir * kc, bp, jr * kc, tile);
+
+							if (epilogue != null && pc + kc == k) {
+								epilogue.apply(tile, i0 + ic + ir, j0 + jc + jr, h, w, accumulate);
+							} else if (c.data == null) {
+								storeTile(tile, c.buffer, c.rowStride(), c.colStride(), i0 + ic + ir, j0 + jc + jr, h,
+										w, accumulate);
+							} else if (c.transposed) {
+								storeTileTransposed(tile, c.data, c.cols, i0 + ic + ir, j0 + jc + jr, h, w, accumulate);
+							} else {
+								storeTile(tile, c.data, c.cols, i0 + ic + ir, j0 + jc + jr, h, w, accumulate);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether c = a * b has few enough columns or rows to be matrix vector products, with b and c on the heap
+	 *         and a on the heap too for few rows
+	 */
+	private static boolean thin(Matrix a, Matrix b, Matrix c) {
+		return b.data != null && c.data != null && (b.cols() <= THIN_COLUMNS || a.rows() <= THIN_ROWS && a.data != null);
+	}
+
+	/**
+	 * @return the i-th scratch array of the calling thread, with at least length values
+	 */
+	private static float[] vector(int i, int length) {
+		float[][] vectors = VECTORS.get();
+		if (vectors[i].length < length) {
+			vectors[i] = new float[length];
+		}
+		return vectors[i];
+	}
+
+	/**
+	 * computes c = a * b as one matrix vector product a x per column x of b, or if c has more than
+	 * {@link #THIN_COLUMNS} columns, as one b^T x per row x of a, which is a row of c. columns and rows that aren't
+	 * contiguous in their arrays are gathered and scattered.<br>
+	 * a may be off heap for the matrix vector products, like the mapped weights of {@link ModelFormat#load}. its rows
+	 * are then copied out of the buffer one at a time, which for a mapped file in native order is a memory copy, and
+	 * every column of b goes through each row while it is in the cache.
+	 */
+	private static void multiplyThin(Matrix a, Matrix b, Matrix c) {
+		int m = a.rows(), n = b.cols(), k = a.cols();
+
+		if (n <= THIN_COLUMNS) {
+			// the columns of b one after the other, column j starting at j * k
+			float[] x = b.data;
+			if (!b.transposed && n > 1) {
+				x = vector(0, n * k);
+				for (int p = 0; p < k; p++) {
+					for (int j = 0; j < n; j++) {
+						x[j * k + p] = b.data[p * n + j];
+					}
+				}
+			}
+
+			if (!a.transposed) {
+				float[] row = a.data != null ? a.data : vector(2, k);
+				int rowStride = c.rowStride(), colStride = c.colStride();
+				for (int i = 0; i < m; i++) {
+					int rowOff = i * k;
+					if (a.data == null) {
+						a.buffer.get(rowOff, row, 0, k);
+						rowOff = 0;
+					}
+					for (int j = 0; j < n; j++) {
+						c.data[i * rowStride + j * colStride] = KERNELS.dot(row, rowOff, x, j * k, k);
+					}
+				}
+			} else {
+				// a^T stores the columns of a as rows, so a x is a sum of them, one axpy per column of a. the columns of
+				// c are contiguous if c is transposed or a single column, and are collected in scratch otherwise.
+				boolean direct = c.transposed || n == 1;
+				float[] y = direct ? c.data : vector(1, n * m);
+				for (int i = 0; i < n * m; i++) {
+					y[i] = 0;
+				}
+				float[] column = a.data != null ? a.data : vector(2, m);
+				for (int p = 0; p < k; p++) {
+					int columnOff = p * m;
+					if (a.data == null) {
+						a.buffer.get(columnOff, column, 0, m);
+						columnOff = 0;
+					}
+					for (int j = 0; j < n; j++) {
+						KERNELS.axpy(x[j * k + p], column, columnOff, y, j * m, m);
+					}
+				}
+				if (!direct) {
+					for (int i = 0; i < m; i++) {
+						for (int j = 0; j < n; j++) {
+							c.data[i * n + j] = y[j * m + i];
+						}
+					}
+				}
+			}
+		} else {
+			for (int i = 0; i < m; i++) {
+				// row i of a, which a^T stores as a column
+				float[] x = a.data;
+				int xOff = i * k;
+				if (a.transposed) {
+					x = vector(0, k);
+					xOff = 0;
+					for (int p = 0; p < k; p++) {
+						x[p] = a.data[p * m + i];
+					}
+				}
+
+				float[] y = c.transposed ? vector(1, n) : c.data;
+				int yOff = c.transposed ? 0 : i * n;
+				// b^T is n x k, which a transposed b stores row major
+				multiplyVector(b.data, !b.transposed, n, k, x, xOff, y, yOff);
+				if (c.transposed) {
+					for (int j = 0; j < n; j++) {
+						c.data[j * m + i] = y[j];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * y = s x for the rows x k matrix s, stored row major, or column major if transposed is set, and vectors of k and
+	 * rows values starting at xOff and yOff
+	 */
+	private static void multiplyVector(float[] s, boolean transposed, int rows, int k, float[] x, int xOff, float[] y,
+			int yOff) {
+		if (!transposed) {
+			for (int r = 0; r < rows; r++) {
+				y[yOff + r] = KERNELS.dot(s, r * k, x, xOff, k);
+			}
+		} else {
+			for (int r = 0; r < rows; r++) {
+				y[yOff + r] = 0;
+			}
+			for (int p = 0; p < k; p++) {
+				KERNELS.axpy(x[xOff + p], s, p * rows, y, yOff, rows);
+			}
+		}
+	}
+
+	/**
+	 * straightforward loop for products too small to be worth blocking
+	 */
+	private static void multiplySmall(Matrix a, Matrix b, Matrix c) {
+		int m = a.rows(), n = b.cols(), k = a.cols();
+
+		if (a.data == null || b.data == null || c.data == null) {
+			for (int i = 0; i < m; i++) {
+				for (int j = 0; j < n; j++) {
+					float sum = 0;
+					for (int p = 0; p < k; p++) {
+						sum += a.get(i, p) * b.get(p, j);
+					}
+					c.set(i, j, sum);
+				}
+			}
+			return;
+		}
+
+		int aRowStride = a.rowStride(), aColStride = a.colStride();
+		int bRowStride = b.rowStride(), bColStride = b.colStride();
+		int cRowStride = c.rowStride(), cColStride = c.colStride();
+
+		for (int i = 0; i < m; i++) {
+			for (int j = 0; j < n; j++) {
+				float sum = 0;
+				for (int p = 0; p < k; p++) {
+					sum += a.data[i * aRowStride + p * aColStride] * b.data[p * bRowStride + j * bColStride];
+				}
+				c.data[i * cRowStride + j * cColStride] = sum;
+			}
+		}
+	}
+
+	/**
+	 * packs the mc x kc block of a starting at (i0, p0) into panels of MR rows. inside a panel the MR values of each
+	 * column are adjacent. rows past mc are padded with 0.
+	 */
+	private static void packA(float[] a, int lda, int i0, int p0, int mc, int kc, float[] ap) {
+		for (int ir = 0; ir < mc; ir += MR) {
+			int h = Math.min(MR, mc - ir);
+			int panel = ir * kc;
+
+			for (int i = 0; i < h; i++) {
+				int src = (i0 + ir + i) * lda + p0;
+				for (int p = 0; p < kc; p++) {
+					ap[panel + p * MR + i] = a[src + p];
+				}
+			}
+			for (int i = h; i < MR; i++) {
+				for (int p = 0; p < kc; p++) {
+					ap[panel + p * MR + i] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * same as {@link #packA} for a transposed a, where the columns of a are contiguous in memory
+	 */
+	private static void packATransposed(float[] a, int lda, int i0, int p0, int mc, int kc, float[] ap) {
+		for (int ir = 0; ir < mc; ir += MR) {
+			int h = Math.min(MR, mc - ir);
+			int panel = ir * kc;
+
+			for (int p = 0; p < kc; p++) {
+				int src = (p0 + p) * lda + i0 + ir;
+				int dst = panel + p * MR;
+				for (int i = 0; i < h; i++) {
+					ap[dst + i] = a[src + i];
+				}
+				for (int i = h; i < MR; i++) {
+					ap[dst + i] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * same as {@link #packA} for an off heap a with the given strides between rows and columns
+	 */
+	private static void packA(FloatBuffer a, int rowStride, int colStride, int i0, int p0, int mc, int kc, float[] ap) {
+		for (int ir = 0; ir < mc; ir += MR) {
+			int h = Math.min(MR, mc - ir);
+			int panel = ir * kc;
+
+			for (int p = 0; p < kc; p++) {
+				int dst = panel + p * MR;
+				for (int i = 0; i < h; i++) {
+					ap[dst + i] = a.get((i0 + ir + i) * rowStride + (p0 + p) * colStride);
+				}
+				for (int i = h; i < MR; i++) {
+					ap[dst + i] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * packs the kc x nc block of b starting at (p0, j0) into panels of NR columns. inside a panel the NR values of each
+	 * row are adjacent. columns past nc are padded with 0.
+	 */
+	private static void packB(float[] b, int ldb, int p0, int j0, int kc, int nc, float[] bp) {
+		for (int jr = 0; jr < nc; jr += NR) {
+			int w = Math.min(NR, nc - jr);
+			int panel = jr * kc;
+
+			for (int p = 0; p < kc; p++) {
+				int src = (p0 + p) * ldb + j0 + jr;
+				int dst = panel + p * NR;
+				for (int j = 0; j < w; j++) {
+					bp[dst + j] = b[src + j];
+				}
+				for (int j = w; j < NR; j++) {
+					bp[dst + j] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * same as {@link #packB} for a transposed b, where the columns of b are contiguous in memory
+	 */
+	private static void packBTransposed(float[] b, int ldb, int p0, int j0, int kc, int nc, float[] bp) {
+		for (int jr = 0; jr < nc; jr += NR) {
+			int w = Math.min(NR, nc - jr);
+			int panel = jr * kc;
+
+			for (int j = 0; j < w; j++) {
+				int src = (j0 + jr + j) * ldb + p0;
+				for (int p = 0; p < kc; p++) {
+					bp[panel + p * NR + j] = b[src + p];
+				}
+			}
+			for (int j = w; j < NR; j++) {
+				for (int p = 0; p < kc; p++) {
+					bp[panel + p * NR + j] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * same as {@link #packB} for an off heap b with the given strides between rows and columns
+	 */
+	private static void packB(FloatBuffer b, int rowStride, int colStride, int p0, int j0, int kc, int nc, float[] bp) {
+		for (int jr = 0; jr < nc; jr += NR) {
+			int w = Math.min(NR, nc - jr);
+			int panel = jr * kc;
+
+			for (int p = 0; p < kc; p++) {
+				int dst = panel + p * NR;
+				for (int j = 0; j < w; j++) {
+					bp[dst + j] = b.get((p0 + p) * rowStride + (j0 + jr + j) * colStride);
+				}
+				for (int j = w; j < NR; j++) {
+					bp[dst + j] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * writes the h x w corner of tile into c at (i0, j0), adding to what is there if accumulate is set
+	 */
+	private static void storeTile(float[] tile, float[] c, int ldc, int i0, int j0, int h, int w, boolean accumulate) {
+		for (int i = 0; i < h; i++) {
+			int dst = (i0 + i) * ldc + j0;
+			int src = i * NR;
+			if (accumulate) {
+				for (int j = 0; j < w; j++) {
+					c[dst + j] += tile[src + j];
+				}
+			} else {
+				for (int j = 0; j < w; j++) {
+					c[dst + j] = tile[src + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * same as {@link #storeTile} for a transposed c
+	 */
+	private static void storeTileTransposed(float[] tile, float[] c, int ldc, int i0, int j0, int h, int w,
+			boolean accumulate) {
+		for (int j = 0; j < w; j++) {
+			int dst = (j0 + j) * ldc + i0;
+			if (accumulate) {
+				for (int i = 0; i < h; i++) {
+					c[dst + i] += tile[i * NR + j];
+				}
+			} else {
+				for (int i = 0; i < h; i++) {
+					c[dst + i] = tile[i * NR + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * same as {@link #storeTile} for an off heap c with the given strides between rows and columns
+	 */
+	private static void storeTile(float[] tile, FloatBuffer c, int rowStride, int colStride, int i0, int j0, int h,
+			int w, boolean accumulate) {
+		for (int i = 0; i < h; i++) {
+			for (int j = 0; j < w; j++) {
+				int index = (i0 + i) * rowStride + (j0 + j) * colStride;
+				float value = tile[i * NR + j];
+				c.put(index, accumulate ? c.get(index) + value : value);
+			}
+		}
+	}
+}
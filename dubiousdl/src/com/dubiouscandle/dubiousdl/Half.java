@@ -0,0 +1,78 @@
+package com.dubiouscandle.dubiousdl;
+
+/**
+ * conversions between float and the two 16 bit float formats, stored in shorts: ieee binary16 (fp16, 5 exponent and
+ * 10 mantissa bits) and bfloat16 (bf16, the upper half of a float). rounding is to nearest, ties to even, like a float
+ * cast. java 17 does not have Float.floatToFloat16 yet.
+ */
+final class Half {
+	private Half() {
+	}
+
+	/**
+	 * @param f
+	 * @return f rounded to the nearest fp16, overflowing to infinity. every nan becomes the same quiet nan.
+	 */
+	static short toFp16(float f) {
+		int bits = Float.floatToRawIntBits(f);
+		int sign = bits >>> 16 & 0x8000;
+		int abs = bits & 0x7fffffff;
+
+		int h;
+		if (abs >= 143 << 23) {
+			// 2^16 or more, infinity or nan
+			h = abs > 0x7f800000 ? 0x7e00 : 0x7c00;
+		} else if (abs < 113 << 23) {
+			// below 2^-14, a subnormal fp16 or 0. adding 0.5 lines the mantissa up with the fp16 ulp of 2^-24, so the
+			// float addition does the rounding
+			h = Float.floatToRawIntBits(Float.intBitsToFloat(abs) + 0.5f) - 0x3f000000;
+		} else {
+			int odd = abs >>> 13 & 1;
+			// rebias the exponent and round the 13 dropped bits, a carry into the exponent is correct
+			h = abs + ((15 - 127) << 23) + 0xfff + odd >>> 13;
+		}
+		return (short) (sign | h);
+	}
+
+	/**
+	 * @param h an fp16
+	 * @return the exact float value of h
+	 */
+	static float fromFp16(short h) {
+		int bits = (h & 0x7fff) << 13;
+		int exponent = bits & 0x0f800000;
+		bits += (127 - 15) << 23;
+
+		float f;
+		if (exponent == 0x0f800000) {
+			// infinity or nan
+			f = Float.intBitsToFloat(bits + ((128 - 16) << 23));
+		} else if (exponent == 0) {
+			// 0 or subnormal, scaled by the float arithmetic
+			f = Float.intBitsToFloat(bits + (1 << 23)) - 0x1p-14f;
+		} else {
+			f = Float.intBitsToFloat(bits);
+		}
+		return (h & 0x8000) != 0 ? -f : f;
+	}
+
+	/**
+	 * @param f
+	 * @return f rounded to the nearest bf16. nans stay nans.
+	 */
+	static short toBf16(float f) {
+		int bits = Float.floatToRawIntBits(f);
+		if ((bits & 0x7fffffff) > 0x7f800000) {
+			return (short) (bits >>> 16 | 0x40);
+		}
+		return (short) (bits + 0x7fff + (bits >>> 16 & 1) >>> 16);
+	}
+
+	/**
+	 * @param h a bf16
+	 * @return the exact float value of h
+	 */
+	static float fromBf16(short h) {
+		return Float.intBitsToFloat(h << 16);
+	}
+}
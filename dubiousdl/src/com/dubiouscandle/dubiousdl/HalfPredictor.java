@@ -0,0 +1,253 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * runs a model forward like a {@link Predictor}, with the weights stored as 16 bit floats: half the memory, and half
+ * the memory traffic for the matrix vector products of small batches, which are limited by how fast the weights can
+ * be read.<br>
+ * the weights are converted once, so this does not change when the model is trained. they are widened back to floats
+ * inside the products, which accumulate in float. the biases stay floats.<br>
+ * {@link Format#FP16} keeps 3 more bits of mantissa, {@link Format#BF16} the whole float exponent range. a predictor
+ * can only be used by one thread at a time.
+ */
+public class HalfPredictor {
+	/**
+	 * the 16 bit float format of the weights
+	 */
+	public enum Format {
+		/**
+		 * ieee binary16: 5 exponent and 10 mantissa bits, largest value 65504
+		 */
+		FP16,
+		/**
+		 * bfloat16: the upper 16 bits of a float, 8 exponent and 7 mantissa bits
+		 */
+		BF16
+	}
+
+	/**
+	 * rows x cols products with at least this many weights are split across the {@link ComputePool}
+	 */
+	private static final int GRAIN = 1 << 16;
+
+	private final Format format;
+	private final boolean bf16;
+	private final int capacity;
+	private final int input_size;
+	private final int output_size;
+	private final int L;
+
+	/**
+	 * W[l] is n[l] x n[l - 1] in row major order
+	 */
+	private final short[][] W;
+	private final float[][] b;
+	private final int[] n;
+	private final ActivationFunction[] g;
+
+	private final float[] ping;
+	private final float[] pong;
+	/**
+	 * one row of weights widened to floats, for batches of more than one
+	 */
+	private final float[] row;
+
+	/**
+	 * @param model    the model whose weights are converted
+	 * @param capacity the largest batch size predict accepts
+	 * @param format
+	 */
+	public HalfPredictor(Model model, int capacity, Format format) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+
+		this.format = format;
+		this.bf16 = format == Format.BF16;
+		this.capacity = capacity;
+		this.L = model.L;
+		this.n = model.n.clone();
+		this.g = model.g.clone();
+		this.input_size = n[0];
+		this.output_size = n[L];
+
+		W = new short[L + 1][];
+		b = new float[L + 1][];
+		int widest = 0;
+		for (int l = 1; l <= L; l++) {
+			W[l] = new short[n[l] * n[l - 1]];
+			for (int i = 0; i < n[l]; i++) {
+				for (int k = 0; k < n[l - 1]; k++) {
+					float w = model.W[l].get(i, k);
+					W[l][i * n[l - 1] + k] = bf16 ? Half.toBf16(w) : Half.toFp16(w);
+				}
+			}
+			b[l] = new float[n[l]];
+			for (int i = 0; i < n[l]; i++) {
+				b[l][i] = model.b[l].get(i, 0);
+			}
+			widest = Math.max(widest, n[l - 1]);
+		}
+
+		int width = 0;
+		for (int l = 1; l < L; l++) {
+			width = Math.max(width, n[l]);
+		}
+		ping = new float[width * capacity];
+		pong = L > 2 ? new float[width * capacity] : null;
+		row = new float[widest];
+	}
+
+	/**
+	 * @return the largest batch size predict accepts
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the format of the weights
+	 */
+	public Format format() {
+		return format;
+	}
+
+	/**
+	 * @return the number of bytes the weights and biases take up
+	 */
+	public long parameterBytes() {
+		long bytes = 0;
+		for (int l = 1; l <= L; l++) {
+			bytes += 2L * W[l].length + 4L * b[l].length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * computes the output of the model for a batch of inputs, one per column
+	 *
+	 * @param in  input_size x batch for any batch from 1 up to the capacity
+	 * @param out output_size x batch
+	 */
+	public void predict(Matrix in, Matrix out) {
+		int batch = in.cols();
+		if (in.rows() != input_size || batch < 1 || batch > capacity) {
+			throw new IllegalArgumentException("Invalid input dimensions.");
+		}
+		if (out.rows() != output_size || out.cols() != batch) {
+			throw new IllegalArgumentException("Invalid output dimensions.");
+		}
+
+		float[] x = plain(in) ? in.data : copyOf(in);
+		boolean direct = plain(out);
+		for (int l = 1; l <= L; l++) {
+			float[] y = l < L ? (l % 2 == 1 ? ping : pong) : direct ? out.data : new float[output_size * batch];
+			layer(l, x, y, batch);
+			x = y;
+		}
+
+		if (!direct) {
+			for (int i = 0; i < output_size; i++) {
+				for (int j = 0; j < batch; j++) {
+					out.set(i, j, x[i * batch + j]);
+				}
+			}
+		}
+	}
+
+	private static boolean plain(Matrix matrix) {
+		return matrix.hasArray() && !matrix.transposed;
+	}
+
+	private static float[] copyOf(Matrix matrix) {
+		float[] copy = new float[matrix.size()];
+		for (int i = 0; i < matrix.rows(); i++) {
+			for (int j = 0; j < matrix.cols(); j++) {
+				copy[i * matrix.cols() + j] = matrix.get(i, j);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * y = g(W[l] x + b[l]) for a row major n[l - 1] x batch x into a row major n[l] x batch y
+	 */
+	private void layer(int l, float[] x, float[] y, int batch) {
+		int rows = n[l], cols = n[l - 1];
+		ForkJoinPool pool = ComputePool.get();
+		if ((long) rows * cols < 2 * GRAIN || pool.getParallelism() == 1) {
+			rows(l, x, y, batch, 0, rows, row);
+		} else {
+			Rows task = new Rows(l, x, y, batch, 0, rows);
+			if (ForkJoinTask.getPool() == pool) {
+				task.invoke();
+			} else {
+				pool.invoke(task);
+			}
+		}
+
+		Kernels.INSTANCE.activate(g[l], y, y, rows * batch);
+	}
+
+	/**
+	 * computes rows from up to to of W[l] x + b[l]
+	 *
+	 * @param scratch n[l - 1] floats to widen a row of weights into
+	 */
+	private void rows(int l, float[] x, float[] y, int batch, int from, int to, float[] scratch) {
+		int cols = n[l - 1];
+		short[] w = W[l];
+		Kernels kernels = Kernels.INSTANCE;
+
+		if (batch == 1) {
+			for (int i = from; i < to; i++) {
+				y[i] = kernels.dotHalf(w, i * cols, bf16, x, 0, cols) + b[l][i];
+			}
+			return;
+		}
+
+		for (int i = from; i < to; i++) {
+			kernels.decodeHalf(w, i * cols, bf16, scratch, 0, cols);
+			int out = i * batch;
+			for (int j = 0; j < batch; j++) {
+				y[out + j] = b[l][i];
+			}
+			for (int k = 0; k < cols; k++) {
+				kernels.axpy(scratch[k], x, k * batch, y, out, batch);
+			}
+		}
+	}
+
+	/**
+	 * computes a range of rows of a layer, splitting it in half until it has no more than {@link #GRAIN} weights
+	 */
+	private final class Rows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int l;
+		private final float[] x, y;
+		private final int batch, from, to;
+
+		Rows(int l, float[] x, float[] y, int batch, int from, int to) {
+			this.l = l;
+			this.x = x;
+			this.y = y;
+			this.batch = batch;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((long) (to - from) * n[l - 1] <= GRAIN || to - from == 1) {
+				rows(l, x, y, batch, from, to, batch == 1 ? null : new float[n[l - 1]]);
+			} else {
+				int half = (from + to) / 2;
+				invokeAll(new Rows(l, x, y, batch, from, half), new Rows(l, x, y, batch, half, to));
+			}
+		}
+	}
+}
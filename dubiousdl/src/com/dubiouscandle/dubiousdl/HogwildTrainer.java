@@ -0,0 +1,166 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * trains a model asynchronously in the style of hogwild: several worker threads each take steps on batches of their own
+ * and write their updates straight into the shared weights and biases, without locks and without waiting for each
+ * other to finish a step.<br>
+ * every worker has its own {@link Adam} with its own moments, working on a model that shares the parameters of the
+ * trained model but has its own activations. a worker reads weights that other workers may be writing at the same
+ * time, which is what makes it fast, and why the result is not deterministic.<br>
+ * the staleness bound limits how many steps any worker may be ahead of the slowest one. 0 keeps them in lockstep,
+ * {@link #UNBOUNDED} lets them run freely.
+ */
+public class HogwildTrainer {
+	/**
+	 * a staleness bound that never makes a worker wait
+	 */
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+	private final Adam[] optimizers;
+	private final int maxStaleness;
+
+	/**
+	 * the number of steps each worker has finished in the current call to train, Long.MAX_VALUE once it is done
+	 */
+	private final AtomicLongArray steps;
+
+	/**
+	 * @param model        the model to train, must not be in a confined arena
+	 * @param J
+	 * @param B1
+	 * @param B2
+	 * @param workers      how many threads train at the same time
+	 * @param maxStaleness how many steps a worker may be ahead of the slowest one
+	 */
+	public HogwildTrainer(Model model, LossFunction J, float B1, float B2, int workers, int maxStaleness) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("Workers must be positive.");
+		}
+		if (maxStaleness < 0) {
+			throw new IllegalArgumentException("Max staleness must not be negative.");
+		}
+		if (workers > 1 && model.W[1].confined) {
+			throw new IllegalArgumentException("A model in a confined arena can only be trained by one worker.");
+		}
+
+		this.maxStaleness = maxStaleness;
+		optimizers = new Adam[workers];
+		for (int w = 0; w < workers; w++) {
+			optimizers[w] = new Adam(Model.sharingParameters(model, model.m), J, B1, B2);
+		}
+		steps = new AtomicLongArray(workers);
+	}
+
+	/**
+	 * @return the number of worker threads
+	 */
+	public int workers() {
+		return optimizers.length;
+	}
+
+	/**
+	 * lets every worker take a number of steps and returns once they all have. if a worker failed, its exception or
+	 * error is thrown once all of them have stopped.
+	 *
+	 * @param batches        one batch per worker, each worker calls next on its own before every step. batches without
+	 *                       one hot targets train on their labels
+	 * @param stepsPerWorker
+	 * @param alpha          the learning rate
+	 */
+	public void train(Batch[] batches, long stepsPerWorker, float alpha) {
+		if (batches.length != optimizers.length) {
+			throw new IllegalArgumentException("There must be one batch per worker.");
+		}
+
+		Thread[] threads = new Thread[optimizers.length];
+		Throwable[] failures = new Throwable[optimizers.length];
+		for (int w = 0; w < threads.length; w++) {
+			steps.set(w, 0);
+		}
+
+		for (int w = 0; w < threads.length; w++) {
+			int worker = w;
+			threads[w] = new Thread(() -> {
+				try {
+					run(worker, batches[worker], stepsPerWorker, alpha);
+				} catch (Throwable e) {
+					// errors too, or train would return as if the worker had taken all its steps
+					failures[worker] = e;
+				} finally {
+					steps.set(worker, Long.MAX_VALUE);
+				}
+			}, "dubiousdl-hogwild-" + w);
+			threads[w].start();
+		}
+
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			while (true) {
+				try {
+					thread.join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (Throwable failure : failures) {
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (failure != null) {
+				throw new IllegalStateException("A worker failed.", failure);
+			}
+		}
+	}
+
+	private void run(int worker, Batch batch, long stepsPerWorker, float alpha) {
+		Adam optimizer = optimizers[worker];
+		for (long step = 0; step < stepsPerWorker; step++) {
+			awaitSlowest(step);
+
+			batch.next();
+			if (batch.target() != null) {
+				optimizer.step(batch.input(), batch.target(), alpha);
+			} else {
+				optimizer.step(batch.input(), batch.labels(), alpha);
+			}
+			steps.set(worker, step + 1);
+		}
+	}
+
+	/**
+	 * waits until no worker has finished fewer than step - maxStaleness steps
+	 */
+	private void awaitSlowest(long step) {
+		if (maxStaleness == UNBOUNDED) {
+			return;
+		}
+
+		for (int spins = 0; slowest() < step - maxStaleness; spins++) {
+			if (spins < 64) {
+				Thread.onSpinWait();
+			} else if (spins < 128) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(10_000);
+			}
+		}
+	}
+
+	private long slowest() {
+		long slowest = Long.MAX_VALUE;
+		for (int w = 0; w < steps.length(); w++) {
+			slowest = Math.min(slowest, steps.get(w));
+		}
+		return slowest;
+	}
+}
@@ -0,0 +1,242 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gathers single sample inference requests from any number of threads into batches and runs each batch as one forward
+ * pass over a {@link FrozenModel}, so a stream of matrix vector products becomes a few matrix matrix products.<br>
+ * a batch is run as soon as it is full or the oldest request in it has waited the maximum wait, whichever comes first.
+ * every caller gets its own output column through a CompletableFuture.
+ */
+public final class InferenceBatcher implements AutoCloseable {
+	/**
+	 * how many of the most recent latencies the percentiles are computed from
+	 */
+	private static final int LATENCY_WINDOW = 4096;
+
+	private final FrozenModel model;
+	private final int maxBatchSize;
+	private final long maxWaitNanos;
+
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final Thread worker;
+	private volatile boolean closed;
+
+	// only written by the worker, read by stats() while holding the lock
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private long batches;
+	private long requests;
+
+	/**
+	 * @param model         the model to run the batches on
+	 * @param maxBatchSize  the largest number of requests in a batch, at most the capacity of the model
+	 * @param maxWaitMicros the longest a request waits for others to join its batch
+	 */
+	public InferenceBatcher(FrozenModel model, int maxBatchSize, long maxWaitMicros) {
+		if (maxBatchSize < 1 || maxBatchSize > model.capacity()) {
+			throw new IllegalArgumentException("Max batch size must be between 1 and the capacity of the model.");
+		}
+		if (maxWaitMicros < 0) {
+			throw new IllegalArgumentException("Max wait must not be negative.");
+		}
+
+		this.model = model;
+		this.maxBatchSize = maxBatchSize;
+		this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+
+		worker = new Thread(this::run, "dubiousdl-batcher");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * queues one sample for inference
+	 *
+	 * @param input the input_size values of the sample, not copied so it must not change until the future completes
+	 * @return the output_size values the model computes for input
+	 */
+	public CompletableFuture<float[]> submit(float[] input) {
+		if (input.length != model.inputSize()) {
+			throw new IllegalArgumentException("Invalid input length.");
+		}
+		if (closed) {
+			throw new IllegalStateException("Batcher is closed.");
+		}
+
+		Request request = new Request(input);
+		queue.add(request);
+		if (closed && queue.remove(request)) {
+			request.future.completeExceptionally(new IllegalStateException("Batcher is closed."));
+		}
+		return request.future;
+	}
+
+	/**
+	 * stops the batcher. requests that were not run yet complete exceptionally.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		worker.interrupt();
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		Request request;
+		while ((request = queue.poll()) != null) {
+			request.future.completeExceptionally(new IllegalStateException("Batcher is closed."));
+		}
+	}
+
+	private void run() {
+		int inputSize = model.inputSize();
+		int outputSize = model.outputSize();
+		float[] in = new float[inputSize * maxBatchSize];
+		float[] out = new float[outputSize * maxBatchSize];
+		Request[] batch = new Request[maxBatchSize];
+		int size = 0;
+
+		try (FrozenModel.Session session = model.openSession()) {
+			while (!closed) {
+				batch[0] = queue.take();
+				size = 1;
+				long deadline = batch[0].submitted + maxWaitNanos;
+				while (size < maxBatchSize) {
+					long remaining = deadline - System.nanoTime();
+					Request request = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if (request == null) {
+						break;
+					}
+					batch[size++] = request;
+				}
+
+				runBatch(session, batch, size, in, out);
+				Arrays.fill(batch, 0, size, null);
+				size = 0;
+			}
+		} catch (InterruptedException e) {
+			// closed while gathering a batch, whose requests have already left the queue
+			for (int j = 0; j < size; j++) {
+				batch[j].future.completeExceptionally(new IllegalStateException("Batcher is closed."));
+			}
+		}
+	}
+
+	/**
+	 * runs the first size requests of batch as one forward pass and completes them
+	 */
+	private void runBatch(FrozenModel.Session session, Request[] batch, int size, float[] in, float[] out) {
+		int inputSize = model.inputSize();
+		int outputSize = model.outputSize();
+
+		try {
+			// sample j is column j of a row major inputSize x size matrix
+			for (int j = 0; j < size; j++) {
+				float[] input = batch[j].input;
+				for (int i = 0; i < inputSize; i++) {
+					in[i * size + j] = input[i];
+				}
+			}
+
+			session.predict(new Matrix(in, inputSize, size), new Matrix(out, outputSize, size));
+		} catch (Throwable e) {
+			// an error fails this batch rather than the worker, so later requests still run
+			for (int j = 0; j < size; j++) {
+				batch[j].future.completeExceptionally(e);
+			}
+			return;
+		}
+
+		long now = System.nanoTime();
+		synchronized (latencies) {
+			for (int j = 0; j < size; j++) {
+				latencies[(int) (requests++ % LATENCY_WINDOW)] = now - batch[j].submitted;
+			}
+			batches++;
+		}
+
+		for (int j = 0; j < size; j++) {
+			float[] output = new float[outputSize];
+			for (int i = 0; i < outputSize; i++) {
+				output[i] = out[i * size + j];
+			}
+			batch[j].future.complete(output);
+		}
+	}
+
+	/**
+	 * @return the current queue depth, the batch sizes so far and the latency percentiles of the recent requests
+	 */
+	public Stats stats() {
+		long[] recent;
+		long batches, requests;
+		synchronized (latencies) {
+			batches = this.batches;
+			requests = this.requests;
+			recent = Arrays.copyOf(latencies, (int) Math.min(requests, LATENCY_WINDOW));
+		}
+		Arrays.sort(recent);
+
+		return new Stats(queue.size(), batches, requests, percentile(recent, 0.5), percentile(recent, 0.99));
+	}
+
+	/**
+	 * @return the value below which fraction of the sorted values lie, in microseconds
+	 */
+	private static double percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(index, 0)] / 1e3;
+	}
+
+	private static final class Request {
+		final float[] input;
+		final long submitted = System.nanoTime();
+		final CompletableFuture<float[]> future = new CompletableFuture<>();
+
+		Request(float[] input) {
+			this.input = input;
+		}
+	}
+
+	/**
+	 * a snapshot of how the batcher is doing. the latencies are from submit until the output is ready, over the last
+	 * 4096 requests.
+	 */
+	public static final class Stats {
+		public final int queueDepth;
+		public final long batches;
+		public final long requests;
+		public final double p50Micros;
+		public final double p99Micros;
+
+		Stats(int queueDepth, long batches, long requests, double p50Micros, double p99Micros) {
+			this.queueDepth = queueDepth;
+			this.batches = batches;
+			this.requests = requests;
+			this.p50Micros = p50Micros;
+			this.p99Micros = p99Micros;
+		}
+
+		/**
+		 * @return the average number of requests per batch
+		 */
+		public double averageBatchSize() {
+			return batches == 0 ? 0 : (double) requests / batches;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("queue depth %d, %d requests in %d batches (avg %.1f), p50 %.0f us, p99 %.0f us",
+					queueDepth, requests, batches, averageBatchSize(), p50Micros, p99Micros);
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package com.dubiouscandle.dubiousdl;
+
+/**
+ * the inner loops of matrix and activation function operations, working on ranges of raw data arrays.<br>
+ * this class is the plain scalar implementation. when the jdk.incubator.vector module is available (run with
+ * --add-modules jdk.incubator.vector) {@link VectorKernels} is used instead, unless the dubiousdl.vector system property
+ * is set to false.
+ */
+class Kernels {
+	static final Kernels INSTANCE = load();
+
+	private static Kernels load() {
+		if (Boolean.parseBoolean(System.getProperty("dubiousdl.vector", "true"))
+				&& ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				return (Kernels) Class.forName("com.dubiouscandle.dubiousdl.VectorKernels").getDeclaredConstructor()
+						.newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// fall back to the scalar kernels
+			}
+		}
+		return new Kernels();
+	}
+
+	/**
+	 * @return the number of rows of a matrix multiplication micro kernel tile
+	 */
+	int mr() {
+		return 4;
+	}
+
+	/**
+	 * @return the number of columns of a matrix multiplication micro kernel tile
+	 */
+	int nr() {
+		return 8;
+	}
+
+	/**
+	 * multiplies one packed mr x kc panel of a with one packed kc x nr panel of b and writes the mr x nr result into
+	 * tile. see {@link Gemm} for the packed layout.
+	 */
+	void microKernel(int kc, float[] ap, int ao, float[] bp, int bo, float[] tile) {
+		float c00 = 0, c01 = 0, c02 = 0, c03 = 0, c04 = 0, c05 = 0, c06 = 0, c07 = 0;
+		float c10 = 0, c11 = 0, c12 = 0, c13 = 0, c14 = 0, c15 = 0, c16 = 0, c17 = 0;
+		float c20 = 0, c21 = 0, c22 = 0, c23 = 0, c24 = 0, c25 = 0, c26 = 0, c27 = 0;
+		float c30 = 0, c31 = 0, c32 = 0, c33 = 0, c34 = 0, c35 = 0, c36 = 0, c37 = 0;
+
+		for (int p = 0; p < kc; p++) {
+			float a0 = ap[ao], a1 = ap[ao + 1], a2 = ap[ao + 2], a3 = ap[ao + 3];
+			float b0 = bp[bo], b1 = bp[bo + 1], b2 = bp[bo + 2], b3 = bp[bo + 3];
+			float b4 = bp[bo + 4], b5 = bp[bo + 5], b6 = bp[bo + 6], b7 = bp[bo + 7];
+
+			c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+			c04 += a0 * b4; c05 += a0 * b5; c06 += a0 * b6; c07 += a0 * b7;
+			c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+			c14 += a1 * b4; c15 += a1 * b5; c16 += a1 * b6; c17 += a1 * b7;
+			c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+			c24 += a2 * b4; c25 += a2 * b5; c26 += a2 * b6; c27 += a2 * b7;
+			c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+			c34 += a3 * b4; c35 += a3 * b5; c36 += a3 * b6; c37 += a3 * b7;
+
+			ao += 4;
+			bo += 8;
+		}
+
+		tile[0] = c00; tile[1] = c01; tile[2] = c02; tile[3] = c03;
+		tile[4] = c04; tile[5] = c05; tile[6] = c06; tile[7] = c07;
+		tile[8] = c10; tile[9] = c11; tile[10] = c12; tile[11] = c13;
+		tile[12] = c14; tile[13] = c15; tile[14] = c16; tile[15] = c17;
+		tile[16] = c20; tile[17] = c21; tile[18] = c22; tile[19] = c23;
+		tile[20] = c24; tile[21] = c25; tile[22] = c26; tile[23] = c27;
+		tile[24] = c30; tile[25] = c31; tile[26] = c32; tile[27] = c33;
+		tile[28] = c34; tile[29] = c35; tile[30] = c36; tile[31] = c37;
+	}
+
+	/**
+	 * x[i] *= multiplier for len elements starting at off
+	 */
+	void multiply(float[] x, int off, int len, float multiplier) {
+		for (int i = off; i < off + len; i++) {
+			x[i] *= multiplier;
+		}
+	}
+
+	/**
+	 * x[i] += addend for len elements starting at off
+	 */
+	void add(float[] x, int off, int len, float addend) {
+		for (int i = off; i < off + len; i++) {
+			x[i] += addend;
+		}
+	}
+
+	/**
+	 * x[xOff + i] += y[yOff + i] for i below len
+	 */
+	void add(float[] x, int xOff, float[] y, int yOff, int len) {
+		for (int i = 0; i < len; i++) {
+			x[xOff + i] += y[yOff + i];
+		}
+	}
+
+	/**
+	 * x[xOff + i] *= y[yOff + i] for i below len
+	 */
+	void multiply(float[] x, int xOff, float[] y, int yOff, int len) {
+		for (int i = 0; i < len; i++) {
+			x[xOff + i] *= y[yOff + i];
+		}
+	}
+
+	/**
+	 * @return the sum of len elements of x starting at off
+	 */
+	float sum(float[] x, int off, int len) {
+		float sum = 0;
+		for (int i = off; i < off + len; i++) {
+			sum += x[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * one adam update of len parameters starting at off, in the same order of float operations as
+	 * {@link Adam}: the gradient is d[i] * scale, the moments are m = b1 * m + (1 - b1) * g and
+	 * v = b2 * v + (1 - b2) * g * g and the parameter moves by alpha * (m / c1) / sqrt(v / c2 + epsilon) where c1 and c2
+	 * are the bias corrections.
+	 */
+	void adam(float[] param, float[] m, float[] v, float[] d, int off, int len, float scale, float b1, float b2,
+			float c1, float c2, float alpha, float epsilon) {
+		float b1c = 1 - b1, b2c = 1 - b2;
+		for (int i = off; i < off + len; i++) {
+			float g = d[i] * scale;
+			float mi = b1 * m[i] + b1c * g;
+			float vi = b2 * v[i] + b2c * g * g;
+
+			param[i] = param[i] - alpha * (mi / c1) / (float) Math.sqrt(vi / c2 + epsilon);
+
+			m[i] = mi;
+			v[i] = vi;
+		}
+	}
+
+	/**
+	 * out[i] = g(x[i]) for the first len elements, approximated by {@link FastMath} if it is enabled
+	 */
+	void activate(ActivationFunction g, float[] x, float[] out, int len) {
+		if (FastMath.ENABLED && FastMath.approximates(g)) {
+			FastMath.activate(g, x, out, 0, len);
+			return;
+		}
+		for (int i = 0; i < len; i++) {
+			out[i] = g.getImpl(x[i]);
+		}
+	}
+
+	/**
+	 * out[i] = g'(x[i]) for the first len elements, approximated by {@link FastMath} if it is enabled
+	 */
+	void derive(ActivationFunction g, float[] x, float[] out, int len) {
+		if (FastMath.ENABLED && FastMath.approximates(g)) {
+			FastMath.derive(g, x, out, 0, len);
+			return;
+		}
+		for (int i = 0; i < len; i++) {
+			out[i] = g.derivImpl(x[i]);
+		}
+	}
+
+	/**
+	 * out[i] = da[i] * g'(z[i]) for the first len elements, with the derivative computed by
+	 * {@link ActivationFunction#derivImpl(float, float)} from z[i] and its activation a[i]. out may be da. the fast math
+	 * derivatives of soft plus and swish are used if it is enabled, the other functions don't need an exp here.
+	 */
+	void backward(ActivationFunction g, float[] z, float[] a, float[] da, float[] out, int len) {
+		if (FastMath.ENABLED && (g == ActivationFunction.SOFT_PLUS || g == ActivationFunction.SWISH)) {
+			FastMath.backward(g, z, da, out, 0, len);
+			return;
+		}
+		for (int i = 0; i < len; i++) {
+			out[i] = da[i] * g.derivImpl(z[i], a[i]);
+		}
+	}
+
+	/**
+	 * softmax cross entropy of every column of the row major rows x cols output, computing the loss and the gradient
+	 * together. the target of a column is one hot, given either by the matching column of target or by labels,
+	 * whichever is not null.<br>
+	 * writes softmax - target into error unless it is null, and returns the sum of the losses of the columns. scratch
+	 * must hold at least 3 * cols floats.<br>
+	 * it makes three passes over the output, all columns at a time: the maxima, the exps and their sums, and the
+	 * gradient and the loss. the exps are kept in error for the last pass, so if error is null the exp of the target
+	 * of each column is computed a second time. the order of operations is the one of
+	 * {@link LossFunction#SOFT_MAX_CROSS_ENTROPY_LOSS} per column, so the results are identical.
+	 */
+	float softmaxCrossEntropy(float[] output, float[] target, int[] labels, float[] error, int rows, int cols,
+			float[] scratch) {
+		int max = 0, sum = cols, loss = 2 * cols;
+		for (int j = 0; j < cols; j++) {
+			scratch[max + j] = Float.NEGATIVE_INFINITY;
+			scratch[sum + j] = 0;
+			scratch[loss + j] = 0;
+		}
+
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				scratch[max + j] = Math.max(scratch[max + j], output[i * cols + j]);
+			}
+		}
+
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				double e = Math.exp(output[i * cols + j] - scratch[max + j]);
+				scratch[sum + j] += e;
+				if (error != null) {
+					error[i * cols + j] = (float) e;
+				}
+			}
+		}
+
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				int k = i * cols + j;
+				float t = target != null ? target[k] : labels[j] == i ? 1 : 0;
+				if (error != null) {
+					float p = error[k] / scratch[sum + j];
+					error[k] = p - t;
+					if (t == 1) {
+						scratch[loss + j] -= Math.log(p);
+					}
+				} else if (t == 1) {
+					float p = (float) Math.exp(output[k] - scratch[max + j]) / scratch[sum + j];
+					scratch[loss + j] -= Math.log(p);
+				}
+			}
+		}
+
+		float total = 0;
+		for (int j = 0; j < cols; j++) {
+			total += scratch[loss + j];
+		}
+		return total;
+	}
+
+	/**
+	 * binary cross entropy of each of the len outputs, in one pass that computes the loss and the gradient together.
+	 * the targets are either target or labels, whichever is not null.<br>
+	 * writes sigmoid(output) - target into error unless it is null, and returns the sum of the losses. the sigmoid is
+	 * clamped to [epsilon, 1 - epsilon] for the loss only.
+	 */
+	float binaryCrossEntropy(float[] output, float[] target, int[] labels, float[] error, int len, float epsilon) {
+		float total = 0;
+		for (int j = 0; j < len; j++) {
+			float y = target != null ? target[j] : labels[j];
+			float yHat = (float) (1.0 / (1.0 + Math.exp(-output[j])));
+			if (error != null) {
+				error[j] = yHat - y;
+			}
+
+			yHat = Math.min(Math.max(yHat, epsilon), 1 - epsilon);
+			total += (float) (-(y * Math.log(yHat) + (1 - y) * Math.log(1 - yHat)));
+		}
+		return total;
+	}
+
+	/**
+	 * @return the sum of w[wOff + k] * x[xOff + k] for k up to len, where w holds fp16 or bf16 values
+	 */
+	float dotHalf(short[] w, int wOff, boolean bf16, float[] x, int xOff, int len) {
+		float sum = 0;
+		for (int k = 0; k < len; k++) {
+			float wk = bf16 ? Half.fromBf16(w[wOff + k]) : Half.fromFp16(w[wOff + k]);
+			sum += wk * x[xOff + k];
+		}
+		return sum;
+	}
+
+	/**
+	 * out[outOff + k] = w[wOff + k] as a float for k up to len, where w holds fp16 or bf16 values
+	 */
+	void decodeHalf(short[] w, int wOff, boolean bf16, float[] out, int outOff, int len) {
+		for (int k = 0; k < len; k++) {
+			out[outOff + k] = bf16 ? Half.fromBf16(w[wOff + k]) : Half.fromFp16(w[wOff + k]);
+		}
+	}
+
+	/**
+	 * @return the sum of x[xOff + k] * y[yOff + k] for k up to len
+	 */
+	float dot(float[] x, int xOff, float[] y, int yOff, int len) {
+		float sum = 0;
+		for (int k = 0; k < len; k++) {
+			sum += x[xOff + k] * y[yOff + k];
+		}
+		return sum;
+	}
+
+	/**
+	 * y[yOff + k] += a * x[xOff + k] for k up to len
+	 */
+	void axpy(float a, float[] x, int xOff, float[] y, int yOff, int len) {
+		for (int k = 0; k < len; k++) {
+			y[yOff + k] += a * x[xOff + k];
+		}
+	}
+
+	/**
+	 * y[i * cols + j] = the sum of values[p] * x[index[p] * cols + j] over p from start[i] up to start[i + 1], for rows
+	 * i from from up to to and columns j up to cols. that is the rows from up to to of w x, for a w in compressed
+	 * sparse rows, with the values of row i at start[i] up to start[i + 1] and their columns in index, and a row major
+	 * x with cols columns.
+	 */
+	void sparseGemm(int[] start, int[] index, float[] values, int from, int to, float[] x, int cols, float[] y) {
+		for (int i = from; i < to; i++) {
+			for (int j = 0; j < cols; j++) {
+				float sum = 0;
+				for (int p = start[i]; p < start[i + 1]; p++) {
+					sum += values[p] * x[index[p] * cols + j];
+				}
+				y[i * cols + j] = sum;
+			}
+		}
+	}
+
+	/**
+	 * the longest int8 dot product of values in [-127, 127] whose sum can't overflow an int
+	 */
+	static final int MAX_INT8_DOT = Integer.MAX_VALUE / (127 * 127);
+
+	/**
+	 * acc[j * rows + i] = the sum of w[i * cols + k] * x[j * cols + k] for k up to cols, for rows i from from up to to
+	 * of a row major int8 rows x cols w, and samples j up to batch of x, which holds one sample of cols values after the
+	 * other. the products and sums are exact as long as cols is at most {@link #MAX_INT8_DOT}.
+	 */
+	void gemmInt8(byte[] w, int rows, int cols, int from, int to, byte[] x, int batch, int[] acc) {
+		for (int i = from; i < to; i++) {
+			for (int j = 0; j < batch; j++) {
+				int sum = 0;
+				for (int k = 0; k < cols; k++) {
+					sum += w[i * cols + k] * x[j * cols + k];
+				}
+				acc[j * rows + i] = sum;
+			}
+		}
+	}
+
+	/**
+	 * out[off + i] = acc[off + i] * scale[i] + bias[i] for i up to len
+	 */
+	void dequantize(int[] acc, int off, float[] scale, float[] bias, float[] out, int len) {
+		for (int i = 0; i < len; i++) {
+			out[off + i] = acc[off + i] * scale[i] + bias[i];
+		}
+	}
+
+	/**
+	 * out[outOff + k] = x[xOff + k] * inverseScale rounded to the nearest int, halves away from 0, and clamped to
+	 * [-127, 127] for k up to len
+	 */
+	void quantize(float[] x, int xOff, float inverseScale, byte[] out, int outOff, int len) {
+		for (int k = 0; k < len; k++) {
+			float v = Math.max(-127f, Math.min(127f, x[xOff + k] * inverseScale));
+			out[outOff + k] = (byte) (int) (v + Math.copySign(0.5f, v));
+		}
+	}
+}
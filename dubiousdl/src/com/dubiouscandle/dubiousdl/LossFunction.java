@@ -5,11 +5,33 @@ public interface LossFunction {
 	 * note: if you use this loss function the output layers activation should be IDENTITY
 	 */
 	LossFunction SOFT_MAX_CROSS_ENTROPY_LOSS = new LossFunction() {
+		private final ThreadLocal<float[]> scratch = ThreadLocal.withInitial(() -> new float[0]);
+
 		@Override
 		public void getErrorImpl(float[] output, float[] target, float[] out) {
 			int numClasses = output.length;
 
-			float[] softmaxOutput = new float[numClasses];
+			float maxOutput = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < numClasses; i++) {
+				maxOutput = Math.max(maxOutput, output[i]);
+			}
+
+			float sumExp = 0.0f;
+			for (int i = 0; i < numClasses; i++) {
+				double e = Math.exp(output[i] - maxOutput);
+				sumExp += e;
+				out[i] = (float) e;
+			}
+			for (int i = 0; i < numClasses; i++) {
+				out[i] = out[i] / sumExp - target[i];
+			}
+		}
+
+		@Override
+		public float getLossImpl(float[] output, float[] target) {
+			int numClasses = output.length;
+			float loss = 0.0f;
+
 			float maxOutput = Float.NEGATIVE_INFINITY;
 			for (int i = 0; i < numClasses; i++) {
 				maxOutput = Math.max(maxOutput, output[i]);
@@ -19,43 +41,105 @@ public interface LossFunction {
 			for (int i = 0; i < numClasses; i++) {
 				sumExp += Math.exp(output[i] - maxOutput);
 			}
+
+			for (int i = 0; i < numClasses; i++) {
+				if (target[i] == 1) {
+					loss -= Math.log((float) Math.exp(output[i] - maxOutput) / sumExp);
+				}
+			}
+
+			return loss;
+		}
+
+		@Override
+		public void getErrorImpl(float[] output, int label, float[] out) {
+			int numClasses = output.length;
+
+			float maxOutput = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < numClasses; i++) {
+				maxOutput = Math.max(maxOutput, output[i]);
+			}
+
+			float sumExp = 0.0f;
 			for (int i = 0; i < numClasses; i++) {
-				softmaxOutput[i] = (float) Math.exp(output[i] - maxOutput) / sumExp;
+				double e = Math.exp(output[i] - maxOutput);
+				sumExp += e;
+				out[i] = (float) e;
 			}
 			for (int i = 0; i < numClasses; i++) {
-				out[i] = softmaxOutput[i] - target[i];
+				out[i] /= sumExp;
 			}
+			out[label] -= 1;
 		}
 
-	    @Override
-	    public float getLossImpl(float[] output, float[] target) {
-	        int numClasses = output.length;
-	        float loss = 0.0f;
+		@Override
+		public float getLossImpl(float[] output, int label) {
+			int numClasses = output.length;
 
-	        float maxOutput = Float.NEGATIVE_INFINITY;
-	        for (int i = 0; i < numClasses; i++) {
-	            maxOutput = Math.max(maxOutput, output[i]);
-	        }
+			float maxOutput = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < numClasses; i++) {
+				maxOutput = Math.max(maxOutput, output[i]);
+			}
 
-	        float sumExp = 0.0f;
-	        for (int i = 0; i < numClasses; i++) {
-	            sumExp += Math.exp(output[i] - maxOutput);
-	        }
+			float sumExp = 0.0f;
+			for (int i = 0; i < numClasses; i++) {
+				sumExp += Math.exp(output[i] - maxOutput);
+			}
 
-	        float[] softmaxOutput = new float[numClasses];
-	        for (int i = 0; i < numClasses; i++) {
-	            softmaxOutput[i] = (float) Math.exp(output[i] - maxOutput) / sumExp;
-	        }
+			return (float) -Math.log((float) Math.exp(output[label] - maxOutput) / sumExp);
+		}
 
-	        for (int i = 0; i < numClasses; i++) {
-	            if (target[i] == 1) {
-	                loss -= Math.log(softmaxOutput[i]);
-	            }
-	        }
+		@Override
+		public void getError(Matrix output, Matrix target, Matrix error) {
+			getErrorAndLoss(output, target, error);
+		}
+
+		@Override
+		public void getError(Matrix output, int[] labels, Matrix error) {
+			getErrorAndLoss(output, labels, error);
+		}
+
+		@Override
+		public float getLoss(Matrix output, Matrix target) {
+			return fused(output, target, null, null);
+		}
+
+		@Override
+		public float getLoss(Matrix output, int[] labels) {
+			return fused(output, null, labels, null);
+		}
+
+		@Override
+		public float getErrorAndLoss(Matrix output, Matrix target, Matrix error) {
+			return fused(output, target, null, error);
+		}
+
+		@Override
+		public float getErrorAndLoss(Matrix output, int[] labels, Matrix error) {
+			return fused(output, null, labels, error);
+		}
 
-	        return loss;
-	    }
+		/**
+		 * runs the batched kernel on the data arrays, or the per column loops if a matrix isn't an untransposed array.
+		 * error may be null to only compute the loss.
+		 */
+		private float fused(Matrix output, Matrix target, int[] labels, Matrix error) {
+			LossFunction.checkDimensions(output, target, labels, error, output.rows());
+			if (!LossFunction.onArrays(output, target, error)) {
+				if (error != null) {
+					LossFunction.errorPerColumn(this, output, target, labels, error);
+				}
+				return LossFunction.lossPerColumn(this, output, target, labels);
+			}
 
+			float[] s = scratch.get();
+			if (s.length < 3 * output.cols()) {
+				s = new float[3 * output.cols()];
+				scratch.set(s);
+			}
+			return Kernels.INSTANCE.softmaxCrossEntropy(output.data, target == null ? null : target.data, labels,
+					error == null ? null : error.data, output.rows(), output.cols(), s) / output.cols();
+		}
 	};
 
 	/**
@@ -89,12 +173,104 @@ public interface LossFunction {
 
 			return (float) (-(y * Math.log(yHat) + (1 - y) * Math.log(1 - yHat)));
 		}
+
+		/**
+		 * the label is the target, 0 or 1
+		 */
+		@Override
+		public void getErrorImpl(float[] output, int label, float[] out) {
+			getErrorImpl(output, new float[] { label }, out);
+		}
+
+		/**
+		 * the label is the target, 0 or 1
+		 */
+		@Override
+		public float getLossImpl(float[] output, int label) {
+			return getLossImpl(output, new float[] { label });
+		}
+
+		@Override
+		public void getError(Matrix output, Matrix target, Matrix error) {
+			getErrorAndLoss(output, target, error);
+		}
+
+		@Override
+		public void getError(Matrix output, int[] labels, Matrix error) {
+			getErrorAndLoss(output, labels, error);
+		}
+
+		@Override
+		public float getLoss(Matrix output, Matrix target) {
+			return fused(output, target, null, null);
+		}
+
+		@Override
+		public float getLoss(Matrix output, int[] labels) {
+			return fused(output, null, labels, null);
+		}
+
+		@Override
+		public float getErrorAndLoss(Matrix output, Matrix target, Matrix error) {
+			return fused(output, target, null, error);
+		}
+
+		@Override
+		public float getErrorAndLoss(Matrix output, int[] labels, Matrix error) {
+			return fused(output, null, labels, error);
+		}
+
+		/**
+		 * runs the batched kernel on the data arrays, or the per column loops if a matrix isn't an untransposed array or
+		 * there is more than one output. error may be null to only compute the loss.
+		 */
+		private float fused(Matrix output, Matrix target, int[] labels, Matrix error) {
+			// the label is the target, 0 or 1
+			LossFunction.checkDimensions(output, target, labels, error, 2);
+			if (output.rows() != 1 || !LossFunction.onArrays(output, target, error)) {
+				if (error != null) {
+					LossFunction.errorPerColumn(this, output, target, labels, error);
+				}
+				return LossFunction.lossPerColumn(this, output, target, labels);
+			}
+
+			return Kernels.INSTANCE.binaryCrossEntropy(output.data, target == null ? null : target.data, labels,
+					error == null ? null : error.data, output.cols(), EPSILON) / output.cols();
+		}
 	};
 
 	void getErrorImpl(float[] output, float[] target, float[] out);
 
 	float getLossImpl(float[] output, float[] target);
 
+	/**
+	 * same as {@link #getErrorImpl(float[], float[], float[])} with the target given by the index of the class it is 1
+	 * for. the default builds that one hot target.
+	 *
+	 * @param output
+	 * @param label
+	 * @param out
+	 */
+	default void getErrorImpl(float[] output, int label, float[] out) {
+		float[] target = new float[output.length];
+		target[label] = 1;
+		getErrorImpl(output, target, out);
+	}
+
+	/**
+	 * same as {@link #getLossImpl(float[], float[])} with the target given by the index of the class it is 1 for. the
+	 * default builds that one hot target.
+	 *
+	 * @param output
+	 * @param label
+	 * @return the loss
+	 */
+	default float getLossImpl(float[] output, int label) {
+		float[] target = new float[output.length];
+		target[label] = 1;
+		return getLossImpl(output, target);
+	}
+
 	/**
 	 * computes the error between output and target and stores it in error
 	 * 
@@ -103,6 +279,112 @@ public interface LossFunction {
 	 * @param error
 	 */
 	default void getError(Matrix output, Matrix target, Matrix error) {
+		checkDimensions(output, target, null, error, output.rows());
+		errorPerColumn(this, output, target, null, error);
+	}
+
+	/**
+	 * computes the average loss between output and target
+	 * 
+	 * @param output
+	 * @param target
+	 * @return the average loss
+	 */
+	default float getLoss(Matrix output, Matrix target) {
+		checkDimensions(output, target, null, null, output.rows());
+		return lossPerColumn(this, output, target, null);
+	}
+
+	/**
+	 * computes the error between output and the one hot targets given by labels and stores it in error
+	 * 
+	 * @param output
+	 * @param labels the class of every column of output
+	 * @param error
+	 */
+	default void getError(Matrix output, int[] labels, Matrix error) {
+		checkDimensions(output, null, labels, error, output.rows());
+		errorPerColumn(this, output, null, labels, error);
+	}
+
+	/**
+	 * computes the average loss between output and the one hot targets given by labels
+	 * 
+	 * @param output
+	 * @param labels the class of every column of output
+	 * @return the average loss
+	 */
+	default float getLoss(Matrix output, int[] labels) {
+		checkDimensions(output, null, labels, null, output.rows());
+		return lossPerColumn(this, output, null, labels);
+	}
+
+	/**
+	 * computes the error between output and target, stores it in error and returns the average loss. the built in loss
+	 * functions do both in a single pass over the data arrays that allocates nothing once it is warmed up.
+	 * 
+	 * @param output
+	 * @param target
+	 * @param error
+	 * @return the average loss
+	 */
+	default float getErrorAndLoss(Matrix output, Matrix target, Matrix error) {
+		getError(output, target, error);
+		return getLoss(output, target);
+	}
+
+	/**
+	 * same as {@link #getErrorAndLoss(Matrix, Matrix, Matrix)} with the one hot targets given by labels
+	 * 
+	 * @param output
+	 * @param labels the class of every column of output
+	 * @param error
+	 * @return the average loss
+	 */
+	default float getErrorAndLoss(Matrix output, int[] labels, Matrix error) {
+		getError(output, labels, error);
+		return getLoss(output, labels);
+	}
+
+	/**
+	 * throws if target or labels, whichever is not null, or error, if not null, don't match output, or a label is not
+	 * in [0, numClasses)
+	 */
+	private static void checkDimensions(Matrix output, Matrix target, int[] labels, Matrix error, int numClasses) {
+		if (target != null && (output.rows() != target.rows() || output.cols() != target.cols())) {
+			throw new IllegalArgumentException("Dimension mismatch");
+		}
+		if (labels != null) {
+			if (labels.length != output.cols()) {
+				throw new IllegalArgumentException("Dimension mismatch");
+			}
+			for (int label : labels) {
+				if (label < 0 || label >= numClasses) {
+					throw new IllegalArgumentException("Label " + label + " out of bounds.");
+				}
+			}
+		}
+		if (error != null && (output.rows() != error.rows() || output.cols() != error.cols())) {
+			throw new IllegalArgumentException("Dimension mismatch");
+		}
+	}
+
+	/**
+	 * @return whether every matrix is null or backed by an array and not transposed
+	 */
+	private static boolean onArrays(Matrix... matrices) {
+		for (Matrix matrix : matrices) {
+			if (matrix != null && (!matrix.hasArray() || matrix.transposed)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * the general way to compute the error, one column at a time through getErrorImpl
+	 */
+	private static void errorPerColumn(LossFunction J, Matrix output, Matrix target, int[] labels, Matrix error) {
 		int numClasses = output.rows();
 		int batchSize = output.cols();
 
@@ -113,27 +395,25 @@ public interface LossFunction {
 		for (int batch = 0; batch < batchSize; batch++) {
 			for (int i = 0; i < numClasses; i++) {
 				outputArr[i] = output.get(i, batch);
-				targetArr[i] = target.get(i, batch);
 			}
-			getErrorImpl(outputArr, targetArr, errorArr);
-			for (int j = 0; j < output.rows(); j++) {
+			if (target != null) {
+				for (int i = 0; i < numClasses; i++) {
+					targetArr[i] = target.get(i, batch);
+				}
+				J.getErrorImpl(outputArr, targetArr, errorArr);
+			} else {
+				J.getErrorImpl(outputArr, labels[batch], errorArr);
+			}
+			for (int j = 0; j < numClasses; j++) {
 				error.set(j, batch, errorArr[j]);
 			}
 		}
 	}
 
 	/**
-	 * computes the average loss between output and target
-	 * 
-	 * @param output
-	 * @param target
-	 * @return the average loss
+	 * the general way to compute the average loss, one column at a time through getLossImpl
 	 */
-	default float getLoss(Matrix output, Matrix target) {
-		if (output.rows() != target.rows() || output.cols() != target.cols()) {
-			throw new IllegalArgumentException("Dimension mismatch");
-		}
-
+	private static float lossPerColumn(LossFunction J, Matrix output, Matrix target, int[] labels) {
 		int numClasses = output.rows();
 		int batchSize = output.cols();
 
@@ -144,9 +424,15 @@ public interface LossFunction {
 		for (int batch = 0; batch < batchSize; batch++) {
 			for (int i = 0; i < numClasses; i++) {
 				outputArr[i] = output.get(i, batch);
-				targetArr[i] = target.get(i, batch);
 			}
-			sum += getLossImpl(outputArr, targetArr);
+			if (target != null) {
+				for (int i = 0; i < numClasses; i++) {
+					targetArr[i] = target.get(i, batch);
+				}
+				sum += J.getLossImpl(outputArr, targetArr);
+			} else {
+				sum += J.getLossImpl(outputArr, labels[batch]);
+			}
 		}
 
 		return sum / batchSize;
@@ -0,0 +1,202 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * a dataset whose records are fixed size blocks in a file that is mapped into memory, so it can be much larger than the
+ * heap and opening it does not read it. the operating system pages the records in as they are read.<br>
+ * the records are either little endian floats or unsigned bytes, which are read as value / 255. the labels are small
+ * enough to be kept on the heap.
+ */
+public class MappedDataset implements Dataset {
+	/**
+	 * how the values of a record are stored
+	 */
+	public enum Type {
+		/**
+		 * 4 byte little endian floats
+		 */
+		FLOAT32(4),
+		/**
+		 * unsigned bytes, read as value / 255 so they are in [0, 1]
+		 */
+		UINT8(1);
+
+		final int bytes;
+
+		Type(int bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	private static final int IDX_UINT8 = 0x08;
+
+	private final Type type;
+	private final int recordSize;
+	private final int recordBytes;
+	private final int[] labels;
+
+	/**
+	 * the file, mapped in chunks of a whole number of records since a single mapping can't be larger than 2GB
+	 */
+	private final ByteBuffer[] chunks;
+	private final int recordsPerChunk;
+
+	private MappedDataset(FileChannel channel, long offset, Type type, int recordSize, int[] labels)
+			throws IOException {
+		if (recordSize < 1) {
+			throw new IllegalArgumentException("Record size must be positive.");
+		}
+
+		this.type = type;
+		this.recordSize = recordSize;
+		this.recordBytes = Math.multiplyExact(recordSize, type.bytes);
+		this.labels = labels;
+
+		int count = labels.length;
+		if (offset < 0 || offset + (long) count * recordBytes > channel.size()) {
+			throw new IOException("The file is too small for " + count + " records.");
+		}
+
+		recordsPerChunk = Integer.MAX_VALUE / recordBytes;
+		chunks = new ByteBuffer[count == 0 ? 0 : (count - 1) / recordsPerChunk + 1];
+		for (int c = 0; c < chunks.length; c++) {
+			int records = Math.min(recordsPerChunk, count - c * recordsPerChunk);
+			long position = offset + (long) c * recordsPerChunk * recordBytes;
+			chunks[c] = channel.map(MapMode.READ_ONLY, position, (long) records * recordBytes)
+					.order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * maps a file of records stored back to back
+	 *
+	 * @param file
+	 * @param offset     where the first record starts in the file
+	 * @param type       how the values are stored
+	 * @param recordSize the number of values in a record
+	 * @param labels     the label of every record, the length is the number of records. used as is, not copied
+	 * @return the dataset
+	 * @throws IOException if the file can't be read or is too small
+	 */
+	public static MappedDataset open(Path file, long offset, Type type, int recordSize, int[] labels)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new MappedDataset(channel, offset, type, recordSize, labels);
+		}
+	}
+
+	/**
+	 * maps a dataset in the IDX format of MNIST: a file of unsigned byte records of any number of dimensions and a
+	 * file of unsigned byte labels with the same count. the labels are read onto the heap.
+	 *
+	 * @param records e.g. train-images-idx3-ubyte
+	 * @param labels  e.g. train-labels-idx1-ubyte
+	 * @return the dataset, each record is flattened in row major order
+	 * @throws IOException if a file can't be read or is not valid
+	 */
+	public static MappedDataset openIdx(Path records, Path labels) throws IOException {
+		int[] labelValues;
+		try (FileChannel channel = FileChannel.open(labels, StandardOpenOption.READ)) {
+			int[] dims = readIdxHeader(channel, labels);
+			if (dims.length != 1) {
+				throw new IOException(labels + " is not a list of labels.");
+			}
+			if (channel.size() < 8L + dims[0]) {
+				throw new IOException(labels + " is truncated.");
+			}
+			ByteBuffer bytes = channel.map(MapMode.READ_ONLY, 8, dims[0]);
+			labelValues = new int[dims[0]];
+			for (int i = 0; i < labelValues.length; i++) {
+				labelValues[i] = bytes.get(i) & 0xff;
+			}
+		}
+
+		try (FileChannel channel = FileChannel.open(records, StandardOpenOption.READ)) {
+			int[] dims = readIdxHeader(channel, records);
+			if (dims[0] != labelValues.length) {
+				throw new IOException("There are " + dims[0] + " records but " + labelValues.length + " labels.");
+			}
+			int recordSize = 1;
+			for (int d = 1; d < dims.length; d++) {
+				recordSize = Math.multiplyExact(recordSize, dims[d]);
+			}
+			return new MappedDataset(channel, 4 + 4 * dims.length, Type.UINT8, recordSize, labelValues);
+		}
+	}
+
+	/**
+	 * reads the big endian header of an unsigned byte IDX file
+	 *
+	 * @return the dimensions, the first is the count
+	 */
+	private static int[] readIdxHeader(FileChannel channel, Path file) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(4);
+		readFully(channel, magic, 0, file);
+		if (magic.get(0) != 0 || magic.get(1) != 0 || magic.get(2) != IDX_UINT8 || magic.get(3) < 1) {
+			throw new IOException(file + " is not an unsigned byte IDX file.");
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(4 * magic.get(3));
+		readFully(channel, header, 4, file);
+		int[] dims = new int[magic.get(3)];
+		for (int d = 0; d < dims.length; d++) {
+			dims[d] = header.getInt(4 * d);
+			if (dims[d] < 0) {
+				throw new IOException(file + " has an invalid dimension.");
+			}
+		}
+		return dims;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position, Path file)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException(file + " is truncated.");
+			}
+			position += read;
+		}
+	}
+
+	@Override
+	public int size() {
+		return labels.length;
+	}
+
+	@Override
+	public int recordSize() {
+		return recordSize;
+	}
+
+	@Override
+	public int label(int index) {
+		return labels[index];
+	}
+
+	@Override
+	public void read(int index, float[] out, int offset, int stride) {
+		if (index < 0 || index >= labels.length) {
+			throw new IndexOutOfBoundsException(index);
+		}
+
+		ByteBuffer chunk = chunks[index / recordsPerChunk];
+		int position = index % recordsPerChunk * recordBytes;
+		if (type == Type.FLOAT32) {
+			for (int k = 0; k < recordSize; k++) {
+				out[offset + k * stride] = chunk.getFloat(position + 4 * k);
+			}
+		} else {
+			for (int k = 0; k < recordSize; k++) {
+				out[offset + k * stride] = (chunk.get(position + k) & 0xff) / 255f;
+			}
+		}
+	}
+}
@@ -1,22 +1,59 @@
 package com.dubiouscandle.dubiousdl;
 
 import java.io.Serializable;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 public class Matrix implements Serializable {
 	private static final long serialVersionUID = 3579437216201658179L;
-	private final float[] data;
-	private final int rows, cols;
-	private boolean transposed = false;
+	final float[] data;
+	/**
+	 * the storage of matrices that are not backed by an array, null otherwise
+	 */
+	final transient FloatBuffer buffer;
+	/**
+	 * whether the storage can only be touched from the thread that allocated it
+	 */
+	final transient boolean confined;
+	final int rows, cols;
+	boolean transposed = false;
 
 	/**
-	 * returns the underlying data array of this matrix. mutations to the returned array will be reflected in this object
+	 * returns the underlying data array of this matrix. mutations to the returned array will be reflected in this object.
+	 * <br>
+	 * the array can be longer than the matrix: a matrix that is a view into scratch memory shared with other matrices,
+	 * like the layer outputs of a {@link Predictor} or the activations of an {@link Adam} that checkpoints, only owns
+	 * the first {@link #size()} values of it. loops over the array should stop at size(), not at its length.
 	 * 
 	 * @return the underlying data array of this matrix
+	 * @throws UnsupportedOperationException if this matrix is not backed by an array, see {@link #hasArray()}
 	 */
 	public float[] data() {
+		if (data == null) {
+			throw new UnsupportedOperationException("Matrix is not backed by an array, use buffer().");
+		}
 		return data;
 	}
 
+	/**
+	 * returns the underlying storage of this matrix as a buffer, in row major order of the untransposed matrix. for
+	 * matrices backed by an array this wraps the first {@link #size()} values of data(). the buffer has exactly size()
+	 * values. mutations to the returned buffer will be reflected in this object
+	 * 
+	 * @return the underlying storage of this matrix
+	 */
+	public FloatBuffer buffer() {
+		return data == null ? buffer.slice(0, size()) : FloatBuffer.wrap(data, 0, size()).slice();
+	}
+
+	/**
+	 * @return whether this matrix is backed by a float array that {@link #data()} returns. matrices allocated by a
+	 *         {@link MatrixArena} or created with {@link #wrap} are not.
+	 */
+	public boolean hasArray() {
+		return data != null;
+	}
+
 	/**
 	 * creates a matrix with rows rows and cols columns.
 	 * 
@@ -27,20 +64,87 @@ public class Matrix implements Serializable {
 		this.rows = rows;
 		this.cols = cols;
 		data = new float[rows * cols];
+		buffer = null;
+		confined = false;
 	}
 
 	/**
-	 * creates a copy of the inputed matrix
+	 * creates a copy of the inputed matrix. the copy is always backed by an array.
 	 * 
 	 * @param matrix
 	 */
 	public Matrix(Matrix matrix) {
 		rows = matrix.rows;
 		cols = matrix.cols;
-		data = matrix.data.clone();
+		if (matrix.data != null) {
+			data = Arrays.copyOf(matrix.data, matrix.size());
+		} else {
+			data = new float[rows * cols];
+			matrix.buffer.get(0, data, 0, size());
+		}
+		buffer = null;
+		confined = false;
 		transposed = matrix.transposed;
 	}
 
+	/**
+	 * creates a matrix that uses the first rows * cols values of data as its storage. data may be longer, so one array
+	 * can hold matrices of different sizes.
+	 * 
+	 * @param data
+	 * @param rows
+	 * @param cols
+	 */
+	Matrix(float[] data, int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+		this.data = data;
+		this.buffer = null;
+		this.confined = false;
+	}
+
+	/**
+	 * creates a matrix that stores its values in buffer instead of an array
+	 * 
+	 * @param buffer   holds rows * cols values starting at index 0
+	 * @param rows
+	 * @param cols
+	 * @param confined whether buffer can only be used from the thread that allocated it
+	 */
+	Matrix(FloatBuffer buffer, int rows, int cols, boolean confined) {
+		this.rows = rows;
+		this.cols = cols;
+		this.data = null;
+		this.buffer = buffer;
+		this.confined = confined;
+	}
+
+	/**
+	 * creates a rows x cols matrix whose values are the floats of buffer from its position on, in row major order. this
+	 * can be used to share memory with native code or memory mapped files. mutations to either will be reflected in the
+	 * other.
+	 * 
+	 * @param buffer
+	 * @param rows
+	 * @param cols
+	 * @return a matrix backed by buffer
+	 */
+	public static Matrix wrap(FloatBuffer buffer, int rows, int cols) {
+		if (buffer.remaining() < rows * cols) {
+			throw new IllegalArgumentException("Buffer is too small for size (" + rows + ", " + cols + ").");
+		}
+		return new Matrix(buffer.slice(), rows, cols, false);
+	}
+
+	/**
+	 * matrices not backed by an array of exactly their size are written as a copy that is
+	 * 
+	 * @return the object to serialize
+	 */
+	private Object writeReplace() {
+		return data == null || data.length != size() ? new Matrix(this) : this;
+	}
+
 	/**
 	 * transposes this matrix by setting a flag.
 	 */
@@ -48,6 +152,18 @@ public class Matrix implements Serializable {
 		transposed = !transposed;
 	}
 
+	/**
+	 * creates the transpose of this matrix without touching this one, so threads can each have their own transpose of a
+	 * shared matrix. mutations to either are reflected in the other.
+	 * 
+	 * @return a transposed matrix that shares the storage of this one
+	 */
+	Matrix transposedView() {
+		Matrix view = data != null ? new Matrix(data, rows, cols) : new Matrix(buffer, rows, cols, confined);
+		view.transposed = !transposed;
+		return view;
+	}
+
 	/**
 	 * computes the index inside the data array that row and col correspond to
 	 * 
@@ -63,6 +179,49 @@ public class Matrix implements Serializable {
 		}
 	}
 
+	/**
+	 * @return the distance in the storage between (row, col) and (row + 1, col)
+	 */
+	int rowStride() {
+		return transposed ? 1 : cols;
+	}
+
+	/**
+	 * @return the distance in the storage between (row, col) and (row, col + 1)
+	 */
+	int colStride() {
+		return transposed ? cols : 1;
+	}
+
+	/**
+	 * @param index
+	 * @return the value at index in the storage
+	 */
+	float load(int index) {
+		return data != null ? data[index] : buffer.get(index);
+	}
+
+	/**
+	 * sets the value at index in the storage
+	 * 
+	 * @param index
+	 * @param value
+	 */
+	void store(int index, float value) {
+		if (data != null) {
+			data[index] = value;
+		} else {
+			buffer.put(index, value);
+		}
+	}
+
+	/**
+	 * @return the number of elements in this matrix, rows() * cols()
+	 */
+	public int size() {
+		return rows * cols;
+	}
+
 	/**
 	 * gets the value at row row and column col
 	 * 
@@ -73,7 +232,7 @@ public class Matrix implements Serializable {
 	public float get(int row, int col) {
 		checkIndex(row, col);
 
-		return data[getIndex(row, col)];
+		return load(getIndex(row, col));
 	}
 
 	/**
@@ -86,7 +245,7 @@ public class Matrix implements Serializable {
 	public void set(int row, int col, float value) {
 		checkIndex(row, col);
 
-		data[getIndex(row, col)] = value;
+		store(getIndex(row, col), value);
 	}
 
 	/**
@@ -117,7 +276,8 @@ public class Matrix implements Serializable {
 	}
 
 	/**
-	 * computes the matrix multiplication of a and b and stores it in result
+	 * computes the matrix multiplication of a and b and stores it in result. result should not be the same matrix as a or
+	 * b.
 	 * 
 	 * @param a
 	 * @param b
@@ -131,29 +291,25 @@ public class Matrix implements Serializable {
 			throw new IllegalArgumentException("Result matrix has incorrect dimensions.");
 		}
 
-		for (int i = 0; i < a.rows(); i++) {
-			for (int j = 0; j < b.cols(); j++) {
-				float sum = 0;
-				for (int k = 0; k < a.cols(); k++) {
-					sum += a.get(i, k) * b.get(k, j);
-				}
-				result.set(i, j, sum);
-			}
-		}
+		Gemm.multiply(a, b, result);
 	}
 
 	/**
 	 * clears all values in this matrix to be 0
 	 */
 	public void clear() {
-		for (int i = 0; i < data.length; i++) {
-			data[i] = 0;
+		if (data != null) {
+			Arrays.fill(data, 0, size(), 0);
+		} else {
+			for (int i = 0; i < size(); i++) {
+				buffer.put(i, 0);
+			}
 		}
 	}
 
 	@Override
 	public String toString() {
-		StringBuilder sb = new StringBuilder(data.length * 4);
+		StringBuilder sb = new StringBuilder(size() * 4);
 
 		for (int i = 0; i < rows(); i++) {
 			sb.append('[');
@@ -189,7 +345,15 @@ public class Matrix implements Serializable {
 	public void set(Matrix matrix) {
 		assertSameDimension(matrix);
 
-		System.arraycopy(matrix.data, 0, data, 0, data.length);
+		if (data != null && matrix.data != null) {
+			System.arraycopy(matrix.data, 0, data, 0, size());
+		} else if (data != null) {
+			matrix.buffer.get(0, data, 0, size());
+		} else if (matrix.data != null) {
+			buffer.put(0, matrix.data, 0, size());
+		} else {
+			buffer.put(0, matrix.buffer, 0, size());
+		}
 	}
 
 	/**
@@ -198,8 +362,12 @@ public class Matrix implements Serializable {
 	 * @param multiplier
 	 */
 	public void multiply(float multiplier) {
-		for (int i = 0; i < data.length; i++) {
-			data[i] *= multiplier;
+		if (data != null) {
+			Kernels.INSTANCE.multiply(data, 0, size(), multiplier);
+		} else {
+			for (int i = 0; i < size(); i++) {
+				buffer.put(i, buffer.get(i) * multiplier);
+			}
 		}
 	}
 
@@ -209,8 +377,12 @@ public class Matrix implements Serializable {
 	 * @param addend
 	 */
 	public void add(float addend) {
-		for (int i = 0; i < data.length; i++) {
-			data[i] += addend;
+		if (data != null) {
+			Kernels.INSTANCE.add(data, 0, size(), addend);
+		} else {
+			for (int i = 0; i < size(); i++) {
+				buffer.put(i, buffer.get(i) + addend);
+			}
 		}
 	}
 
@@ -222,17 +394,9 @@ public class Matrix implements Serializable {
 	 */
 	public void addBroadcasted(Matrix broadcast) {
 		if (broadcast.rows() == 1 && broadcast.cols() == cols()) {
-			for (int i = 0; i < rows(); i++) {
-				for (int j = 0; j < cols(); j++) {
-					set(i, j, get(i, j) + broadcast.get(0, j));
-				}
-			}
+			addBroadcasted(broadcast, transposed);
 		} else if (broadcast.cols() == 1 && broadcast.rows() == rows()) {
-			for (int i = 0; i < rows(); i++) {
-				for (int j = 0; j < cols(); j++) {
-					set(i, j, get(i, j) + broadcast.get(i, 0));
-				}
-			}
+			addBroadcasted(broadcast, !transposed);
 		} else if (broadcast.rows() == 1 && broadcast.cols() == 1) {
 			float addend = broadcast.get(0, 0);
 			add(addend);
@@ -241,6 +405,34 @@ public class Matrix implements Serializable {
 		}
 	}
 
+	/**
+	 * adds the vector to every row of the storage if perRow is false, otherwise adds vector[i] to every element of row i
+	 * of the storage
+	 * 
+	 * @param vector
+	 * @param perRow
+	 */
+	private void addBroadcasted(Matrix vector, boolean perRow) {
+		if (data == null || vector.data == null) {
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < cols; j++) {
+					int index = i * cols + j;
+					store(index, load(index) + vector.load(perRow ? i : j));
+				}
+			}
+			return;
+		}
+
+		Kernels kernels = Kernels.INSTANCE;
+		for (int i = 0; i < rows; i++) {
+			if (perRow) {
+				kernels.add(data, i * cols, cols, vector.data[i]);
+			} else {
+				kernels.add(data, i * cols, vector.data, 0, cols);
+			}
+		}
+	}
+
 	/**
 	 * clones the array and all matrices in the array. if any elements were null then it will keep them as null.
 	 * 
@@ -265,9 +457,13 @@ public class Matrix implements Serializable {
 		if (a.rows() != b.rows() || a.cols() != b.cols()) {
 			throw new IllegalArgumentException("Dimension mismatch.");
 		}
-		for (int i = 0; i < a.rows(); i++) {
-			for (int j = 0; j < a.cols(); j++) {
-				a.set(i, j, a.get(i, j) * b.get(i, j));
+		if (a.transposed == b.transposed && a.data != null && b.data != null) {
+			Kernels.INSTANCE.multiply(a.data, 0, b.data, 0, a.size());
+		} else {
+			for (int i = 0; i < a.rows(); i++) {
+				for (int j = 0; j < a.cols(); j++) {
+					a.set(i, j, a.get(i, j) * b.get(i, j));
+				}
 			}
 		}
 	}
@@ -310,15 +506,27 @@ public class Matrix implements Serializable {
 		if (out.cols() != 1 || out.rows() != rows()) {
 			throw new IllegalArgumentException("Invalid out matrix size.");
 		}
-		for (int i = 0; i < out.data.length; i++) {
-			out.data[i] = 0;
+		if (data == null || out.data == null) {
+			for (int i = 0; i < rows(); i++) {
+				float s = 0;
+				for (int j = 0; j < cols(); j++) {
+					s += get(i, j);
+				}
+				out.set(i, 0, s);
+			}
+			return;
 		}
-		for (int i = 0; i < rows(); i++) {
-			float s = 0;
-			for (int j = 0; j < cols(); j++) {
-				s += get(i, j);
+
+		Kernels kernels = Kernels.INSTANCE;
+		if (transposed) {
+			Arrays.fill(out.data, 0, out.size(), 0);
+			for (int i = 0; i < rows; i++) {
+				kernels.add(out.data, 0, data, i * cols, cols);
+			}
+		} else {
+			for (int i = 0; i < rows; i++) {
+				out.data[i] = kernels.sum(data, i * cols, cols);
 			}
-			out.set(i, 0, s);
 		}
 	}
 }
@@ -0,0 +1,67 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.nio.ByteOrder;
+
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * allocates matrices in native memory outside of the java heap. everything allocated by an arena is freed at once when
+ * the arena is closed, after which using those matrices throws an IllegalStateException.<br>
+ * a confined arena can only be used from the thread that created it, so operations on its matrices always run on that
+ * thread. a shared arena can be used from any thread and its matrices can take part in parallel operations.<br>
+ * needs the jdk.incubator.foreign module (run with --add-modules jdk.incubator.foreign).
+ */
+public final class MatrixArena implements AutoCloseable {
+	private static final long ALIGNMENT = 64;
+
+	private final ResourceScope scope;
+	private final boolean confined;
+
+	private MatrixArena(ResourceScope scope, boolean confined) {
+		this.scope = scope;
+		this.confined = confined;
+	}
+
+	/**
+	 * @return a new arena that can only be used from the calling thread
+	 */
+	public static MatrixArena confined() {
+		checkAvailable();
+		return new MatrixArena(ResourceScope.newConfinedScope(), true);
+	}
+
+	/**
+	 * @return a new arena that can be used from any thread
+	 */
+	public static MatrixArena shared() {
+		checkAvailable();
+		return new MatrixArena(ResourceScope.newSharedScope(), false);
+	}
+
+	private static void checkAvailable() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.foreign").isEmpty()) {
+			throw new UnsupportedOperationException("Off heap matrices need --add-modules jdk.incubator.foreign.");
+		}
+	}
+
+	/**
+	 * allocates a rows x cols matrix filled with 0 that lives until this arena is closed
+	 *
+	 * @param rows
+	 * @param cols
+	 * @return the new matrix
+	 */
+	public Matrix allocate(int rows, int cols) {
+		MemorySegment segment = MemorySegment.allocateNative(4L * rows * cols, ALIGNMENT, scope);
+		return new Matrix(segment.asByteBuffer().order(ByteOrder.nativeOrder()).asFloatBuffer(), rows, cols, confined);
+	}
+
+	/**
+	 * frees all matrices allocated by this arena
+	 */
+	@Override
+	public void close() {
+		scope.close();
+	}
+}
@@ -0,0 +1,319 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.lang.management.ManagementFactory;
+
+import com.dubiouscandle.dubiousdl.MetricsListener.Pass;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * instrumentation of the hot paths of training and inference: the time of every pass over a layer, of every matrix
+ * product, of the optimizer update and of writing a batch, and the time and allocations of every step.<br>
+ * the measurements go to the {@link MetricsListener} set with {@link #setListener} and, while a flight recording is
+ * running, to JDK Flight Recorder as events named dubiousdl.Layer, dubiousdl.Multiply, dubiousdl.Update,
+ * dubiousdl.Batch and dubiousdl.Step. a recording started any way works, e.g. with -XX:StartFlightRecording or jcmd
+ * JFR.start.<br>
+ * with neither a listener nor a recording, every instrumented place only reads one volatile boolean, so the overhead
+ * is a load and a branch per layer, product or step, which is nothing next to the work they measure.
+ */
+public final class Metrics {
+	/**
+	 * what {@link #start} returns when nothing is listening
+	 */
+	private static final long OFF = Long.MIN_VALUE;
+
+	private static volatile MetricsListener listener;
+	/**
+	 * whether a flight recording is running
+	 */
+	private static volatile boolean recording;
+	/**
+	 * listener != null || recording, the only field the instrumented code reads when it is off
+	 */
+	private static volatile boolean enabled;
+
+	static {
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			@Override
+			public void recorderInitialized(FlightRecorder recorder) {
+				recordingStateChanged(null);
+			}
+
+			@Override
+			public void recordingStateChanged(Recording changed) {
+				boolean running = false;
+				for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+					running |= r.getState() == RecordingState.RUNNING;
+				}
+				setRecording(running);
+			}
+		});
+	}
+
+	private Metrics() {
+	}
+
+	/**
+	 * makes the measurements go to the inputed listener, replacing the one there was
+	 *
+	 * @param listener the listener, or null to remove it
+	 */
+	public static synchronized void setListener(MetricsListener listener) {
+		Metrics.listener = listener;
+		enabled = listener != null || recording;
+	}
+
+	private static synchronized void setRecording(boolean running) {
+		recording = running;
+		enabled = listener != null || running;
+	}
+
+	/**
+	 * @return the listener the measurements go to, or null if there is none
+	 */
+	public static MetricsListener listener() {
+		return listener;
+	}
+
+	/**
+	 * @return whether the measurements go anywhere
+	 */
+	public static boolean enabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the achieved GFLOP/s of an m x k times k x n product that took nanos, counting a multiply-add as two
+	 */
+	public static double gflops(int m, int n, int k, long nanos) {
+		return 2.0 * m * n * k / nanos;
+	}
+
+	/**
+	 * @return the time to pass to the method that ends the measurement, which does nothing if this is called while
+	 *         nothing is listening
+	 */
+	static long start() {
+		return enabled ? System.nanoTime() : OFF;
+	}
+
+	static void layer(int layer, Pass pass, long start) {
+		if (start == OFF) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		MetricsListener listener = Metrics.listener;
+		if (listener != null) {
+			listener.layer(layer, pass, nanos);
+		}
+		if (recording) {
+			LayerEvent event = new LayerEvent();
+			if (event.shouldCommit()) {
+				event.layer = layer;
+				event.pass = pass.name();
+				event.time = nanos;
+				event.commit();
+			}
+		}
+	}
+
+	static void multiply(int m, int n, int k, long start) {
+		if (start == OFF) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		MetricsListener listener = Metrics.listener;
+		if (listener != null) {
+			listener.multiply(m, n, k, nanos);
+		}
+		if (recording) {
+			MultiplyEvent event = new MultiplyEvent();
+			if (event.shouldCommit()) {
+				event.m = m;
+				event.n = n;
+				event.k = k;
+				event.time = nanos;
+				event.gflops = gflops(m, n, k, Math.max(nanos, 1));
+				event.commit();
+			}
+		}
+	}
+
+	static void update(long start) {
+		if (start == OFF) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		MetricsListener listener = Metrics.listener;
+		if (listener != null) {
+			listener.update(nanos);
+		}
+		if (recording) {
+			UpdateEvent event = new UpdateEvent();
+			if (event.shouldCommit()) {
+				event.time = nanos;
+				event.commit();
+			}
+		}
+	}
+
+	static void batch(int size, long start) {
+		if (start == OFF) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		MetricsListener listener = Metrics.listener;
+		if (listener != null) {
+			listener.batch(size, nanos);
+		}
+		if (recording) {
+			BatchEvent event = new BatchEvent();
+			if (event.shouldCommit()) {
+				event.size = size;
+				event.time = nanos;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * @return the bytes allocated so far by all live threads, to pass to {@link #step}, or 0 while nothing is listening
+	 */
+	static long allocated() {
+		return enabled ? Allocations.total() : 0;
+	}
+
+	/**
+	 * @param start     from {@link #start}
+	 * @param allocated from {@link #allocated}, taken right after start
+	 * @param loss
+	 */
+	static void step(long start, long allocated, float loss) {
+		if (start == OFF) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		// threads that ended during the step take their allocations with them
+		long bytes = Math.max(Allocations.total() - allocated, 0);
+		MetricsListener listener = Metrics.listener;
+		if (listener != null) {
+			listener.step(nanos, bytes, loss);
+		}
+		if (recording) {
+			StepEvent event = new StepEvent();
+			if (event.shouldCommit()) {
+				event.time = nanos;
+				event.allocated = bytes;
+				event.loss = loss;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * the per thread allocation counters of the jvm, in a class of their own so the management beans are only loaded
+	 * once something listens
+	 */
+	private static final class Allocations {
+		private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+
+		static long total() {
+			long sum = 0;
+			for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+				// -1 for threads that ended since their ids were read
+				sum += Math.max(bytes, 0);
+			}
+			return sum;
+		}
+	}
+
+	// the events are committed when the work is done, with how long it took in time rather than in the duration of
+	// the event, since the measurement may have started before the recording did
+
+	@Name("dubiousdl.Layer")
+	@Label("Layer")
+	@Category("dubiousdl")
+	@Description("A forward, backward or recomputing pass over one layer")
+	@StackTrace(false)
+	private static final class LayerEvent extends Event {
+		@Label("Layer")
+		int layer;
+		@Label("Pass")
+		String pass;
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+	}
+
+	@Name("dubiousdl.Multiply")
+	@Label("Matrix Multiply")
+	@Category("dubiousdl")
+	@Description("A matrix product of an m x k and a k x n matrix, for a sparse input n = 1 and k = its stored values")
+	@StackTrace(false)
+	private static final class MultiplyEvent extends Event {
+		@Label("M")
+		int m;
+		@Label("N")
+		int n;
+		@Label("K")
+		int k;
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+		@Label("GFLOP/s")
+		double gflops;
+	}
+
+	@Name("dubiousdl.Update")
+	@Label("Optimizer Update")
+	@Category("dubiousdl")
+	@Description("The update of all parameters in an optimizer step")
+	@StackTrace(false)
+	private static final class UpdateEvent extends Event {
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+	}
+
+	@Name("dubiousdl.Batch")
+	@Label("Batch")
+	@Category("dubiousdl")
+	@Description("Writing the input and targets of a batch")
+	@StackTrace(false)
+	private static final class BatchEvent extends Event {
+		@Label("Size")
+		int size;
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+	}
+
+	@Name("dubiousdl.Step")
+	@Label("Step")
+	@Category("dubiousdl")
+	@Description("An optimizer step")
+	@StackTrace(false)
+	private static final class StepEvent extends Event {
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+		@Label("Allocated")
+		@Description("Bytes allocated by all threads while the step ran")
+		@DataAmount
+		long allocated;
+		@Label("Loss")
+		float loss;
+	}
+}
@@ -0,0 +1,74 @@
+package com.dubiouscandle.dubiousdl;
+
+/**
+ * receives the measurements of the instrumented parts of training and inference, see {@link Metrics}. every method
+ * does nothing by default, so a listener only overrides what it wants.<br>
+ * the methods are called on whatever thread did the work, which can be several threads of the {@link ComputePool} at
+ * once, so they must be thread safe. they are called in the middle of a step and should return quickly.
+ */
+public interface MetricsListener {
+
+	/**
+	 * which pass over a layer was measured
+	 */
+	enum Pass {
+		FORWARD,
+		BACKWARD,
+		/**
+		 * the second forward pass over a layer when training with gradient checkpointing
+		 */
+		RECOMPUTE
+	}
+
+	/**
+	 * called after a pass over one layer, by {@link Model#forwardPropagate(Matrix, Matrix)}, {@link Model#predict} and
+	 * every worker of {@link Adam#step(Matrix, Matrix, float)}
+	 *
+	 * @param layer
+	 * @param pass
+	 * @param nanos how long the pass took
+	 */
+	default void layer(int layer, Pass pass, long nanos) {
+	}
+
+	/**
+	 * called after every matrix product, the ones of {@link Matrix#multiply(Matrix, Matrix, Matrix)} and the ones the
+	 * layers compute. the products of the first layer with a {@link SparseMatrix} input, forward and for the gradient of
+	 * its weights, only go through the stored values of the input, so they are reported with n = 1 and k = the number
+	 * of stored values, which keeps m * n * k the number of multiply-adds.
+	 *
+	 * @param m     the rows of the product
+	 * @param n     the columns of the product
+	 * @param k     the length of the dot products
+	 * @param nanos how long the product took, see {@link Metrics#gflops}
+	 */
+	default void multiply(int m, int n, int k, long nanos) {
+	}
+
+	/**
+	 * called after the optimizer has updated all parameters in a step
+	 *
+	 * @param nanos how long the update took
+	 */
+	default void update(long nanos) {
+	}
+
+	/**
+	 * called after a batch has been written by {@link Batch#next()} or a {@link BatchPipeline}
+	 *
+	 * @param size  the batch size
+	 * @param nanos how long it took
+	 */
+	default void batch(int size, long nanos) {
+	}
+
+	/**
+	 * called at the end of every {@link Adam} step
+	 *
+	 * @param nanos     how long the step took
+	 * @param allocated the bytes allocated by all threads of the process while the step ran
+	 * @param loss      the loss of the step, see {@link Adam#loss()}
+	 */
+	default void step(long nanos, long allocated, float loss) {
+	}
+}
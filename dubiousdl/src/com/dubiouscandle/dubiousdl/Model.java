@@ -2,6 +2,8 @@ package com.dubiouscandle.dubiousdl;
 
 import java.io.Serializable;
 
+import com.dubiouscandle.dubiousdl.MetricsListener.Pass;
+
 public class Model implements Serializable {
 	private static final long serialVersionUID = -990276425379370768L;
 	protected final int input_size;
@@ -16,13 +18,33 @@ public class Model implements Serializable {
 	protected final int[] n;
 	protected final ActivationFunction[] g;
 
+	/**
+	 * where the matrices of this model are allocated, or null for the heap
+	 */
+	protected final transient MatrixArena arena;
+
 	public Model(ActivationFunction[] g, int[] layerSizes, int m, Initializer initializer) {
+		this(g, layerSizes, m, initializer, null);
+	}
+
+	/**
+	 * creates a model whose weights and activations are all allocated in arena. an {@link Adam} optimizing this model
+	 * allocates its matrices there as well.
+	 * 
+	 * @param g
+	 * @param layerSizes
+	 * @param m
+	 * @param initializer
+	 * @param arena       the arena to allocate in, or null for the heap
+	 */
+	public Model(ActivationFunction[] g, int[] layerSizes, int m, Initializer initializer, MatrixArena arena) {
 		if (g.length + 1 != layerSizes.length) {
 			throw new IllegalArgumentException("Invalid activation functions length or layer sizes length.");
 		}
 
 		n = layerSizes.clone();
 
+		this.arena = arena;
 		this.m = m;
 		this.input_size = n[0];
 		this.output_size = n[n.length - 1];
@@ -36,15 +58,15 @@ public class Model implements Serializable {
 		W = new Matrix[L + 1];
 		b = new Matrix[L + 1];
 
-		a[0] = new Matrix(n[0], m);
-		z[0] = new Matrix(n[0], m);
-		b[0] = new Matrix(n[0], 1);
+		a[0] = allocate(n[0], m);
+		z[0] = allocate(n[0], m);
+		b[0] = allocate(n[0], 1);
 
 		for (int l = 1; l <= L; l++) {
-			a[l] = new Matrix(n[l], m);
-			z[l] = new Matrix(n[l], m);
-			W[l] = new Matrix(n[l], n[l - 1]);
-			b[l] = new Matrix(n[l], 1);
+			a[l] = allocate(n[l], m);
+			z[l] = allocate(n[l], m);
+			W[l] = allocate(n[l], n[l - 1]);
+			b[l] = allocate(n[l], 1);
 		}
 		initializeWeights(initializer);
 	}
@@ -53,13 +75,30 @@ public class Model implements Serializable {
 		for (int l = 1; l <= L; l++) {
 		    int fan_in  = W[l].cols();
 		    int fan_out = W[l].rows();
-		    for (int i = 0; i < W[l].data().length; i++) {
-		        W[l].data()[i] = initializer.get(fan_in, fan_out);
+		    for (int i = 0; i < W[l].size(); i++) {
+		        W[l].store(i, initializer.get(fan_in, fan_out));
 		    }
 		}
 	}
 
 	public Model(Model model, int m) {
+		this(model, m, false);
+	}
+
+	/**
+	 * creates a model with batch size m that uses the same weight and bias matrices as model instead of copies, so
+	 * training one of them trains both
+	 * 
+	 * @param model
+	 * @param m
+	 * @return a model sharing the parameters of model
+	 */
+	static Model sharingParameters(Model model, int m) {
+		return new Model(model, m, true);
+	}
+
+	private Model(Model model, int m, boolean share) {
+		this.arena = model.arena;
 		this.m = m;
 		this.input_size = model.input_size;
 		this.output_size = model.output_size;
@@ -73,22 +112,85 @@ public class Model implements Serializable {
 		b = new Matrix[L + 1];
 
 		int n0 = model.a[0].rows();
-		a[0] = new Matrix(n0, m);
-		z[0] = new Matrix(n0, m);
+		a[0] = allocate(n0, m);
+		z[0] = allocate(n0, m);
 		b[0] = null;
 		W[0] = null;
 
 		for (int l = 1; l <= L; l++) {
 			int n = model.a[l].rows();
-			a[l] = new Matrix(n, m);
-			z[l] = new Matrix(n, m);
-			W[l] = new Matrix(model.W[l]);
-			b[l] = new Matrix(model.b[l]);
+			a[l] = allocate(n, m);
+			z[l] = allocate(n, m);
+			if (share) {
+				W[l] = model.W[l];
+				b[l] = model.b[l];
+			} else {
+				W[l] = allocate(n, model.W[l].cols());
+				W[l].set(model.W[l]);
+				b[l] = allocate(n, 1);
+				b[l].set(model.b[l]);
+			}
 		}
 
 		this.g = model.g;
 	}
 
+	/**
+	 * creates a model around existing weight and bias matrices, indexed by layer, with the activations of a batch of m
+	 * allocated on the heap
+	 * 
+	 * @param g
+	 * @param layerSizes
+	 * @param m
+	 * @param W          W[l] is layerSizes[l] x layerSizes[l - 1], W[0] is ignored
+	 * @param b          b[l] is layerSizes[l] x 1, b[0] is ignored
+	 */
+	Model(ActivationFunction[] g, int[] layerSizes, int m, Matrix[] W, Matrix[] b) {
+		if (g.length + 1 != layerSizes.length || W.length != layerSizes.length || b.length != layerSizes.length) {
+			throw new IllegalArgumentException("Invalid activation functions length or layer sizes length.");
+		}
+
+		n = layerSizes.clone();
+
+		this.arena = null;
+		this.m = m;
+		this.input_size = n[0];
+		this.output_size = n[n.length - 1];
+		L = n.length - 1;
+
+		this.g = new ActivationFunction[L + 1];
+		System.arraycopy(g, 0, this.g, 1, g.length);
+
+		a = new Matrix[L + 1];
+		z = new Matrix[L + 1];
+		this.W = new Matrix[L + 1];
+		this.b = new Matrix[L + 1];
+
+		a[0] = new Matrix(n[0], m);
+		z[0] = new Matrix(n[0], m);
+
+		for (int l = 1; l <= L; l++) {
+			if (W[l].rows() != n[l] || W[l].cols() != n[l - 1] || b[l].rows() != n[l] || b[l].cols() != 1) {
+				throw new IllegalArgumentException("Invalid dimensions of layer " + l + ".");
+			}
+			a[l] = new Matrix(n[l], m);
+			z[l] = new Matrix(n[l], m);
+			this.W[l] = W[l];
+			this.b[l] = b[l];
+		}
+	}
+
+	/**
+	 * allocates a matrix in the arena of this model, or on the heap if it has none
+	 * 
+	 * @param rows
+	 * @param cols
+	 * @return a new rows x cols matrix filled with 0
+	 */
+	Matrix allocate(int rows, int cols) {
+		return arena == null ? new Matrix(rows, cols) : arena.allocate(rows, cols);
+	}
+
 	public void forwardPropagate(Matrix in, Matrix out) {
 		if (in.rows() != input_size || in.cols() != m) {
 			throw new IllegalArgumentException("Invalid input dimensions.");
@@ -106,14 +208,61 @@ public class Model implements Serializable {
 		out.set(a[L]);
 	}
 
+	/**
+	 * same as {@link #forwardPropagate(Matrix, Matrix)} for an input that is mostly zeros. the first layer only
+	 * multiplies the values of in that are stored, and a[0] isn't written.
+	 * 
+	 * @param in
+	 * @param out
+	 */
+	public void forwardPropagate(SparseMatrix in, Matrix out) {
+		if (in.rows() != input_size || in.cols() != m) {
+			throw new IllegalArgumentException("Invalid input dimensions.");
+		}
+		if (out.rows() != output_size || out.cols() != m) {
+			throw new IllegalArgumentException("Invalid output dimensions.");
+		}
+
+		long start = Metrics.start();
+		SparseGemm.dense(W[1], in, b[1], g[1], z[1], a[1]);
+		Metrics.layer(1, Pass.FORWARD, start);
+		for (int l = 2; l <= L; l++) {
+			computeForwardPropagationStep(l);
+		}
+
+		out.set(a[L]);
+	}
+
+	/**
+	 * computes the output of the model for in without keeping what training needs. z is never written and in and out are
+	 * used directly in place of the first and last activations, so a[0] and a[L] aren't touched either.
+	 * 
+	 * @param in  the input, must not be the same matrix as out
+	 * @param out
+	 */
+	public void predict(Matrix in, Matrix out) {
+		if (in.rows() != input_size || in.cols() != m) {
+			throw new IllegalArgumentException("Invalid input dimensions.");
+		}
+		if (out.rows() != output_size || out.cols() != m) {
+			throw new IllegalArgumentException("Invalid output dimensions.");
+		}
+
+		for (int l = 1; l <= L; l++) {
+			long start = Metrics.start();
+			Gemm.dense(W[l], l == 1 ? in : a[l - 1], b[l], g[l], null, l == L ? out : a[l]);
+			Metrics.layer(l, Pass.FORWARD, start);
+		}
+	}
+
 	/**
 	 * forward propagates into the next layer using the data from layer
 	 * 
 	 * @param layer
 	 */
 	private void computeForwardPropagationStep(int l) {
-		Matrix.multiply(W[l], a[l - 1], z[l]);
-		z[l].addBroadcasted(b[l]);
-		g[l].get(z[l].data(), a[l].data());
+		long start = Metrics.start();
+		Gemm.dense(W[l], a[l - 1], b[l], g[l], z[l], a[l]);
+		Metrics.layer(l, Pass.FORWARD, start);
 	}
 }
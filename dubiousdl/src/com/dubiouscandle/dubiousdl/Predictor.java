@@ -0,0 +1,87 @@
+package com.dubiouscandle.dubiousdl;
+
+/**
+ * runs a model forward on batches of any size up to a capacity, for inference only.<br>
+ * the weights and biases are shared with the model, not copied, so training the model changes what this predicts. the
+ * activations go back and forth between two buffers big enough for the widest hidden layer at full capacity, instead of
+ * the per layer a and z a model keeps for training.<br>
+ * a predictor can only be used by one thread at a time, see {@link FrozenModel} for concurrent inference.
+ */
+public class Predictor {
+	private final int capacity;
+	private final int input_size;
+	private final int output_size;
+	private final int L;
+
+	private final Matrix[] W;
+	private final Matrix[] b;
+	private final int[] n;
+	private final ActivationFunction[] g;
+
+	private final float[] ping;
+	private final float[] pong;
+
+	/**
+	 * @param model    the model to predict with
+	 * @param capacity the largest batch size predict accepts
+	 */
+	public Predictor(Model model, int capacity) {
+		this(model.W, model.b, model.n, model.g, capacity);
+	}
+
+	/**
+	 * creates a predictor for the layers given by the weights, biases, layer sizes and activation functions, indexed by
+	 * layer like in {@link Model}. the arrays are used as they are, not copied.
+	 */
+	Predictor(Matrix[] W, Matrix[] b, int[] n, ActivationFunction[] g, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+
+		this.capacity = capacity;
+		this.L = n.length - 1;
+		this.input_size = n[0];
+		this.output_size = n[L];
+		this.W = W;
+		this.b = b;
+		this.n = n;
+		this.g = g;
+
+		int width = 0;
+		for (int l = 1; l < L; l++) {
+			width = Math.max(width, n[l]);
+		}
+		ping = new float[width * capacity];
+		pong = L > 2 ? new float[width * capacity] : null;
+	}
+
+	/**
+	 * @return the largest batch size predict accepts
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * computes the output of the model for a batch of inputs, one per column
+	 *
+	 * @param in  input_size x batch for any batch from 1 up to the capacity
+	 * @param out output_size x batch
+	 */
+	public void predict(Matrix in, Matrix out) {
+		int batch = in.cols();
+		if (in.rows() != input_size || batch < 1 || batch > capacity) {
+			throw new IllegalArgumentException("Invalid input dimensions.");
+		}
+		if (out.rows() != output_size || out.cols() != batch) {
+			throw new IllegalArgumentException("Invalid output dimensions.");
+		}
+
+		Matrix x = in;
+		for (int l = 1; l <= L; l++) {
+			Matrix y = l == L ? out : new Matrix(l % 2 == 1 ? ping : pong, n[l], batch);
+			Gemm.dense(W[l], x, b[l], g[l], null, y);
+			x = y;
+		}
+	}
+}
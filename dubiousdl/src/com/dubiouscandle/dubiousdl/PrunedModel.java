@@ -0,0 +1,215 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * a model with pruned weights for inference, made by {@link Pruner#compress}.<br>
+ * the layers that are sparse enough keep only the weights that aren't zero, in compressed sparse rows, and multiply
+ * them with the dense activations: every weight of a row is fused into all samples of the input it multiplies, so
+ * the work of a layer is its number of weights times the batch size. the other layers stay dense matrices and go
+ * through the same matrix multiplication as a {@link Predictor}, since a dense product does more multiply-adds per
+ * second than the sparse one.<br>
+ * the weights are copied, so training the model afterwards doesn't change what this predicts. a pruned model can only
+ * be used by one thread at a time.
+ */
+public class PrunedModel {
+	/**
+	 * products with at least this many multiply-adds are split by rows across the {@link ComputePool}
+	 */
+	private static final int GRAIN = 1 << 16;
+
+	private final int capacity;
+	private final int input_size;
+	private final int output_size;
+	private final int L;
+
+	/**
+	 * W[l] is the weights of layer l if it is dense, null if it is compressed
+	 */
+	private final Matrix[] W;
+	/**
+	 * the compressed layers: the weights of row i of layer l are values[l][p] for p from start[l][i] up to
+	 * start[l][i + 1], in columns index[l][p]. null for dense layers.
+	 */
+	private final int[][] start;
+	private final int[][] index;
+	private final float[][] values;
+	private final Matrix[] b;
+	private final int[] n;
+	private final ActivationFunction[] g;
+
+	private final float[] ping;
+	private final float[] pong;
+	/**
+	 * the input and output of a batch, for when they aren't row major arrays
+	 */
+	private final float[] input;
+	private final float[] output;
+
+	/**
+	 * creates a pruned model from its layers, indexed by layer like in {@link Model}. a layer l is dense if W[l] isn't
+	 * null, otherwise it is given by start[l], index[l] and values[l]. the arrays are used as they are, not copied.
+	 */
+	PrunedModel(Matrix[] W, int[][] start, int[][] index, float[][] values, Matrix[] b, int[] n,
+			ActivationFunction[] g, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+
+		this.capacity = capacity;
+		this.L = n.length - 1;
+		this.input_size = n[0];
+		this.output_size = n[L];
+		this.W = W;
+		this.start = start;
+		this.index = index;
+		this.values = values;
+		this.b = b;
+		this.n = n;
+		this.g = g;
+
+		int width = 0;
+		for (int l = 1; l < L; l++) {
+			width = Math.max(width, n[l]);
+		}
+		ping = new float[width * capacity];
+		pong = L > 2 ? new float[width * capacity] : null;
+		input = new float[input_size * capacity];
+		output = new float[output_size * capacity];
+	}
+
+	/**
+	 * @return the largest batch size predict accepts
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of bytes the weights and biases take up, with a column index next to every weight of the
+	 *         compressed layers
+	 */
+	public long parameterBytes() {
+		long bytes = 0;
+		for (int l = 1; l <= L; l++) {
+			if (W[l] != null) {
+				bytes += 4L * W[l].size();
+			} else {
+				bytes += 4L * start[l].length + 8L * values[l].length;
+			}
+			bytes += 4L * n[l];
+		}
+		return bytes;
+	}
+
+	/**
+	 * @param l
+	 * @return whether layer l is stored compressed
+	 */
+	public boolean isSparse(int l) {
+		if (l < 1 || l > L) {
+			throw new IllegalArgumentException("Invalid layer.");
+		}
+		return W[l] == null;
+	}
+
+	/**
+	 * computes the output of the model for a batch of inputs, one per column
+	 *
+	 * @param in  input_size x batch for any batch from 1 up to the capacity
+	 * @param out output_size x batch
+	 */
+	public void predict(Matrix in, Matrix out) {
+		int batch = in.cols();
+		if (in.rows() != input_size || batch < 1 || batch > capacity) {
+			throw new IllegalArgumentException("Invalid input dimensions.");
+		}
+		if (out.rows() != output_size || out.cols() != batch) {
+			throw new IllegalArgumentException("Invalid output dimensions.");
+		}
+
+		Matrix x = in;
+		for (int l = 1; l <= L; l++) {
+			Matrix y = l == L ? out : new Matrix(l % 2 == 1 ? ping : pong, n[l], batch);
+			if (W[l] != null) {
+				Gemm.dense(W[l], x, b[l], g[l], null, y);
+			} else {
+				if (!x.hasArray() || x.transposed) {
+					x = copy(x, new Matrix(input, input_size, batch));
+				}
+				Matrix z = y.hasArray() && !y.transposed ? y : new Matrix(output, output_size, batch);
+				layer(l, x.data, batch, z.data);
+				z.addBroadcasted(b[l]);
+				g[l].get(z, z);
+				if (z != y) {
+					copy(z, y);
+				}
+			}
+			x = y;
+		}
+	}
+
+	/**
+	 * copies the values of from into to, whatever their layouts
+	 *
+	 * @return to
+	 */
+	private static Matrix copy(Matrix from, Matrix to) {
+		for (int i = 0; i < from.rows(); i++) {
+			for (int j = 0; j < from.cols(); j++) {
+				to.set(i, j, from.get(i, j));
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * y = W[l] x for a compressed layer, with x and y row major with batch columns
+	 */
+	private void layer(int l, float[] x, int batch, float[] y) {
+		ForkJoinPool pool = ComputePool.get();
+		if ((long) values[l].length * batch < 2 * GRAIN || pool.getParallelism() == 1) {
+			Kernels.INSTANCE.sparseGemm(start[l], index[l], values[l], 0, n[l], x, batch, y);
+		} else {
+			Rows task = new Rows(l, x, batch, y, 0, n[l]);
+			if (ForkJoinTask.getPool() == pool) {
+				task.invoke();
+			} else {
+				pool.invoke(task);
+			}
+		}
+	}
+
+	/**
+	 * computes a range of rows of a compressed layer, splitting it in half until it has no more than {@link #GRAIN}
+	 * multiply-adds
+	 */
+	private final class Rows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int l;
+		private final float[] x, y;
+		private final int batch, from, to;
+
+		Rows(int l, float[] x, int batch, float[] y, int from, int to) {
+			this.l = l;
+			this.x = x;
+			this.batch = batch;
+			this.y = y;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((long) (start[l][to] - start[l][from]) * batch <= GRAIN || to - from == 1) {
+				Kernels.INSTANCE.sparseGemm(start[l], index[l], values[l], from, to, x, batch, y);
+			} else {
+				int half = (from + to) / 2;
+				invokeAll(new Rows(l, x, batch, y, from, half), new Rows(l, x, batch, y, half, to));
+			}
+		}
+	}
+}
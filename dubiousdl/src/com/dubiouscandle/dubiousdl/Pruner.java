@@ -0,0 +1,168 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.Arrays;
+
+/**
+ * magnitude pruning of the weights of a model, and compressing a pruned model into a {@link PrunedModel}.<br>
+ * the weights with the smallest magnitudes of the whole model are set to 0, with one threshold for all layers rather
+ * than the same fraction of every layer, so layers whose weights are small lose more of them than the small output
+ * layers, which have few weights to lose. the biases are never pruned.<br>
+ * {@link #prune} prunes a trained model once. to prune while training, which lets the remaining weights make up for
+ * the pruned ones, call {@link Adam#prune} every so often with a sparsity that rises over the training, see
+ * {@link #sparsity(long, long, long, float)}.
+ */
+public final class Pruner {
+	/**
+	 * layers with a smaller fraction of their weights left than this are compressed, the others stay dense. the sparse
+	 * product does about 40% as many multiply-adds per second as the dense one at a batch of 64.
+	 */
+	static final float SPARSE_BELOW = 0.35f;
+
+	private Pruner() {
+	}
+
+	/**
+	 * sets the fraction sparsity of the weights of model with the smallest magnitudes to 0
+	 *
+	 * @param model
+	 * @param sparsity from 0 to 1
+	 */
+	public static void prune(Model model, float sparsity) {
+		Matrix[] masks = masks(model, sparsity);
+		for (int l = 1; l <= model.L; l++) {
+			Matrix.hadamardProduct(model.W[l], masks[l]);
+		}
+	}
+
+	/**
+	 * @return for every layer, a matrix of the dimension of its weights that is 0 where the weight is among the
+	 *         fraction sparsity of the weights of the model with the smallest magnitudes and 1 elsewhere. ties are
+	 *         pruned in order of layer, row and column.
+	 */
+	static Matrix[] masks(Model model, float sparsity) {
+		if (!(sparsity >= 0 && sparsity <= 1)) {
+			throw new IllegalArgumentException("Sparsity must be between 0 and 1.");
+		}
+
+		int total = 0;
+		for (int l = 1; l <= model.L; l++) {
+			total += model.W[l].size();
+		}
+		float[] magnitudes = new float[total];
+		int k = 0;
+		for (int l = 1; l <= model.L; l++) {
+			Matrix W = model.W[l];
+			for (int i = 0; i < W.rows(); i++) {
+				for (int j = 0; j < W.cols(); j++) {
+					magnitudes[k++] = Math.abs(W.get(i, j));
+				}
+			}
+		}
+		int pruned = Math.round(sparsity * total);
+		Arrays.sort(magnitudes);
+		float threshold = pruned == 0 ? -1 : magnitudes[pruned - 1];
+
+		// everything below the threshold is pruned, and as many weights at it as are needed to prune exactly pruned
+		int ties = pruned;
+		for (float magnitude : magnitudes) {
+			ties -= magnitude < threshold ? 1 : 0;
+		}
+
+		Matrix[] masks = new Matrix[model.L + 1];
+		for (int l = 1; l <= model.L; l++) {
+			Matrix W = model.W[l];
+			masks[l] = model.allocate(W.rows(), W.cols());
+			for (int i = 0; i < W.rows(); i++) {
+				for (int j = 0; j < W.cols(); j++) {
+					float magnitude = Math.abs(W.get(i, j));
+					boolean prune = magnitude < threshold || magnitude == threshold && ties-- > 0;
+					masks[l].set(i, j, prune ? 0 : 1);
+				}
+			}
+		}
+		return masks;
+	}
+
+	/**
+	 * @return the fraction of the weights of model that are 0
+	 */
+	public static float sparsity(Model model) {
+		long zeros = 0, total = 0;
+		for (int l = 1; l <= model.L; l++) {
+			Matrix W = model.W[l];
+			for (int i = 0; i < W.size(); i++) {
+				zeros += W.load(i) == 0 ? 1 : 0;
+			}
+			total += W.size();
+		}
+		return (float) zeros / total;
+	}
+
+	/**
+	 * the gradual pruning schedule of Zhu and Gupta: the sparsity rises from 0 at step begin to target at step end,
+	 * quickly at first while there are many redundant weights and slower towards the end, as target (1 - (1 - t)^3)
+	 * for t the fraction of the way from begin to end.
+	 *
+	 * @param step
+	 * @param begin
+	 * @param end
+	 * @param target
+	 * @return the sparsity to prune to at step
+	 */
+	public static float sparsity(long step, long begin, long end, float target) {
+		if (step <= begin) {
+			return 0;
+		}
+		if (step >= end) {
+			return target;
+		}
+		double left = 1 - (double) (step - begin) / (end - begin);
+		return (float) (target * (1 - left * left * left));
+	}
+
+	/**
+	 * compresses the layers of model that are mostly zeros, see {@link PrunedModel}
+	 *
+	 * @param model    a pruned model, which isn't changed
+	 * @param capacity the largest batch size the pruned model accepts
+	 * @return the pruned model
+	 */
+	public static PrunedModel compress(Model model, int capacity) {
+		int L = model.L;
+		Matrix[] W = new Matrix[L + 1];
+		int[][] start = new int[L + 1][];
+		int[][] index = new int[L + 1][];
+		float[][] values = new float[L + 1][];
+		Matrix[] b = new Matrix[L + 1];
+		for (int l = 1; l <= L; l++) {
+			Matrix w = model.W[l];
+			b[l] = new Matrix(model.b[l]);
+
+			int count = 0;
+			for (int i = 0; i < w.size(); i++) {
+				count += w.load(i) != 0 ? 1 : 0;
+			}
+			if (count >= SPARSE_BELOW * w.size()) {
+				W[l] = new Matrix(w);
+				continue;
+			}
+
+			start[l] = new int[w.rows() + 1];
+			index[l] = new int[count];
+			values[l] = new float[count];
+			int p = 0;
+			for (int i = 0; i < w.rows(); i++) {
+				for (int j = 0; j < w.cols(); j++) {
+					float value = w.get(i, j);
+					if (value != 0) {
+						index[l][p] = j;
+						values[l][p] = value;
+						p++;
+					}
+				}
+				start[l][i + 1] = p;
+			}
+		}
+		return new PrunedModel(W, start, index, values, b, model.n.clone(), model.g.clone(), capacity);
+	}
+}
@@ -0,0 +1,204 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * a model with int8 weights and activations for inference, made by {@link Quantizer#quantize}.<br>
+ * every row of weights has its own scale, the inputs of every layer one scale for the whole layer. a layer multiplies
+ * its int8 weights with its int8 inputs into int32 sums, then requantizes: each sum is scaled back, gets its float
+ * bias and goes through the activation function, and is rounded into the int8 input of the next layer. only the last
+ * layer is left as floats, so the output is the only thing dequantized.<br>
+ * a quantized model can only be used by one thread at a time.
+ */
+public class QuantizedModel {
+	/**
+	 * rows x cols products with at least this many weights are split across the {@link ComputePool}
+	 */
+	private static final int GRAIN = 1 << 16;
+
+	private final int capacity;
+	private final int input_size;
+	private final int output_size;
+	private final int L;
+
+	/**
+	 * W[l] is n[l] x n[l - 1] in row major order
+	 */
+	private final byte[][] W;
+	/**
+	 * scale[l][i] turns a sum of row i of W[l] back into a float: the scale of the row times the scale of the inputs
+	 */
+	private final float[][] scale;
+	private final float[][] b;
+	/**
+	 * inputScale[l] is the float value of a 1 in the inputs of layer l
+	 */
+	private final float[] inputScale;
+	private final int[] n;
+	private final ActivationFunction[] g;
+
+	/**
+	 * the int8 inputs of the current layer and the next one, one sample after the other
+	 */
+	private final byte[] ping;
+	private final byte[] pong;
+	private final int[] acc;
+	private final float[] z;
+	/**
+	 * one column of the input
+	 */
+	private final float[] column;
+
+	/**
+	 * creates a quantized model from its int8 weights and scales, indexed by layer like in {@link Model}. the arrays
+	 * are used as they are, not copied.
+	 */
+	QuantizedModel(byte[][] W, float[][] scale, float[][] b, float[] inputScale, int[] n, ActivationFunction[] g,
+			int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+
+		this.capacity = capacity;
+		this.L = n.length - 1;
+		this.input_size = n[0];
+		this.output_size = n[L];
+		this.W = W;
+		this.scale = scale;
+		this.b = b;
+		this.inputScale = inputScale;
+		this.n = n;
+		this.g = g;
+
+		int width = 0, widest = 0;
+		for (int l = 0; l <= L; l++) {
+			if (l < L) {
+				width = Math.max(width, n[l]);
+			}
+			widest = Math.max(widest, n[l]);
+		}
+		ping = new byte[width * capacity];
+		pong = new byte[width * capacity];
+		acc = new int[widest * capacity];
+		z = new float[widest * capacity];
+		column = new float[input_size];
+	}
+
+	/**
+	 * @return the largest batch size predict accepts
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of bytes the weights, biases and scales take up
+	 */
+	public long parameterBytes() {
+		long bytes = 4L * L;
+		for (int l = 1; l <= L; l++) {
+			bytes += W[l].length + 4L * b[l].length + 4L * scale[l].length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * computes the output of the model for a batch of inputs, one per column
+	 *
+	 * @param in  input_size x batch for any batch from 1 up to the capacity
+	 * @param out output_size x batch
+	 */
+	public void predict(Matrix in, Matrix out) {
+		int batch = in.cols();
+		if (in.rows() != input_size || batch < 1 || batch > capacity) {
+			throw new IllegalArgumentException("Invalid input dimensions.");
+		}
+		if (out.rows() != output_size || out.cols() != batch) {
+			throw new IllegalArgumentException("Invalid output dimensions.");
+		}
+
+		Kernels kernels = Kernels.INSTANCE;
+		float inverse = 1 / inputScale[1];
+		if (batch == 1 && in.hasArray() && !in.transposed) {
+			kernels.quantize(in.data, 0, inverse, ping, 0, input_size);
+		} else {
+			for (int j = 0; j < batch; j++) {
+				for (int k = 0; k < input_size; k++) {
+					column[k] = in.get(k, j);
+				}
+				kernels.quantize(column, 0, inverse, ping, j * input_size, input_size);
+			}
+		}
+
+		byte[] x = ping;
+		for (int l = 1; l <= L; l++) {
+			layer(l, x, batch);
+			if (l < L) {
+				byte[] y = x == ping ? pong : ping;
+				kernels.quantize(z, 0, 1 / inputScale[l + 1], y, 0, n[l] * batch);
+				x = y;
+			}
+		}
+
+		for (int i = 0; i < output_size; i++) {
+			for (int j = 0; j < batch; j++) {
+				out.set(i, j, z[j * output_size + i]);
+			}
+		}
+	}
+
+	/**
+	 * z = g(W[l] x + b[l]) for x and z holding one sample after the other
+	 */
+	private void layer(int l, byte[] x, int batch) {
+		int rows = n[l], cols = n[l - 1];
+		Kernels kernels = Kernels.INSTANCE;
+		ForkJoinPool pool = ComputePool.get();
+		if ((long) rows * cols < 2 * GRAIN || pool.getParallelism() == 1) {
+			kernels.gemmInt8(W[l], rows, cols, 0, rows, x, batch, acc);
+		} else {
+			Rows task = new Rows(l, x, batch, 0, rows);
+			if (ForkJoinTask.getPool() == pool) {
+				task.invoke();
+			} else {
+				pool.invoke(task);
+			}
+		}
+
+		for (int j = 0; j < batch; j++) {
+			kernels.dequantize(acc, j * rows, scale[l], b[l], z, rows);
+		}
+		kernels.activate(g[l], z, z, rows * batch);
+	}
+
+	/**
+	 * computes a range of rows of a layer, splitting it in half until it has no more than {@link #GRAIN} weights
+	 */
+	private final class Rows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int l;
+		private final byte[] x;
+		private final int batch, from, to;
+
+		Rows(int l, byte[] x, int batch, int from, int to) {
+			this.l = l;
+			this.x = x;
+			this.batch = batch;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((long) (to - from) * n[l - 1] <= GRAIN || to - from == 1) {
+				Kernels.INSTANCE.gemmInt8(W[l], n[l], n[l - 1], from, to, x, batch, acc);
+			} else {
+				int half = (from + to) / 2;
+				invokeAll(new Rows(l, x, batch, from, half), new Rows(l, x, batch, half, to));
+			}
+		}
+	}
+}
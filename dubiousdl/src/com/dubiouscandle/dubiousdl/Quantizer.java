@@ -0,0 +1,111 @@
+package com.dubiouscandle.dubiousdl;
+
+/**
+ * post training int8 quantization of a trained model into a {@link QuantizedModel}.<br>
+ * the weights are quantized symmetrically per row, with the largest magnitude of each row mapped to 127. the inputs
+ * of every layer are quantized the same way with one scale per layer, taken from the largest magnitude the layer sees
+ * while a calibration set of sample inputs is forward propagated through the float model.
+ */
+public final class Quantizer {
+	/**
+	 * the number of calibration samples forward propagated at once
+	 */
+	private static final int CHUNK = 64;
+
+	private Quantizer() {
+	}
+
+	/**
+	 * @param model       the trained model, which isn't changed
+	 * @param calibration input_size x samples, one representative input per column
+	 * @param capacity    the largest batch size the quantized model accepts
+	 * @return the quantized model
+	 */
+	public static QuantizedModel quantize(Model model, Matrix calibration, int capacity) {
+		int L = model.L;
+		int[] n = model.n.clone();
+		if (calibration.rows() != n[0] || calibration.cols() < 1) {
+			throw new IllegalArgumentException("Invalid calibration dimensions.");
+		}
+		for (int l = 0; l < L; l++) {
+			if (n[l] > Kernels.MAX_INT8_DOT) {
+				throw new IllegalArgumentException("Layer " + (l + 1) + " has too many inputs to quantize.");
+			}
+		}
+
+		float[] range = calibrate(model, calibration);
+		float[] inputScale = new float[L + 1];
+		for (int l = 1; l <= L; l++) {
+			inputScale[l] = scaleOf(range[l - 1]);
+		}
+
+		byte[][] W = new byte[L + 1][];
+		float[][] scale = new float[L + 1][];
+		float[][] b = new float[L + 1][];
+		for (int l = 1; l <= L; l++) {
+			int rows = n[l], cols = n[l - 1];
+			W[l] = new byte[rows * cols];
+			scale[l] = new float[rows];
+			b[l] = new float[rows];
+			for (int i = 0; i < rows; i++) {
+				float max = 0;
+				for (int k = 0; k < cols; k++) {
+					max = Math.max(max, Math.abs(model.W[l].get(i, k)));
+				}
+				float rowScale = scaleOf(max);
+				for (int k = 0; k < cols; k++) {
+					W[l][i * cols + k] = quantize(model.W[l].get(i, k) / rowScale);
+				}
+				scale[l][i] = rowScale * inputScale[l];
+				b[l][i] = model.b[l].get(i, 0);
+			}
+		}
+
+		return new QuantizedModel(W, scale, b, inputScale, n, model.g.clone(), capacity);
+	}
+
+	/**
+	 * forward propagates the calibration set through a model sharing the parameters of model, in chunks of
+	 * {@link #CHUNK} samples. a last chunk that isn't full is padded with its first sample, which doesn't change the
+	 * ranges.
+	 *
+	 * @return range[l] = the largest magnitude of a[l] for l up to L - 1
+	 */
+	private static float[] calibrate(Model model, Matrix calibration) {
+		int samples = calibration.cols();
+		int m = Math.min(samples, CHUNK);
+		Model calibrated = Model.sharingParameters(model, m);
+		Matrix in = new Matrix(model.input_size, m);
+		Matrix out = new Matrix(model.output_size, m);
+
+		float[] range = new float[model.L];
+		for (int start = 0; start < samples; start += m) {
+			for (int j = 0; j < m; j++) {
+				int column = start + j < samples ? start + j : start;
+				for (int i = 0; i < model.input_size; i++) {
+					in.set(i, j, calibration.get(i, column));
+				}
+			}
+
+			calibrated.forwardPropagate(in, out);
+			for (int l = 0; l < model.L; l++) {
+				Matrix a = calibrated.a[l];
+				for (int i = 0; i < a.size(); i++) {
+					range[l] = Math.max(range[l], Math.abs(a.load(i)));
+				}
+			}
+		}
+		return range;
+	}
+
+	/**
+	 * @return the scale that maps max to 127, or 1 for a max of 0 so that everything quantizes to 0
+	 */
+	private static float scaleOf(float max) {
+		return max > 0 ? max / 127 : 1;
+	}
+
+	private static byte quantize(float v) {
+		return (byte) Math.max(-127, Math.min(127, Math.round(v)));
+	}
+}
@@ -0,0 +1,203 @@
+package com.dubiouscandle.dubiousdl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * the products of a dense matrix with a {@link SparseMatrix} that the first layer of a model needs when its input is
+ * sparse: the forward product w * x and the weight gradient dz * x^T. both only go through the values of x that are
+ * stored, so they take rows of w times nonzeros of x multiply-adds instead of rows times columns of w times columns of
+ * x.<br>
+ * the rows of the result are independent, so products with enough work are split by rows across the
+ * {@link ComputePool}.<br>
+ * both are reported to {@link Metrics} as products with 1 column and the nonzeros of x as the length of the dot
+ * products, which gives their number of multiply-adds.
+ */
+final class SparseGemm {
+	/**
+	 * row ranges are split in half until they have no more than this many multiply-adds
+	 */
+	private static final int GRAIN = 1 << 16;
+
+	private SparseGemm() {
+	}
+
+	/**
+	 * computes out = g(w * x + bias) where bias is a column vector added to every column of the product. if z is not null
+	 * w * x + bias is stored in it as well. the dimensions should already have been checked.
+	 */
+	static void dense(Matrix w, SparseMatrix x, Matrix bias, ActivationFunction g, Matrix z, Matrix out) {
+		Matrix c = z != null ? z : out;
+		long start = Metrics.start();
+		run(new Rows(w, x, bias, c, false, 0, w.rows()), w.confined || bias.confined || c.confined || out.confined);
+		Metrics.multiply(w.rows(), 1, x.nonZeros(), start);
+		g.get(c, out);
+	}
+
+	/**
+	 * computes dW = dz * x^T, the gradient of the weights of a layer whose input is x. the columns of dW for rows x is
+	 * zero in for the whole batch are 0. the dimensions should already have been checked.
+	 */
+	static void gradient(Matrix dz, SparseMatrix x, Matrix dW) {
+		long start = Metrics.start();
+		run(new Rows(dz, x, null, dW, true, 0, dz.rows()), dz.confined || dW.confined);
+		Metrics.multiply(dz.rows(), 1, x.nonZeros(), start);
+	}
+
+	/**
+	 * @param confined whether one of the matrices can only be used from this thread, so the rows can't be split across
+	 *                 the pool
+	 */
+	private static void run(Rows rows, boolean confined) {
+		ForkJoinPool pool = ComputePool.get();
+		if (pool.getParallelism() == 1 || rows.work() <= GRAIN || confined) {
+			rows.serial();
+		} else if (ForkJoinTask.getPool() == pool) {
+			rows.invoke();
+		} else {
+			pool.invoke(rows);
+		}
+	}
+
+	/**
+	 * c = a * x + bias for rows from up to to of c, with a row major and not transposed. four rows are done per pass
+	 * over x, so they share the loads of its indices and values.
+	 */
+	private static void multiply(float[] a, int lda, SparseMatrix x, Matrix bias, float[] c, int from, int to) {
+		int[] colStart = x.colStart, rowIndex = x.rowIndex;
+		float[] values = x.values;
+		int cols = x.cols, first = x.first;
+		int i = from;
+		for (; i + 4 <= to; i += 4) {
+			float b0 = bias.get(i, 0), b1 = bias.get(i + 1, 0), b2 = bias.get(i + 2, 0), b3 = bias.get(i + 3, 0);
+			int row0 = i * lda, row1 = row0 + lda, row2 = row1 + lda, row3 = row2 + lda;
+			for (int j = 0; j < cols; j++) {
+				float sum0 = b0, sum1 = b1, sum2 = b2, sum3 = b3;
+				for (int p = colStart[first + j], end = colStart[first + j + 1]; p < end; p++) {
+					int k = rowIndex[p];
+					float v = values[p];
+					sum0 += a[row0 + k] * v;
+					sum1 += a[row1 + k] * v;
+					sum2 += a[row2 + k] * v;
+					sum3 += a[row3 + k] * v;
+				}
+				c[i * cols + j] = sum0;
+				c[(i + 1) * cols + j] = sum1;
+				c[(i + 2) * cols + j] = sum2;
+				c[(i + 3) * cols + j] = sum3;
+			}
+		}
+		for (; i < to; i++) {
+			float b = bias.get(i, 0);
+			int row = i * lda;
+			for (int j = 0; j < cols; j++) {
+				float sum = b;
+				for (int p = colStart[first + j], end = colStart[first + j + 1]; p < end; p++) {
+					sum += a[row + rowIndex[p]] * values[p];
+				}
+				c[i * cols + j] = sum;
+			}
+		}
+	}
+
+	/**
+	 * c = a * x^T for rows from up to to of c, with a and c row major and not transposed. this goes one row at a time,
+	 * unlike {@link #multiply}, because a row of a skips the columns it is zero in, which the rows of a gradient after a
+	 * relu often are, and four rows can only skip the columns all of them are zero in.
+	 */
+	private static void multiplyTransposed(float[] a, SparseMatrix x, float[] c, int ldc, int from, int to) {
+		int[] colStart = x.colStart, rowIndex = x.rowIndex;
+		float[] values = x.values;
+		int cols = x.cols, first = x.first;
+		for (int i = from; i < to; i++) {
+			int row = i * ldc;
+			for (int k = row; k < row + ldc; k++) {
+				c[k] = 0;
+			}
+			for (int j = 0; j < cols; j++) {
+				float d = a[i * cols + j];
+				if (d == 0) {
+					continue;
+				}
+				for (int p = colStart[first + j], end = colStart[first + j + 1]; p < end; p++) {
+					c[row + rowIndex[p]] += d * values[p];
+				}
+			}
+		}
+	}
+
+	/**
+	 * same as {@link #multiply} and {@link #multiplyTransposed} for matrices that aren't row major arrays
+	 */
+	private static void multiplyAny(Matrix a, SparseMatrix x, Matrix bias, Matrix c, boolean transposed, int from,
+			int to) {
+		for (int i = from; i < to; i++) {
+			for (int k = 0; k < c.cols(); k++) {
+				c.set(i, k, bias == null ? 0 : bias.get(i, 0));
+			}
+			for (int j = 0; j < x.cols; j++) {
+				for (int p = x.colStart[x.first + j]; p < x.colStart[x.first + j + 1]; p++) {
+					if (transposed) {
+						c.set(i, x.rowIndex[p], c.get(i, x.rowIndex[p]) + a.get(i, j) * x.values[p]);
+					} else {
+						c.set(i, j, c.get(i, j) + a.get(i, x.rowIndex[p]) * x.values[p]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * computes a range of rows of either product, splitting it in half until it has no more than {@link #GRAIN}
+	 * multiply-adds
+	 */
+	private static final class Rows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Matrix a, bias, c;
+		private final SparseMatrix x;
+		/**
+		 * whether this computes a * x^T instead of a * x + bias
+		 */
+		private final boolean transposed;
+		private final int from, to;
+
+		Rows(Matrix a, SparseMatrix x, Matrix bias, Matrix c, boolean transposed, int from, int to) {
+			this.a = a;
+			this.x = x;
+			this.bias = bias;
+			this.c = c;
+			this.transposed = transposed;
+			this.from = from;
+			this.to = to;
+		}
+
+		long work() {
+			return (long) (to - from) * Math.max(x.nonZeros(), x.cols);
+		}
+
+		@Override
+		protected void compute() {
+			if (work() > GRAIN && to - from > 1 && ForkJoinTask.inForkJoinPool()) {
+				int half = (from + to) / 2;
+				invokeAll(new Rows(a, x, bias, c, transposed, from, half), new Rows(a, x, bias, c, transposed, half, to));
+			} else {
+				serial();
+			}
+		}
+
+		/**
+		 * computes all rows on the calling thread
+		 */
+		void serial() {
+			if (!a.hasArray() || a.transposed || !c.hasArray() || c.transposed) {
+				multiplyAny(a, x, bias, c, transposed, from, to);
+			} else if (transposed) {
+				multiplyTransposed(a.data, x, c.data, c.cols, from, to);
+			} else {
+				multiply(a.data, a.cols, x, bias, c.data, from, to);
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.dubiouscandle.dubiousdl;
+
+/**
+ * a sparse matrix in compressed sparse column (CSC) format, for inputs that are mostly zeros. a batch has one sample
+ * per column, so every sample is a list of the rows it isn't zero in and their values.<br>
+ * {@link Model#forwardPropagate(SparseMatrix, Matrix)} and {@link Adam#step(SparseMatrix, int[], float)} take a sparse
+ * input and only do the work of the first layer for the values that aren't zero, see {@link SparseGemm}.<br>
+ * the arrays are used as they are, not copied, so changing them changes the matrix.
+ */
+public class SparseMatrix {
+	final int rows, cols;
+	/**
+	 * the values of column j are at colStart[first + j] up to colStart[first + j + 1] in rowIndex and values
+	 */
+	final int[] colStart;
+	final int first;
+	final int[] rowIndex;
+	final float[] values;
+
+	/**
+	 * creates a rows x cols sparse matrix from its compressed columns
+	 *
+	 * @param rows
+	 * @param cols
+	 * @param colStart cols + 1 offsets into rowIndex and values, starting at 0, where each column starts and the last
+	 *                 one ends
+	 * @param rowIndex the row of every stored value
+	 * @param values   the stored values
+	 */
+	public SparseMatrix(int rows, int cols, int[] colStart, int[] rowIndex, float[] values) {
+		if (rows < 0 || cols < 0 || colStart.length != cols + 1 || colStart[0] != 0) {
+			throw new IllegalArgumentException("Invalid column starts.");
+		}
+		if (rowIndex.length != values.length || colStart[cols] > values.length) {
+			throw new IllegalArgumentException("Row indices and values do not match the column starts.");
+		}
+		for (int j = 0; j < cols; j++) {
+			if (colStart[j] > colStart[j + 1]) {
+				throw new IllegalArgumentException("Column starts must not decrease.");
+			}
+		}
+		for (int p = 0; p < colStart[cols]; p++) {
+			if (rowIndex[p] < 0 || rowIndex[p] >= rows) {
+				throw new IllegalArgumentException("Row index " + rowIndex[p] + " out of bounds for " + rows + " rows.");
+			}
+		}
+
+		this.rows = rows;
+		this.cols = cols;
+		this.colStart = colStart;
+		this.first = 0;
+		this.rowIndex = rowIndex;
+		this.values = values;
+	}
+
+	/**
+	 * creates a view of columns first up to first + cols of the compressed columns, without checking them
+	 */
+	private SparseMatrix(int rows, int cols, int[] colStart, int first, int[] rowIndex, float[] values) {
+		this.rows = rows;
+		this.cols = cols;
+		this.colStart = colStart;
+		this.first = first;
+		this.rowIndex = rowIndex;
+		this.values = values;
+	}
+
+	/**
+	 * @param matrix
+	 * @return a sparse matrix with the values of matrix that aren't zero
+	 */
+	public static SparseMatrix of(Matrix matrix) {
+		int count = 0;
+		for (int i = 0; i < matrix.rows(); i++) {
+			for (int j = 0; j < matrix.cols(); j++) {
+				count += matrix.get(i, j) != 0 ? 1 : 0;
+			}
+		}
+
+		int[] colStart = new int[matrix.cols() + 1];
+		int[] rowIndex = new int[count];
+		float[] values = new float[count];
+		int p = 0;
+		for (int j = 0; j < matrix.cols(); j++) {
+			for (int i = 0; i < matrix.rows(); i++) {
+				float value = matrix.get(i, j);
+				if (value != 0) {
+					rowIndex[p] = i;
+					values[p] = value;
+					p++;
+				}
+			}
+			colStart[j + 1] = p;
+		}
+		return new SparseMatrix(matrix.rows(), matrix.cols(), colStart, rowIndex, values);
+	}
+
+	/**
+	 * @return the number of rows in this matrix
+	 */
+	public int rows() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of cols in this matrix
+	 */
+	public int cols() {
+		return cols;
+	}
+
+	/**
+	 * @return the number of stored values
+	 */
+	public int nonZeros() {
+		return colStart[first + cols] - colStart[first];
+	}
+
+	/**
+	 * @param i
+	 * @param j
+	 * @return the value at row i and column j, the sum of the stored values there if there are several
+	 */
+	public float get(int i, int j) {
+		if (i < 0 || i >= rows || j < 0 || j >= cols) {
+			throw new IndexOutOfBoundsException("Index (" + i + ", " + j + ") out of bounds for size (" + rows + ", "
+					+ cols + ").");
+		}
+		float value = 0;
+		for (int p = colStart[first + j]; p < colStart[first + j + 1]; p++) {
+			if (rowIndex[p] == i) {
+				value += values[p];
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @return a dense copy of this matrix
+	 */
+	public Matrix toMatrix() {
+		Matrix matrix = new Matrix(rows, cols);
+		for (int j = 0; j < cols; j++) {
+			for (int p = colStart[first + j]; p < colStart[first + j + 1]; p++) {
+				matrix.set(rowIndex[p], j, matrix.get(rowIndex[p], j) + values[p]);
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * @return a view of count columns of this matrix starting at from, sharing its arrays
+	 */
+	SparseMatrix columns(int from, int count) {
+		return new SparseMatrix(rows, count, colStart, first + from, rowIndex, values);
+	}
+}
@@ -0,0 +1,846 @@
+package com.dubiouscandle.dubiousdl;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernels} on top of the jdk.incubator.vector api, using the widest float vectors the cpu supports (8 lanes
+ * with avx2, 16 with avx-512).<br>
+ * only loaded by {@link Kernels#INSTANCE} when the module is present, so nothing else may refer to this class.
+ */
+final class VectorKernels extends Kernels {
+	private static final VectorSpecies<Float> S = FloatVector.SPECIES_PREFERRED;
+	private static final int L = S.length();
+	// as many ints and shorts as S has floats
+	private static final VectorSpecies<Integer> IS = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Short> SS = VectorSpecies.of(short.class,
+			VectorShape.forBitSize(S.vectorBitSize() / 2));
+	// as many bytes, which needs at least 64 bit byte vectors, so float vectors of 256 bits or more
+	private static final boolean INT8 = S.vectorBitSize() >= 256;
+	private static final VectorSpecies<Byte> BS = INT8
+			? VectorSpecies.of(byte.class, VectorShape.forBitSize(S.vectorBitSize() / 4))
+			: null;
+
+	private static final int MR = 6;
+	private static final int NR = 2 * L;
+
+	@Override
+	int mr() {
+		return MR;
+	}
+
+	@Override
+	int nr() {
+		return NR;
+	}
+
+	/**
+	 * 6 x 2 vectors of accumulators, each step broadcasts one value of a and fuses it into two vectors of b
+	 */
+	@Override
+	void microKernel(int kc, float[] ap, int ao, float[] bp, int bo, float[] tile) {
+		FloatVector c00 = FloatVector.zero(S), c01 = FloatVector.zero(S);
+		FloatVector c10 = FloatVector.zero(S), c11 = FloatVector.zero(S);
+		FloatVector c20 = FloatVector.zero(S), c21 = FloatVector.zero(S);
+		FloatVector c30 = FloatVector.zero(S), c31 = FloatVector.zero(S);
+		FloatVector c40 = FloatVector.zero(S), c41 = FloatVector.zero(S);
+		FloatVector c50 = FloatVector.zero(S), c51 = FloatVector.zero(S);
+
+		for (int p = 0; p < kc; p++) {
+			FloatVector b0 = FloatVector.fromArray(S, bp, bo);
+			FloatVector b1 = FloatVector.fromArray(S, bp, bo + L);
+			FloatVector a;
+
+			a = FloatVector.broadcast(S, ap[ao]);
+			c00 = a.fma(b0, c00);
+			c01 = a.fma(b1, c01);
+			a = FloatVector.broadcast(S, ap[ao + 1]);
+			c10 = a.fma(b0, c10);
+			c11 = a.fma(b1, c11);
+			a = FloatVector.broadcast(S, ap[ao + 2]);
+			c20 = a.fma(b0, c20);
+			c21 = a.fma(b1, c21);
+			a = FloatVector.broadcast(S, ap[ao + 3]);
+			c30 = a.fma(b0, c30);
+			c31 = a.fma(b1, c31);
+			a = FloatVector.broadcast(S, ap[ao + 4]);
+			c40 = a.fma(b0, c40);
+			c41 = a.fma(b1, c41);
+			a = FloatVector.broadcast(S, ap[ao + 5]);
+			c50 = a.fma(b0, c50);
+			c51 = a.fma(b1, c51);
+
+			ao += MR;
+			bo += NR;
+		}
+
+		c00.intoArray(tile, 0);
+		c01.intoArray(tile, L);
+		c10.intoArray(tile, NR);
+		c11.intoArray(tile, NR + L);
+		c20.intoArray(tile, 2 * NR);
+		c21.intoArray(tile, 2 * NR + L);
+		c30.intoArray(tile, 3 * NR);
+		c31.intoArray(tile, 3 * NR + L);
+		c40.intoArray(tile, 4 * NR);
+		c41.intoArray(tile, 4 * NR + L);
+		c50.intoArray(tile, 5 * NR);
+		c51.intoArray(tile, 5 * NR + L);
+	}
+
+	@Override
+	void multiply(float[] x, int off, int len, float multiplier) {
+		int i = 0;
+		for (int bound = S.loopBound(len); i < bound; i += L) {
+			FloatVector.fromArray(S, x, off + i).mul(multiplier).intoArray(x, off + i);
+		}
+		for (; i < len; i++) {
+			x[off + i] *= multiplier;
+		}
+	}
+
+	@Override
+	void add(float[] x, int off, int len, float addend) {
+		int i = 0;
+		for (int bound = S.loopBound(len); i < bound; i += L) {
+			FloatVector.fromArray(S, x, off + i).add(addend).intoArray(x, off + i);
+		}
+		for (; i < len; i++) {
+			x[off + i] += addend;
+		}
+	}
+
+	@Override
+	void add(float[] x, int xOff, float[] y, int yOff, int len) {
+		int i = 0;
+		for (int bound = S.loopBound(len); i < bound; i += L) {
+			FloatVector.fromArray(S, x, xOff + i).add(FloatVector.fromArray(S, y, yOff + i)).intoArray(x, xOff + i);
+		}
+		for (; i < len; i++) {
+			x[xOff + i] += y[yOff + i];
+		}
+	}
+
+	@Override
+	void multiply(float[] x, int xOff, float[] y, int yOff, int len) {
+		int i = 0;
+		for (int bound = S.loopBound(len); i < bound; i += L) {
+			FloatVector.fromArray(S, x, xOff + i).mul(FloatVector.fromArray(S, y, yOff + i)).intoArray(x, xOff + i);
+		}
+		for (; i < len; i++) {
+			x[xOff + i] *= y[yOff + i];
+		}
+	}
+
+	@Override
+	float sum(float[] x, int off, int len) {
+		FloatVector sum = FloatVector.zero(S);
+		int i = 0;
+		for (int bound = S.loopBound(len); i < bound; i += L) {
+			sum = sum.add(FloatVector.fromArray(S, x, off + i));
+		}
+		float s = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < len; i++) {
+			s += x[off + i];
+		}
+		return s;
+	}
+
+	/**
+	 * the same lanewise operations in the same order as the scalar loop. the vector sqrt is correctly rounded just like
+	 * the float cast of Math.sqrt, and nothing is fused into an fma, so the result is identical.
+	 */
+	@Override
+	void adam(float[] param, float[] m, float[] v, float[] d, int off, int len, float scale, float b1, float b2,
+			float c1, float c2, float alpha, float epsilon) {
+		float b1c = 1 - b1, b2c = 1 - b2;
+		int i = 0;
+		for (int bound = S.loopBound(len); i < bound; i += L) {
+			int j = off + i;
+			FloatVector g = FloatVector.fromArray(S, d, j).mul(scale);
+			FloatVector mi = FloatVector.fromArray(S, m, j).mul(b1).add(g.mul(b1c));
+			FloatVector vi = FloatVector.fromArray(S, v, j).mul(b2).add(g.mul(b2c).mul(g));
+
+			FloatVector step = mi.div(c1).mul(alpha).div(vi.div(c2).add(epsilon).lanewise(VectorOperators.SQRT));
+			FloatVector.fromArray(S, param, j).sub(step).intoArray(param, j);
+
+			mi.intoArray(m, j);
+			vi.intoArray(v, j);
+		}
+		super.adam(param, m, v, d, off + i, len - i, scale, b1, b2, c1, c2, alpha, epsilon);
+	}
+
+	/**
+	 * the built in activation functions are computed a vector at a time, anything else falls back to the scalar loop
+	 */
+	@Override
+	void activate(ActivationFunction g, float[] x, float[] out, int len) {
+		if (len < L) {
+			super.activate(g, x, out, len);
+			return;
+		}
+
+		int bound = S.loopBound(len);
+		int i = 0;
+		if (g == ActivationFunction.IDENTITY) {
+			System.arraycopy(x, 0, out, 0, len);
+			return;
+		} else if (g == ActivationFunction.RELU) {
+			for (; i < bound; i += L) {
+				FloatVector v = FloatVector.fromArray(S, x, i);
+				v.blend(0, v.compare(VectorOperators.LE, 0)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.LEAKY_RELU) {
+			for (; i < bound; i += L) {
+				FloatVector v = FloatVector.fromArray(S, x, i);
+				v.blend(v.mul(0.01f), v.compare(VectorOperators.LE, 0)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SIGMOID) {
+			for (; i < bound; i += L) {
+				sigmoid(FloatVector.fromArray(S, x, i)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.TANH) {
+			for (; i < bound; i += L) {
+				FloatVector.fromArray(S, x, i).lanewise(VectorOperators.TANH).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SOFT_PLUS && !FastMath.ENABLED) {
+			for (; i < bound; i += L) {
+				// max(x, 0) + log(1 + e^-|x|) so large inputs don't overflow the float exp
+				FloatVector v = FloatVector.fromArray(S, x, i);
+				v.max(0).add(v.abs().neg().lanewise(VectorOperators.EXP).lanewise(VectorOperators.LOG1P)).intoArray(out,
+						i);
+			}
+		} else if (g == ActivationFunction.ELU) {
+			for (; i < bound; i += L) {
+				FloatVector v = FloatVector.fromArray(S, x, i);
+				v.blend(v.lanewise(VectorOperators.EXPM1), v.compare(VectorOperators.LE, 0)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SWISH) {
+			for (; i < bound; i += L) {
+				FloatVector v = FloatVector.fromArray(S, x, i);
+				v.mul(sigmoid(v)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SIN) {
+			for (; i < bound; i += L) {
+				FloatVector.fromArray(S, x, i).lanewise(VectorOperators.SIN).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SOFT_PLUS) {
+			// last, so that inlining it doesn't use up what the jit inlines into the branches above
+			fastSoftPlus(x, out, bound);
+			i = bound;
+		}
+
+		for (; i < len; i++) {
+			out[i] = g.getImpl(x[i]);
+		}
+	}
+
+	@Override
+	void derive(ActivationFunction g, float[] x, float[] out, int len) {
+		if (len < L) {
+			super.derive(g, x, out, len);
+			return;
+		}
+
+		int bound = S.loopBound(len);
+		int i = 0;
+		if (g == ActivationFunction.IDENTITY) {
+			for (; i < bound; i += L) {
+				FloatVector.broadcast(S, 1).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.RELU) {
+			for (; i < bound; i += L) {
+				VectorMask<Float> negative = FloatVector.fromArray(S, x, i).compare(VectorOperators.LE, 0);
+				FloatVector.broadcast(S, 1).blend(0, negative).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.LEAKY_RELU) {
+			for (; i < bound; i += L) {
+				VectorMask<Float> negative = FloatVector.fromArray(S, x, i).compare(VectorOperators.LE, 0);
+				FloatVector.broadcast(S, 1).blend(0.01f, negative).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SIGMOID) {
+			for (; i < bound; i += L) {
+				FloatVector s = sigmoid(FloatVector.fromArray(S, x, i));
+				s.mul(s.neg().add(1)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.TANH) {
+			for (; i < bound; i += L) {
+				FloatVector t = FloatVector.fromArray(S, x, i).lanewise(VectorOperators.TANH);
+				t.mul(t).neg().add(1).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SOFT_PLUS) {
+			for (; i < bound; i += L) {
+				sigmoid(FloatVector.fromArray(S, x, i)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.ELU) {
+			for (; i < bound; i += L) {
+				FloatVector v = FloatVector.fromArray(S, x, i);
+				FloatVector.broadcast(S, 1).blend(v.lanewise(VectorOperators.EXP), v.compare(VectorOperators.LE, 0))
+						.intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SWISH && !FastMath.ENABLED) {
+			for (; i < bound; i += L) {
+				FloatVector v = FloatVector.fromArray(S, x, i);
+				FloatVector s = sigmoid(v);
+				s.mul(v.mul(s.neg().add(1)).add(1)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SIN) {
+			for (; i < bound; i += L) {
+				FloatVector.fromArray(S, x, i).lanewise(VectorOperators.COS).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SWISH) {
+			fastSwishDerivative(x, out, bound);
+			i = bound;
+		}
+
+		for (; i < len; i++) {
+			out[i] = g.derivImpl(x[i]);
+		}
+	}
+
+	/**
+	 * like {@link #derive}, with the derivatives of sigmoid, tanh and elu computed from a without an exp
+	 */
+	@Override
+	void backward(ActivationFunction g, float[] z, float[] a, float[] da, float[] out, int len) {
+		if (len < L) {
+			super.backward(g, z, a, da, out, len);
+			return;
+		}
+
+		int bound = S.loopBound(len);
+		int i = 0;
+		if (g == ActivationFunction.IDENTITY) {
+			if (da != out) {
+				System.arraycopy(da, 0, out, 0, len);
+			}
+			return;
+		} else if (g == ActivationFunction.RELU) {
+			for (; i < bound; i += L) {
+				VectorMask<Float> negative = FloatVector.fromArray(S, z, i).compare(VectorOperators.LE, 0);
+				FloatVector.fromArray(S, da, i).blend(0, negative).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.LEAKY_RELU) {
+			for (; i < bound; i += L) {
+				VectorMask<Float> negative = FloatVector.fromArray(S, z, i).compare(VectorOperators.LE, 0);
+				FloatVector d = FloatVector.fromArray(S, da, i);
+				d.blend(d.mul(0.01f), negative).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SIGMOID) {
+			for (; i < bound; i += L) {
+				FloatVector s = FloatVector.fromArray(S, a, i);
+				s.mul(s.neg().add(1)).mul(FloatVector.fromArray(S, da, i)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.TANH) {
+			for (; i < bound; i += L) {
+				FloatVector t = FloatVector.fromArray(S, a, i);
+				t.mul(t).neg().add(1).mul(FloatVector.fromArray(S, da, i)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SOFT_PLUS) {
+			for (; i < bound; i += L) {
+				sigmoid(FloatVector.fromArray(S, z, i)).mul(FloatVector.fromArray(S, da, i)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.ELU) {
+			for (; i < bound; i += L) {
+				VectorMask<Float> negative = FloatVector.fromArray(S, z, i).compare(VectorOperators.LE, 0);
+				FloatVector d = FloatVector.fromArray(S, da, i);
+				d.blend(FloatVector.fromArray(S, a, i).add(1).mul(d), negative).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SWISH && !FastMath.ENABLED) {
+			for (; i < bound; i += L) {
+				FloatVector v = FloatVector.fromArray(S, z, i);
+				FloatVector s = sigmoid(v);
+				s.mul(v.mul(s.neg().add(1)).add(1)).mul(FloatVector.fromArray(S, da, i)).intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SIN) {
+			for (; i < bound; i += L) {
+				FloatVector.fromArray(S, z, i).lanewise(VectorOperators.COS).mul(FloatVector.fromArray(S, da, i))
+						.intoArray(out, i);
+			}
+		} else if (g == ActivationFunction.SWISH) {
+			fastSwishBackward(z, da, out, bound);
+			i = bound;
+		}
+
+		for (; i < len; i++) {
+			out[i] = da[i] * g.derivImpl(z[i], a[i]);
+		}
+	}
+
+	/**
+	 * the same passes as the scalar kernel, a vector of columns at a time. the vector exp is not the one of Math.exp,
+	 * so the results differ in the last bits.
+	 */
+	@Override
+	float softmaxCrossEntropy(float[] output, float[] target, int[] labels, float[] error, int rows, int cols,
+			float[] scratch) {
+		int max = 0, sum = cols, loss = 2 * cols;
+		int bound = S.loopBound(cols);
+		for (int j = 0; j < cols; j++) {
+			scratch[max + j] = Float.NEGATIVE_INFINITY;
+			scratch[sum + j] = 0;
+			scratch[loss + j] = 0;
+		}
+
+		for (int i = 0; i < rows; i++) {
+			int row = i * cols, j = 0;
+			for (; j < bound; j += L) {
+				FloatVector.fromArray(S, scratch, max + j).max(FloatVector.fromArray(S, output, row + j))
+						.intoArray(scratch, max + j);
+			}
+			for (; j < cols; j++) {
+				scratch[max + j] = Math.max(scratch[max + j], output[row + j]);
+			}
+		}
+
+		for (int i = 0; i < rows; i++) {
+			int row = i * cols, j = 0;
+			for (; j < bound; j += L) {
+				FloatVector e = FloatVector.fromArray(S, output, row + j).sub(FloatVector.fromArray(S, scratch, max + j))
+						.lanewise(VectorOperators.EXP);
+				FloatVector.fromArray(S, scratch, sum + j).add(e).intoArray(scratch, sum + j);
+				if (error != null) {
+					e.intoArray(error, row + j);
+				}
+			}
+			for (; j < cols; j++) {
+				float e = (float) Math.exp(output[row + j] - scratch[max + j]);
+				scratch[sum + j] += e;
+				if (error != null) {
+					error[row + j] = e;
+				}
+			}
+		}
+
+		if (error != null) {
+			for (int i = 0; i < rows; i++) {
+				int row = i * cols, j = 0;
+				for (; j < bound; j += L) {
+					FloatVector p = FloatVector.fromArray(S, error, row + j).div(FloatVector.fromArray(S, scratch, sum + j));
+					if (target == null) {
+						p.intoArray(error, row + j);
+						continue;
+					}
+
+					FloatVector t = FloatVector.fromArray(S, target, row + j);
+					p.sub(t).intoArray(error, row + j);
+					VectorMask<Float> hot = t.compare(VectorOperators.EQ, 1);
+					if (hot.anyTrue()) {
+						for (int k = 0; k < L; k++) {
+							if (hot.laneIsSet(k)) {
+								scratch[loss + j + k] -= Math.log(p.lane(k));
+							}
+						}
+					}
+				}
+				for (; j < cols; j++) {
+					float p = error[row + j] / scratch[sum + j];
+					if (target == null) {
+						error[row + j] = p;
+					} else {
+						error[row + j] = p - target[row + j];
+						if (target[row + j] == 1) {
+							scratch[loss + j] -= Math.log(p);
+						}
+					}
+				}
+			}
+
+			if (target == null) {
+				for (int j = 0; j < cols; j++) {
+					int k = labels[j] * cols + j;
+					scratch[loss + j] -= Math.log(error[k]);
+					error[k] -= 1;
+				}
+			}
+		} else if (target == null) {
+			for (int j = 0; j < cols; j++) {
+				float p = (float) Math.exp(output[labels[j] * cols + j] - scratch[max + j]) / scratch[sum + j];
+				scratch[loss + j] -= Math.log(p);
+			}
+		} else {
+			for (int k = 0; k < rows * cols; k++) {
+				if (target[k] == 1) {
+					int j = k % cols;
+					float p = (float) Math.exp(output[k] - scratch[max + j]) / scratch[sum + j];
+					scratch[loss + j] -= Math.log(p);
+				}
+			}
+		}
+
+		float total = 0;
+		for (int j = 0; j < cols; j++) {
+			total += scratch[loss + j];
+		}
+		return total;
+	}
+
+	@Override
+	float dotHalf(short[] w, int wOff, boolean bf16, float[] x, int xOff, int len) {
+		FloatVector sum = FloatVector.zero(S);
+		int k = 0;
+		for (int bound = S.loopBound(len); k < bound; k += L) {
+			sum = decode(w, wOff + k, bf16).fma(FloatVector.fromArray(S, x, xOff + k), sum);
+		}
+		return sum.reduceLanes(VectorOperators.ADD) + super.dotHalf(w, wOff + k, bf16, x, xOff + k, len - k);
+	}
+
+	@Override
+	void decodeHalf(short[] w, int wOff, boolean bf16, float[] out, int outOff, int len) {
+		int k = 0;
+		for (int bound = S.loopBound(len); k < bound; k += L) {
+			decode(w, wOff + k, bf16).intoArray(out, outOff + k);
+		}
+		super.decodeHalf(w, wOff + k, bf16, out, outOff + k, len - k);
+	}
+
+	/**
+	 * two sums, so consecutive fmas don't wait for each other
+	 */
+	@Override
+	float dot(float[] x, int xOff, float[] y, int yOff, int len) {
+		FloatVector sum0 = FloatVector.zero(S), sum1 = FloatVector.zero(S);
+		int k = 0;
+		for (int bound = S.loopBound(len); k + 2 * L <= bound; k += 2 * L) {
+			sum0 = FloatVector.fromArray(S, x, xOff + k).fma(FloatVector.fromArray(S, y, yOff + k), sum0);
+			sum1 = FloatVector.fromArray(S, x, xOff + k + L).fma(FloatVector.fromArray(S, y, yOff + k + L), sum1);
+		}
+		for (int bound = S.loopBound(len); k < bound; k += L) {
+			sum0 = FloatVector.fromArray(S, x, xOff + k).fma(FloatVector.fromArray(S, y, yOff + k), sum0);
+		}
+		return sum0.add(sum1).reduceLanes(VectorOperators.ADD) + super.dot(x, xOff + k, y, yOff + k, len - k);
+	}
+
+	@Override
+	void axpy(float a, float[] x, int xOff, float[] y, int yOff, int len) {
+		FloatVector av = FloatVector.broadcast(S, a);
+		int k = 0;
+		for (int bound = S.loopBound(len); k < bound; k += L) {
+			FloatVector.fromArray(S, x, xOff + k).fma(av, FloatVector.fromArray(S, y, yOff + k)).intoArray(y, yOff + k);
+		}
+		super.axpy(a, x, xOff + k, y, yOff + k, len - k);
+	}
+
+	/**
+	 * every value of a row of w is broadcast and fused into up to 4 vectors of columns of x at a time, which stay in
+	 * registers for the whole row. a single column gathers the values of x instead.
+	 */
+	@Override
+	void sparseGemm(int[] start, int[] index, float[] values, int from, int to, float[] x, int cols, float[] y) {
+		if (cols == 1) {
+			for (int i = from; i < to; i++) {
+				y[i] = sparseDot(start[i], start[i + 1], index, values, x);
+			}
+			return;
+		}
+
+		int bound = S.loopBound(cols);
+		for (int i = from; i < to; i++) {
+			int j = 0;
+			for (; j + 4 * L <= bound; j += 4 * L) {
+				sparseBlock4(start[i], start[i + 1], index, values, x, cols, j, y, i * cols + j);
+			}
+			for (; j < bound; j += L) {
+				FloatVector c = FloatVector.zero(S);
+				for (int p = start[i]; p < start[i + 1]; p++) {
+					c = FloatVector.fromArray(S, x, index[p] * cols + j).fma(FloatVector.broadcast(S, values[p]), c);
+				}
+				c.intoArray(y, i * cols + j);
+			}
+			for (; j < cols; j++) {
+				float sum = 0;
+				for (int p = start[i]; p < start[i + 1]; p++) {
+					sum += values[p] * x[index[p] * cols + j];
+				}
+				y[i * cols + j] = sum;
+			}
+		}
+	}
+
+	/**
+	 * columns j up to j + 4 vectors of one row of w x into y starting at yOff
+	 */
+	private static void sparseBlock4(int from, int to, int[] index, float[] values, float[] x, int cols, int j,
+			float[] y, int yOff) {
+		FloatVector c0 = FloatVector.zero(S), c1 = c0, c2 = c0, c3 = c0;
+		for (int p = from; p < to; p++) {
+			FloatVector v = FloatVector.broadcast(S, values[p]);
+			int x0 = index[p] * cols + j;
+			c0 = FloatVector.fromArray(S, x, x0).fma(v, c0);
+			c1 = FloatVector.fromArray(S, x, x0 + L).fma(v, c1);
+			c2 = FloatVector.fromArray(S, x, x0 + 2 * L).fma(v, c2);
+			c3 = FloatVector.fromArray(S, x, x0 + 3 * L).fma(v, c3);
+		}
+		c0.intoArray(y, yOff);
+		c1.intoArray(y, yOff + L);
+		c2.intoArray(y, yOff + 2 * L);
+		c3.intoArray(y, yOff + 3 * L);
+	}
+
+	/**
+	 * @return the sum of values[p] * x[index[p]] for p from from up to to
+	 */
+	private static float sparseDot(int from, int to, int[] index, float[] values, float[] x) {
+		FloatVector c = FloatVector.zero(S);
+		int p = from;
+		for (int bound = from + (to - from) / L * L; p < bound; p += L) {
+			c = FloatVector.fromArray(S, x, 0, index, p).fma(FloatVector.fromArray(S, values, p), c);
+		}
+		float sum = c.reduceLanes(VectorOperators.ADD);
+		for (; p < to; p++) {
+			sum += values[p] * x[index[p]];
+		}
+		return sum;
+	}
+
+	/**
+	 * 4 rows of w against 2 samples of x at a time, so each widened vector is used for 2 or 4 products. the rows stay in
+	 * the l1 cache while they go through the samples. the blocks are separate methods to keep each one small enough
+	 * to be compiled with its vectors in registers.
+	 */
+	@Override
+	void gemmInt8(byte[] w, int rows, int cols, int from, int to, byte[] x, int batch, int[] acc) {
+		if (!INT8) {
+			super.gemmInt8(w, rows, cols, from, to, x, batch, acc);
+			return;
+		}
+
+		int i = from;
+		for (; i + 4 <= to; i += 4) {
+			int j = 0;
+			for (; j + 2 <= batch; j += 2) {
+				gemmInt8Block4x2(w, rows, cols, i, x, j, acc);
+			}
+			if (j < batch) {
+				gemmInt8Block4x1(w, rows, cols, i, x, j, acc);
+			}
+		}
+		for (; i < to; i++) {
+			for (int j = 0; j < batch; j++) {
+				int w0 = i * cols, x0 = j * cols, bound = BS.loopBound(cols);
+				IntVector c = IntVector.zero(IS);
+				for (int k = 0; k < bound; k += L) {
+					c = widen(w, w0 + k).mul(widen(x, x0 + k)).add(c);
+				}
+				acc[j * rows + i] = sum(c, w, w0, x, x0, bound, cols);
+			}
+		}
+	}
+
+	/**
+	 * rows i up to i + 4 of w against samples j and j + 1 of x
+	 */
+	private static void gemmInt8Block4x2(byte[] w, int rows, int cols, int i, byte[] x, int j, int[] acc) {
+		int w0 = i * cols, w1 = w0 + cols, w2 = w1 + cols, w3 = w2 + cols;
+		int x0 = j * cols, x1 = x0 + cols;
+		int bound = BS.loopBound(cols);
+		IntVector c00 = IntVector.zero(IS), c10 = c00, c20 = c00, c30 = c00;
+		IntVector c01 = c00, c11 = c00, c21 = c00, c31 = c00;
+		for (int k = 0; k < bound; k += L) {
+			IntVector a0 = widen(w, w0 + k), a1 = widen(w, w1 + k);
+			IntVector a2 = widen(w, w2 + k), a3 = widen(w, w3 + k);
+			IntVector b = widen(x, x0 + k);
+			c00 = a0.mul(b).add(c00);
+			c10 = a1.mul(b).add(c10);
+			c20 = a2.mul(b).add(c20);
+			c30 = a3.mul(b).add(c30);
+			b = widen(x, x1 + k);
+			c01 = a0.mul(b).add(c01);
+			c11 = a1.mul(b).add(c11);
+			c21 = a2.mul(b).add(c21);
+			c31 = a3.mul(b).add(c31);
+		}
+		acc[j * rows + i] = sum(c00, w, w0, x, x0, bound, cols);
+		acc[j * rows + i + 1] = sum(c10, w, w1, x, x0, bound, cols);
+		acc[j * rows + i + 2] = sum(c20, w, w2, x, x0, bound, cols);
+		acc[j * rows + i + 3] = sum(c30, w, w3, x, x0, bound, cols);
+		acc[(j + 1) * rows + i] = sum(c01, w, w0, x, x1, bound, cols);
+		acc[(j + 1) * rows + i + 1] = sum(c11, w, w1, x, x1, bound, cols);
+		acc[(j + 1) * rows + i + 2] = sum(c21, w, w2, x, x1, bound, cols);
+		acc[(j + 1) * rows + i + 3] = sum(c31, w, w3, x, x1, bound, cols);
+	}
+
+	/**
+	 * rows i up to i + 4 of w against sample j of x
+	 */
+	private static void gemmInt8Block4x1(byte[] w, int rows, int cols, int i, byte[] x, int j, int[] acc) {
+		int w0 = i * cols, w1 = w0 + cols, w2 = w1 + cols, w3 = w2 + cols;
+		int x0 = j * cols;
+		int bound = BS.loopBound(cols);
+		IntVector c0 = IntVector.zero(IS), c1 = c0, c2 = c0, c3 = c0;
+		for (int k = 0; k < bound; k += L) {
+			IntVector b = widen(x, x0 + k);
+			c0 = widen(w, w0 + k).mul(b).add(c0);
+			c1 = widen(w, w1 + k).mul(b).add(c1);
+			c2 = widen(w, w2 + k).mul(b).add(c2);
+			c3 = widen(w, w3 + k).mul(b).add(c3);
+		}
+		acc[j * rows + i] = sum(c0, w, w0, x, x0, bound, cols);
+		acc[j * rows + i + 1] = sum(c1, w, w1, x, x0, bound, cols);
+		acc[j * rows + i + 2] = sum(c2, w, w2, x, x0, bound, cols);
+		acc[j * rows + i + 3] = sum(c3, w, w3, x, x0, bound, cols);
+	}
+
+	/**
+	 * @return the lanes of c plus the products of w and x from bound up to cols that didn't fill a vector
+	 */
+	private static int sum(IntVector c, byte[] w, int wOff, byte[] x, int xOff, int bound, int cols) {
+		int sum = c.reduceLanes(VectorOperators.ADD);
+		for (int k = bound; k < cols; k++) {
+			sum += w[wOff + k] * x[xOff + k];
+		}
+		return sum;
+	}
+
+	@Override
+	void dequantize(int[] acc, int off, float[] scale, float[] bias, float[] out, int len) {
+		int i = 0;
+		for (int bound = S.loopBound(len); i < bound; i += L) {
+			FloatVector a = (FloatVector) IntVector.fromArray(IS, acc, off + i).convert(VectorOperators.I2F, 0);
+			a.fma(FloatVector.fromArray(S, scale, i), FloatVector.fromArray(S, bias, i)).intoArray(out, off + i);
+		}
+		for (; i < len; i++) {
+			out[off + i] = acc[off + i] * scale[i] + bias[i];
+		}
+	}
+
+	@Override
+	void quantize(float[] x, int xOff, float inverseScale, byte[] out, int outOff, int len) {
+		if (!INT8) {
+			super.quantize(x, xOff, inverseScale, out, outOff, len);
+			return;
+		}
+
+		int k = 0;
+		for (int bound = S.loopBound(len); k < bound; k += L) {
+			FloatVector v = FloatVector.fromArray(S, x, xOff + k).mul(inverseScale).max(-127f).min(127f);
+			// 0.5 with the sign of v, so the truncating conversion rounds halves away from 0
+			FloatVector half = v.reinterpretAsInts().and(0x80000000).or(0x3f000000).reinterpretAsFloats();
+			v.add(half).convert(VectorOperators.F2I, 0).convertShape(VectorOperators.I2B, BS, 0)
+					.reinterpretAsBytes().intoArray(out, outOff + k);
+		}
+		super.quantize(x, xOff + k, inverseScale, out, outOff + k, len - k);
+	}
+
+	/**
+	 * loads a vector of int8 values from a and widens them to ints
+	 */
+	private static IntVector widen(byte[] a, int off) {
+		return (IntVector) ByteVector.fromArray(BS, a, off).convertShape(VectorOperators.B2I, IS, 0);
+	}
+
+	/**
+	 * loads a vector of fp16 or bf16 values from w and widens them to floats, with the same bit manipulation as
+	 * {@link Half}
+	 */
+	private static FloatVector decode(short[] w, int off, boolean bf16) {
+		IntVector h = (IntVector) ShortVector.fromArray(SS, w, off).convertShape(VectorOperators.S2I, IS, 0);
+		if (bf16) {
+			return h.lanewise(VectorOperators.LSHL, 16).reinterpretAsFloats();
+		}
+
+		IntVector bits = h.and(0x7fff).lanewise(VectorOperators.LSHL, 13);
+		IntVector exponent = bits.and(0x0f800000);
+		bits = bits.add((127 - 15) << 23);
+		// infinity or nan
+		bits = bits.add((128 - 16) << 23, exponent.compare(VectorOperators.EQ, 0x0f800000));
+
+		// 0 or subnormal, scaled by the float arithmetic
+		VectorMask<Integer> small = exponent.compare(VectorOperators.EQ, 0);
+		FloatVector f = bits.reinterpretAsFloats();
+		FloatVector subnormal = bits.add(1 << 23).reinterpretAsFloats().sub(0x1p-14f);
+		f = f.blend(subnormal, small.cast(S));
+
+		return f.reinterpretAsInts().or(h.and(0x8000).lanewise(VectorOperators.LSHL, 16)).reinterpretAsFloats();
+	}
+
+	/**
+	 * {@link FastMath#softPlus} a vector at a time. the other functions {@link FastMath} approximates keep their exact
+	 * vector versions even in fast math mode: the jdk's vector exp and tanh are faster than the approximations, but the
+	 * exact soft plus needs both exp and log1p.
+	 */
+	private static void fastSoftPlus(float[] x, float[] out, int bound) {
+		for (int i = 0; i < bound; i += L) {
+			FloatVector v = FloatVector.fromArray(S, x, i);
+			v.max(0).add(fastLog1p(fastExp(v.abs().neg()))).intoArray(out, i);
+		}
+	}
+
+	/**
+	 * the derivative of swish with the jdk's vector exp, but like {@link FastMath#derive} with 1 - s = e^-x s, which
+	 * doesn't lose the precision the exact version does where the sigmoid s is close to 1
+	 */
+	private static void fastSwishDerivative(float[] x, float[] out, int bound) {
+		for (int i = 0; i < bound; i += L) {
+			fastSwishDerivative(FloatVector.fromArray(S, x, i)).intoArray(out, i);
+		}
+	}
+
+	/**
+	 * out[i] = da[i] times the derivative of swish of {@link #fastSwishDerivative}
+	 */
+	private static void fastSwishBackward(float[] z, float[] da, float[] out, int bound) {
+		for (int i = 0; i < bound; i += L) {
+			fastSwishDerivative(FloatVector.fromArray(S, z, i)).mul(FloatVector.fromArray(S, da, i)).intoArray(out, i);
+		}
+	}
+
+	private static FloatVector fastSwishDerivative(FloatVector x) {
+		// clamped like FastMath.exp, an infinite e would make e s = NaN
+		FloatVector e = x.neg().min(FastMath.EXP_MAX).lanewise(VectorOperators.EXP);
+		FloatVector s = FloatVector.broadcast(S, 1).div(e.add(1));
+		return s.mul(x.mul(e.mul(s)).add(1));
+	}
+
+	/**
+	 * {@link FastMath#exp}
+	 */
+	private static FloatVector fastExp(FloatVector x) {
+		x = x.max(FastMath.EXP_MIN).min(FastMath.EXP_MAX);
+		FloatVector t = x.mul(FastMath.LOG2E).add(FastMath.ROUND);
+		FloatVector n = t.sub(FastMath.ROUND);
+		FloatVector scale = t.reinterpretAsInts().sub(Float.floatToRawIntBits(FastMath.ROUND) - 127)
+				.lanewise(VectorOperators.LSHL, 23).reinterpretAsFloats();
+		FloatVector r = x.sub(n.mul(FastMath.LN2_HI)).sub(n.mul(FastMath.LN2_LO));
+
+		FloatVector p = FloatVector.broadcast(S, FastMath.P5);
+		p = p.mul(r).add(FastMath.P4);
+		p = p.mul(r).add(FastMath.P3);
+		p = p.mul(r).add(FastMath.P2);
+		p = p.mul(r).add(FastMath.P1);
+		p = p.mul(r).add(FastMath.P0);
+		return p.mul(r.mul(r)).add(r).add(1).mul(scale);
+	}
+
+	/**
+	 * {@link FastMath#log1p}
+	 */
+	private static FloatVector fastLog1p(FloatVector t) {
+		FloatVector y = t.add(1);
+		FloatVector c = t.sub(y.sub(1)).div(y);
+		IntVector bits = y.reinterpretAsInts().sub(FastMath.SQRT_HALF_BITS);
+		FloatVector k = (FloatVector) bits.lanewise(VectorOperators.ASHR, 23).convert(VectorOperators.I2F, 0);
+		FloatVector f = bits.and(0x007fffff).add(FastMath.SQRT_HALF_BITS).reinterpretAsFloats().sub(1);
+		FloatVector s = f.div(f.add(2));
+		FloatVector z = s.mul(s);
+		FloatVector p = FloatVector.broadcast(S, 2f / 9);
+		p = p.mul(z).add(2f / 7);
+		p = p.mul(z).add(2f / 5);
+		p = p.mul(z).add(2f / 3);
+		p = p.mul(z).add(2);
+		return k.mul(FastMath.LN2).add(s.mul(p).add(c));
+	}
+
+	/**
+	 * 1 / (1 + e^-x)
+	 */
+	private static FloatVector sigmoid(FloatVector x) {
+		return FloatVector.broadcast(S, 1).div(x.neg().lanewise(VectorOperators.EXP).add(1));
+	}
+}
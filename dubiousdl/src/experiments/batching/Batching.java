@@ -0,0 +1,87 @@
+package experiments.batching;
+
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dubiouscandle.dubiousdl.FrozenModel;
+import com.dubiouscandle.dubiousdl.InferenceBatcher;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+
+/**
+ * compares single sample inference on the digit recognizer with and without an InferenceBatcher. a number of client
+ * threads (first argument, default 32) each send one sample at a time and wait for the answer.<br>
+ * arguments: clients, max batch size (default 32), max wait in microseconds (default 200)
+ */
+public class Batching {
+	private static final long DURATION_NANOS = 3_000_000_000L;
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int maxBatchSize = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+		long maxWaitMicros = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+		Model model;
+		try (ObjectInputStream in = new ObjectInputStream(
+				new FileInputStream("src/experiments/digits/digitrecognizer.ser"))) {
+			model = (Model) in.readObject();
+		}
+		FrozenModel frozen = new FrozenModel(model, maxBatchSize);
+
+		Client single = input -> {
+			Matrix in = new Matrix(784, 1);
+			System.arraycopy(input, 0, in.data(), 0, 784);
+			frozen.predict(in, new Matrix(10, 1));
+		};
+		// warm up on one thread first, so the jit isn't starved by all the clients
+		run(1, single);
+
+		double direct = run(clients, single);
+		System.out.printf("%d clients, one forward pass per sample: %.0f samples/s%n", clients, direct);
+
+		try (InferenceBatcher warmup = new InferenceBatcher(frozen, maxBatchSize, maxWaitMicros)) {
+			run(clients, input -> warmup.submit(input).join());
+		}
+		try (InferenceBatcher batcher = new InferenceBatcher(frozen, maxBatchSize, maxWaitMicros)) {
+			double batched = run(clients, input -> batcher.submit(input).join());
+			System.out.printf("%d clients, batched (max %d, wait %d us): %.0f samples/s%n", clients, maxBatchSize,
+					maxWaitMicros, batched);
+			System.out.println(batcher.stats());
+		}
+	}
+
+	private interface Client {
+		void infer(float[] input);
+	}
+
+	/**
+	 * @return the samples per second all clients together got through
+	 */
+	private static double run(int clients, Client client) throws InterruptedException {
+		AtomicLong samples = new AtomicLong();
+		long end = System.nanoTime() + DURATION_NANOS;
+
+		Thread[] threads = new Thread[clients];
+		for (int t = 0; t < clients; t++) {
+			Random random = new Random(t);
+			threads[t] = new Thread(() -> {
+				float[] input = new float[784];
+				while (System.nanoTime() < end) {
+					for (int i = 0; i < input.length; i++) {
+						input[i] = random.nextFloat();
+					}
+					client.infer(input);
+					samples.incrementAndGet();
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		return samples.get() / (DURATION_NANOS / 1e9);
+	}
+}
@@ -0,0 +1,106 @@
+package experiments.checkpointing;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Adam;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+
+/**
+ * prints the memory and step time trade off of gradient checkpointing on a deep, wide model (784, HIDDEN layers of
+ * WIDTH, 10, m=M): for every checkpoint interval, the activation memory Adam.activationBytes accounts for, the heap
+ * the model and optimizer actually take after a step minus the parameters, their gradients and moments, how many
+ * layers a step propagates forward again and the best time of Adam.step. it ends with the interval
+ * Adam.checkpointInterval picks for a budget of a third of the memory without checkpointing.
+ */
+public class Checkpointing {
+	private static final int HIDDEN = 12;
+	private static final int WIDTH = 512;
+	private static final int M = 128;
+	private static final int ROUNDS = 40;
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		Matrix in = new Matrix(784, M);
+		for (int i = 0; i < in.size(); i++) {
+			in.data()[i] = random.nextFloat();
+		}
+		int[] labels = new int[M];
+		for (int j = 0; j < M; j++) {
+			labels[j] = random.nextInt(10);
+		}
+
+		System.out.printf("Adam.step 784-%dx%d-10 m=%d%n", HIDDEN, WIDTH, M);
+		System.out.println("interval  accounted  measured  recomputed  step");
+
+		// the steps of all intervals are timed in turns, so they all see the same load on the machine
+		int[] intervals = { 0, 1, 2, 3, 4, 6, 7, HIDDEN + 1 };
+		Adam[] adams = new Adam[intervals.length];
+		long[] measured = new long[intervals.length];
+		for (int i = 0; i < intervals.length; i++) {
+			long before = used();
+			adams[i] = new Adam(model(), LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f, 1, intervals[i]);
+			adams[i].step(in, labels, 0.001f);
+			measured[i] = used() - before - 4 * 4 * parameters();
+		}
+
+		double[] best = new double[intervals.length];
+		Arrays.fill(best, Double.MAX_VALUE);
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int i = 0; i < intervals.length; i++) {
+				long start = System.nanoTime();
+				adams[i].step(in, labels, 0.001f);
+				if (round >= ROUNDS / 4) {
+					best[i] = Math.min(best[i], (System.nanoTime() - start) / 1e6);
+				}
+			}
+		}
+
+		Model shape = model();
+		for (int i = 0; i < intervals.length; i++) {
+			int k = intervals[i];
+			System.out.printf("%8s  %6.1f MB  %5.1f MB  %10d  %6.2f ms%n", k == 0 ? "off" : k,
+					Adam.activationBytes(shape, 1, k) / 1e6, measured[i] / 1e6, Adam.recomputed(HIDDEN + 1, k), best[i]);
+		}
+
+		long full = Adam.activationBytes(shape, 1, 0);
+		long budget = full / 3;
+		int k = Adam.checkpointInterval(shape, 1, budget);
+		System.out.printf("a budget of %.1f MB checkpoints every %d layers%n", budget / 1e6, k);
+	}
+
+	private static Model model() {
+		ActivationFunction[] g = new ActivationFunction[HIDDEN + 1];
+		int[] n = new int[HIDDEN + 2];
+		n[0] = 784;
+		for (int l = 1; l <= HIDDEN; l++) {
+			g[l - 1] = ActivationFunction.TANH;
+			n[l] = WIDTH;
+		}
+		g[HIDDEN] = ActivationFunction.IDENTITY;
+		n[HIDDEN + 1] = 10;
+		return new Model(g, n, M, new Initializer.XavierUniform(new Random(2)));
+	}
+
+	/**
+	 * @return the number of weights and biases of the model
+	 */
+	private static long parameters() {
+		return 784L * WIDTH + (HIDDEN - 1L) * WIDTH * WIDTH + 10L * WIDTH + (long) HIDDEN * WIDTH + 10;
+	}
+
+	/**
+	 * @return the bytes of heap in use after a garbage collection
+	 */
+	private static long used() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
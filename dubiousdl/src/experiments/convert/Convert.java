@@ -0,0 +1,20 @@
+package experiments.convert;
+
+import java.nio.file.Path;
+
+import com.dubiouscandle.dubiousdl.ModelFormat;
+
+/**
+ * converts a serialized model into the binary model format.<br>
+ * usage: Convert in.ser out.ddlm
+ */
+public class Convert {
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("usage: Convert in.ser out.ddlm");
+			System.exit(1);
+		}
+
+		ModelFormat.convert(Path.of(args[0]), Path.of(args[1]));
+	}
+}
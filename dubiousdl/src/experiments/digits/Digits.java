@@ -14,8 +14,7 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.awt.geom.Rectangle2D;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -25,10 +24,11 @@ import javax.swing.JPanel;
 
 import com.dubiouscandle.dubiousdl.ActivationFunction;
 import com.dubiouscandle.dubiousdl.Matrix;
-import com.dubiouscandle.dubiousdl.Model;
+import com.dubiouscandle.dubiousdl.ModelFormat;
+import com.dubiouscandle.dubiousdl.Predictor;
 
 public class Digits {
-	static Model model;
+	static Predictor predictor;
 	static DrawPanel drawPanel = new DrawPanel();
 	static TextArea textArea = new TextArea();
 
@@ -49,10 +49,8 @@ public class Digits {
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		frame.setVisible(true);
 
-		try (FileInputStream fileIn = new FileInputStream("src/experiments/digits/digitrecognizer.ser");
-				ObjectInputStream in = new ObjectInputStream(fileIn)) {
-			model = (Model) in.readObject();
-			model = new Model(model, 1);
+		try {
+			predictor = new Predictor(ModelFormat.load(Path.of("src/experiments/digits/digitrecognizer.ddlm"), 1), 1);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -78,7 +76,7 @@ public class Digits {
 
 		System.arraycopy(drawPanel.pixels, 0, tmp1.data(), 0, 28 * 28);
 
-		model.forwardPropagate(tmp1, tmp2);
+		predictor.predict(tmp1, tmp2);
 		float[] out = Arrays.copyOf(tmp2.data(), 10);
 
 		ActivationFunction.softmax(out);
@@ -0,0 +1,104 @@
+package experiments.fastmath;
+
+import java.util.function.DoubleUnaryOperator;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+
+/**
+ * checks the documented error bounds of the fast math activation functions (see -Ddubiousdl.fastmath=true). every
+ * approximated function and derivative is computed over an evenly spread sample of all floats in [-100, 100], through
+ * the same array kernels training uses, and compared with the function computed in double precision. the error is
+ * absolute where the exact value is at most 1 in magnitude and relative above that.<br>
+ * exits with status 1 if any error is above its bound. run it with and without -Ddubiousdl.vector=false to check both
+ * the vector and the scalar kernels.
+ */
+public class FastMathCheck {
+	/**
+	 * every STRIDE-th float is checked, plus the ends of the range and the region around 0
+	 */
+	private static final int STRIDE = 61;
+	private static final float RANGE = 100;
+
+	private static int failures;
+
+	public static void main(String[] args) {
+		// must be set before the first activation kernel runs, the mode is read once
+		System.setProperty("dubiousdl.fastmath", "true");
+
+		float[] x = inputs();
+		System.out.printf("%d inputs in [-%s, %s]%n", x.length, RANGE, RANGE);
+
+		check("sigmoid", ActivationFunction.SIGMOID, x, false, v -> 1 / (1 + Math.exp(-v)), 2e-7);
+		check("sigmoid'", ActivationFunction.SIGMOID, x, true, v -> {
+			double s = 1 / (1 + Math.exp(-v));
+			return s * (1 - s);
+		}, 2e-7);
+		check("tanh", ActivationFunction.TANH, x, false, Math::tanh, 2e-7);
+		check("tanh'", ActivationFunction.TANH, x, true, v -> 1 - Math.tanh(v) * Math.tanh(v), 2e-7);
+		check("soft plus", ActivationFunction.SOFT_PLUS, x, false,
+				v -> Math.max(v, 0) + Math.log1p(Math.exp(-Math.abs(v))), 2e-7);
+		check("soft plus'", ActivationFunction.SOFT_PLUS, x, true, v -> 1 / (1 + Math.exp(-v)), 2e-7);
+		check("elu", ActivationFunction.ELU, x, false, v -> v > 0 ? v : Math.expm1(v), 2e-7);
+		check("elu'", ActivationFunction.ELU, x, true, v -> v > 0 ? 1 : Math.exp(v), 2e-7);
+		check("swish", ActivationFunction.SWISH, x, false, v -> v / (1 + Math.exp(-v)), 2e-7);
+		check("swish'", ActivationFunction.SWISH, x, true, v -> {
+			double s = 1 / (1 + Math.exp(-v));
+			return s * (1 + v * (1 - s));
+		}, 3e-7);
+
+		if (failures > 0) {
+			System.out.println(failures + " functions above their bound");
+			System.exit(1);
+		}
+		System.out.println("all within their bounds");
+	}
+
+	private static float[] inputs() {
+		int top = Float.floatToRawIntBits(RANGE);
+		int count = top / STRIDE + 1;
+		int small = 1 << 16;
+		float[] x = new float[2 * count + 2 * small + 2];
+		int k = 0;
+		for (int i = 0; i < count; i++) {
+			float v = Float.intBitsToFloat(i * STRIDE);
+			x[k++] = v;
+			x[k++] = -v;
+		}
+		// every float with the largest exponents below 1, where most of the polynomials switch over
+		for (int i = 0; i < small; i++) {
+			float v = Float.intBitsToFloat(Float.floatToRawIntBits(1f) - 1 - i * 64);
+			x[k++] = v;
+			x[k++] = -v;
+		}
+		x[k++] = RANGE;
+		x[k++] = -RANGE;
+		return x;
+	}
+
+	private static void check(String name, ActivationFunction g, float[] x, boolean derivative,
+			DoubleUnaryOperator exact, double bound) {
+		float[] out = new float[x.length];
+		if (derivative) {
+			g.deriv(x, out);
+		} else {
+			g.get(x, out);
+		}
+
+		double max = 0;
+		float worst = 0;
+		for (int i = 0; i < x.length; i++) {
+			double expected = exact.applyAsDouble(x[i]);
+			double error = Math.abs(out[i] - expected) / Math.max(1, Math.abs(expected));
+			if (!(error <= max)) {
+				// a NaN is the worst error there is
+				max = Double.isNaN(error) ? Double.POSITIVE_INFINITY : error;
+				worst = x[i];
+			}
+		}
+
+		boolean ok = max <= bound;
+		failures += ok ? 0 : 1;
+		System.out.printf("  %-11s max error %.2e at %-14s bound %.0e  %s%n", name, max, worst, bound,
+				ok ? "ok" : "ABOVE BOUND");
+	}
+}
@@ -0,0 +1,133 @@
+package experiments.hogwild;
+
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Adam;
+import com.dubiouscandle.dubiousdl.Batch;
+import com.dubiouscandle.dubiousdl.HogwildTrainer;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+
+/**
+ * compares the training throughput of the synchronous Adam.step, the data parallel one and hogwild, on xor and on a
+ * digits sized network (784-256-128-64-32-10) with a synthetic dataset.<br>
+ * arguments: workers (default 4), staleness bound for the bounded hogwild run (default 4)
+ */
+public class Hogwild {
+	private static final LossFunction J = LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS;
+
+	public static void main(String[] args) {
+		int workers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int staleness = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+		System.out.println("xor, 2-3-3-3-2, m=4");
+		float[][] xorInputs = { { 0, 0 }, { 1, 0 }, { 0, 1 }, { 1, 1 } };
+		int[] xorLabels = { 0, 1, 1, 0 };
+		// the first run only warms up the jit
+		compare(new int[] { 2, 3, 3, 3, 2 }, 4, xorInputs, xorLabels, 20_000, 0.01f, workers, staleness, false);
+		compare(new int[] { 2, 3, 3, 3, 2 }, 4, xorInputs, xorLabels, 20_000, 0.01f, workers, staleness, true);
+
+		System.out.println("digits sized, 784-256-128-64-32-10, m=32");
+		Random random = new Random(1);
+		float[][] inputs = new float[2048][784];
+		int[] labels = new int[inputs.length];
+		float[][] teacher = new float[10][784];
+		for (float[] row : teacher) {
+			for (int j = 0; j < row.length; j++) {
+				row[j] = (float) random.nextGaussian();
+			}
+		}
+		for (int i = 0; i < inputs.length; i++) {
+			float best = Float.NEGATIVE_INFINITY;
+			for (int j = 0; j < 784; j++) {
+				inputs[i][j] = random.nextFloat();
+			}
+			for (int c = 0; c < 10; c++) {
+				float score = 0;
+				for (int j = 0; j < 784; j++) {
+					score += teacher[c][j] * inputs[i][j];
+				}
+				if (score > best) {
+					best = score;
+					labels[i] = c;
+				}
+			}
+		}
+		compare(new int[] { 784, 256, 128, 64, 32, 10 }, 32, inputs, labels, 200, 0.001f, workers, staleness, false);
+		compare(new int[] { 784, 256, 128, 64, 32, 10 }, 32, inputs, labels, 200, 0.001f, workers, staleness, true);
+	}
+
+	/**
+	 * trains a fresh model the same total number of steps in every mode and prints the samples per second and the loss
+	 * afterwards if print is set
+	 */
+	private static void compare(int[] layers, int m, float[][] inputs, int[] labels, int steps, float alpha,
+			int workers, int staleness, boolean print) {
+		Batch evaluation = batch(layers, m, inputs, labels, 0);
+
+		Model model = model(layers, m);
+		Adam adam = new Adam(model, J, 0.9f, 0.999f);
+		Batch batch = batch(layers, m, inputs, labels, 1);
+		long start = System.nanoTime();
+		for (int i = 0; i < steps; i++) {
+			batch.next();
+			adam.step(batch.input(), batch.target(), alpha);
+		}
+		report(print, "synchronous", steps * m, start, model, evaluation);
+
+		if (workers <= m) {
+			model = model(layers, m);
+			Adam parallel = new Adam(model, J, 0.9f, 0.999f, workers);
+			start = System.nanoTime();
+			for (int i = 0; i < steps; i++) {
+				batch.next();
+				parallel.step(batch.input(), batch.target(), alpha);
+			}
+			report(print, "data parallel, " + workers + " workers", steps * m, start, model, evaluation);
+		}
+
+		for (int bound : new int[] { staleness, HogwildTrainer.UNBOUNDED }) {
+			model = model(layers, m);
+			HogwildTrainer trainer = new HogwildTrainer(model, J, 0.9f, 0.999f, workers, bound);
+			Batch[] batches = new Batch[workers];
+			for (int w = 0; w < workers; w++) {
+				batches[w] = batch(layers, m, inputs, labels, 2 + w);
+			}
+			start = System.nanoTime();
+			trainer.train(batches, steps / workers, alpha);
+			report(print, "hogwild, " + workers + " workers, staleness "
+					+ (bound == HogwildTrainer.UNBOUNDED ? "unbounded" : String.valueOf(bound)),
+					steps / workers * workers * m, start, model, evaluation);
+		}
+		if (print) {
+			System.out.println();
+		}
+	}
+
+	private static Model model(int[] layers, int m) {
+		ActivationFunction[] g = new ActivationFunction[layers.length - 1];
+		for (int l = 0; l < g.length; l++) {
+			g[l] = l == g.length - 1 ? ActivationFunction.IDENTITY : ActivationFunction.LEAKY_RELU;
+		}
+		return new Model(g, layers, m, new Initializer.XavierNormal(new Random(1)));
+	}
+
+	private static Batch batch(int[] layers, int m, float[][] inputs, int[] labels, long seed) {
+		return new Batch(inputs, labels, inputs.length, layers[layers.length - 1], layers[0], m, new Random(seed));
+	}
+
+	private static void report(boolean print, String mode, long samples, long start, Model model,
+			Batch evaluation) {
+		if (!print) {
+			return;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		Matrix output = new Matrix(evaluation.target().rows(), evaluation.target().cols());
+		model.forwardPropagate(evaluation.input(), output);
+		System.out.printf("  %-40s %10.0f samples/s  loss %.4g%n", mode, samples / seconds,
+				J.getLoss(output, evaluation.target()));
+	}
+}
@@ -0,0 +1,160 @@
+package experiments.instrumentation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Adam;
+import com.dubiouscandle.dubiousdl.ArrayDataset;
+import com.dubiouscandle.dubiousdl.Batch;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.Metrics;
+import com.dubiouscandle.dubiousdl.MetricsListener;
+import com.dubiouscandle.dubiousdl.Model;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * trains 784-512-512-10 (m=M) on batches from Batch.next and prints the best time of a batch and a step with the
+ * instrumentation off, with a listener and while a flight recording is running, timed in turns so they all see the
+ * same load on the machine. then it prints where the time of a step goes according to the listener and how many
+ * events of each kind the last recording got.
+ */
+public class Instrumentation {
+	private static final int M = 128;
+	private static final int ROUNDS = 12;
+	private static final int STEPS = 10;
+
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(1);
+		float[][] records = new float[4096][784];
+		int[] labels = new int[records.length];
+		for (int i = 0; i < records.length; i++) {
+			for (int j = 0; j < 784; j++) {
+				records[i][j] = random.nextFloat();
+			}
+			labels[i] = random.nextInt(10);
+		}
+		Batch batch = new Batch(new ArrayDataset(records, labels, records.length, 784), 10, M, random, false);
+		Model model = new Model(new ActivationFunction[] { ActivationFunction.RELU, ActivationFunction.RELU,
+				ActivationFunction.IDENTITY }, new int[] { 784, 512, 512, 10 }, M,
+				new Initializer.XavierUniform(new Random(2)));
+		Adam adam = new Adam(model, LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f);
+
+		String[] modes = { "off", "listener", "jfr" };
+		double[] best = new double[modes.length];
+		Arrays.fill(best, Double.MAX_VALUE);
+		Totals totals = new Totals();
+		Path file = Files.createTempFile("dubiousdl", ".jfr");
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int mode = 0; mode < modes.length; mode++) {
+				if (mode == 1) {
+					totals.clear();
+				}
+				Metrics.setListener(mode == 1 ? totals : null);
+				Recording recording = null;
+				if (mode == 2) {
+					recording = new Recording();
+					for (String name : new String[] { "Layer", "Multiply", "Update", "Batch", "Step" }) {
+						recording.enable("dubiousdl." + name);
+					}
+					recording.start();
+				}
+
+				for (int s = 0; s < STEPS; s++) {
+					long start = System.nanoTime();
+					batch.next();
+					adam.step(batch.input(), batch.labels(), 0.001f);
+					if (round >= ROUNDS / 4) {
+						best[mode] = Math.min(best[mode], (System.nanoTime() - start) / 1e6);
+					}
+				}
+
+				if (recording != null) {
+					recording.stop();
+					if (round == ROUNDS - 1) {
+						recording.dump(file);
+					}
+					recording.close();
+				}
+			}
+		}
+		Metrics.setListener(null);
+
+		System.out.printf("Batch.next + Adam.step 784-512-512-10 m=%d%n", M);
+		for (int mode = 0; mode < modes.length; mode++) {
+			System.out.printf("  %-8s  %6.2f ms  %+5.1f%%%n", modes[mode], best[mode], 100 * (best[mode] / best[0] - 1));
+		}
+
+		// the totals are those of the last round with the listener
+		System.out.printf("per step, from the listener over %d steps%n", STEPS);
+		System.out.printf("  %-20s %8.3f ms%n", "batch", totals.batch / 1e6 / STEPS);
+		for (Map.Entry<String, Long> layer : totals.layers.entrySet()) {
+			System.out.printf("  %-20s %8.3f ms%n", layer.getKey(), layer.getValue() / 1e6 / STEPS);
+		}
+		System.out.printf("  %-20s %8.3f ms%n", "update", totals.update / 1e6 / STEPS);
+		System.out.printf("  %-20s %8.3f ms%n", "step", totals.step / 1e6 / STEPS);
+		System.out.printf("  %-20s %8d, %.1f GFLOP/s%n", "products", totals.products / STEPS,
+				2.0 * totals.multiplyAdds / totals.multiply);
+		System.out.printf("  %-20s %8.1f kB%n", "allocated", totals.allocated / 1e3 / STEPS);
+
+		Map<String, Integer> counts = new TreeMap<>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+			counts.merge(event.getEventType().getName(), 1, Integer::sum);
+		}
+		System.out.println("events in the last recording of " + STEPS + " steps");
+		for (Map.Entry<String, Integer> count : counts.entrySet()) {
+			System.out.printf("  %-20s %8d%n", count.getKey(), count.getValue());
+		}
+		Files.delete(file);
+	}
+
+	/**
+	 * adds up everything it is told
+	 */
+	private static final class Totals implements MetricsListener {
+		private final Map<String, Long> layers = new TreeMap<>();
+		private long batch, update, step, multiply, multiplyAdds, products, allocated;
+
+		synchronized void clear() {
+			layers.clear();
+			batch = update = step = multiply = multiplyAdds = products = allocated = 0;
+		}
+
+		@Override
+		public synchronized void layer(int layer, Pass pass, long nanos) {
+			layers.merge("layer " + layer + " " + pass.name().toLowerCase(), nanos, Long::sum);
+		}
+
+		@Override
+		public synchronized void multiply(int m, int n, int k, long nanos) {
+			multiply += nanos;
+			multiplyAdds += (long) m * n * k;
+			products++;
+		}
+
+		@Override
+		public synchronized void update(long nanos) {
+			update += nanos;
+		}
+
+		@Override
+		public synchronized void batch(int size, long nanos) {
+			batch += nanos;
+		}
+
+		@Override
+		public synchronized void step(long nanos, long allocated, float loss) {
+			step += nanos;
+			this.allocated += allocated;
+		}
+	}
+}
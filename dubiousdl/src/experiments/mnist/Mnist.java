@@ -0,0 +1,53 @@
+package experiments.mnist;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Adam;
+import com.dubiouscandle.dubiousdl.Batch;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.MappedDataset;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+
+/**
+ * trains the digits network straight from the mnist IDX files, which are mapped instead of loaded, and prints how long
+ * it took until the first step and the loss as it goes. the targets are given as labels, without one hot matrices.<br>
+ * arguments: train-images-idx3-ubyte train-labels-idx1-ubyte [steps, default 10000]
+ */
+public class Mnist {
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: Mnist train-images-idx3-ubyte train-labels-idx1-ubyte [steps]");
+			System.exit(1);
+		}
+		int steps = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+		int m = 128;
+
+		long start = System.nanoTime();
+		MappedDataset dataset = MappedDataset.openIdx(Path.of(args[0]), Path.of(args[1]));
+		Batch batch = new Batch(dataset, 10, m, new Random(1), false);
+		System.out.printf("%d records of %d values, first batch after %.1f ms%n", dataset.size(),
+				dataset.recordSize(), (System.nanoTime() - start) / 1e6);
+
+		Model model = new Model(
+				new ActivationFunction[] { ActivationFunction.LEAKY_RELU, ActivationFunction.LEAKY_RELU,
+						ActivationFunction.LEAKY_RELU, ActivationFunction.LEAKY_RELU, ActivationFunction.IDENTITY },
+				new int[] { dataset.recordSize(), 256, 128, 64, 32, 10 }, m,
+				new Initializer.XavierNormal(new Random(1)));
+		Adam adam = new Adam(model, LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f);
+		Matrix output = new Matrix(10, m);
+
+		for (int step = 1; step <= steps; step++) {
+			adam.step(batch.input(), batch.labels(), 0.001f);
+			if (step % 1000 == 0) {
+				model.predict(batch.input(), output);
+				System.out.printf("step %d, loss %.4f%n", step,
+						LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS.getLoss(output, batch.labels()));
+			}
+			batch.next();
+		}
+	}
+}
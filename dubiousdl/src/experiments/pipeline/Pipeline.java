@@ -0,0 +1,130 @@
+package experiments.pipeline;
+
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Adam;
+import com.dubiouscandle.dubiousdl.ArrayDataset;
+import com.dubiouscandle.dubiousdl.Batch;
+import com.dubiouscandle.dubiousdl.BatchPipeline;
+import com.dubiouscandle.dubiousdl.Dataset;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+
+/**
+ * compares training the digits sized network with batches prepared on the training thread by {@link Batch} against
+ * batches prepared in the background by {@link BatchPipeline}, both with the same augmentation (gaussian noise), and
+ * checks that both see the same batches.<br>
+ * the pipeline can only help when there is a free core for the producer.<br>
+ * arguments: steps (default 2000), depth (default 4)
+ */
+public class Pipeline {
+	private static final int M = 64;
+
+	public static void main(String[] args) {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+		Random random = new Random(1);
+		float[][] records = new float[8192][784];
+		int[] labels = new int[records.length];
+		for (int i = 0; i < records.length; i++) {
+			labels[i] = random.nextInt(10);
+			for (int j = 0; j < 784; j++) {
+				records[i][j] = random.nextFloat() + (j % 10 == labels[i] ? 1 : 0);
+			}
+		}
+		Dataset dataset = new ArrayDataset(records, labels, records.length, 784);
+
+		System.out.println("same batches: " + same(dataset, depth, 200));
+
+		// the first round only warms up the jit
+		for (int round = 0; round < 2; round++) {
+			System.out.printf("Batch:         %.0f steps/s%n", withBatch(dataset, steps));
+			System.out.printf("BatchPipeline: %.0f steps/s%n", withPipeline(dataset, steps, depth));
+		}
+	}
+
+	private static double withBatch(Dataset dataset, int steps) {
+		Batch batch = new Batch(dataset, 10, M, new Random(2));
+		Noise noise = new Noise(3);
+		Adam adam = new Adam(model(), LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f);
+
+		long start = System.nanoTime();
+		for (int step = 0; step < steps; step++) {
+			noise.apply(batch.input(), batch.target());
+			adam.step(batch.input(), batch.target(), 0.001f);
+			batch.next();
+		}
+		return steps / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private static double withPipeline(Dataset dataset, int steps, int depth) {
+		Adam adam = new Adam(model(), LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f);
+
+		try (BatchPipeline pipeline = new BatchPipeline(dataset, 10, M, new Random(2), depth, new Noise(3))) {
+			long start = System.nanoTime();
+			for (int step = 0; step < steps; step++) {
+				adam.step(pipeline.input(), pipeline.target(), 0.001f);
+				pipeline.next();
+			}
+			return steps / ((System.nanoTime() - start) / 1e9);
+		}
+	}
+
+	private static boolean same(Dataset dataset, int depth, int batches) {
+		Batch batch = new Batch(dataset, 10, M, new Random(2));
+		Noise noise = new Noise(3);
+		try (BatchPipeline pipeline = new BatchPipeline(dataset, 10, M, new Random(2), depth, new Noise(3))) {
+			for (int b = 0; b < batches; b++) {
+				noise.apply(batch.input(), batch.target());
+				if (!equal(batch.input(), pipeline.input()) || !equal(batch.target(), pipeline.target())) {
+					return false;
+				}
+				batch.next();
+				pipeline.next();
+			}
+		}
+		return true;
+	}
+
+	private static boolean equal(Matrix a, Matrix b) {
+		for (int i = 0; i < a.rows(); i++) {
+			for (int j = 0; j < a.cols(); j++) {
+				if (a.get(i, j) != b.get(i, j)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static Model model() {
+		return new Model(
+				new ActivationFunction[] { ActivationFunction.LEAKY_RELU, ActivationFunction.LEAKY_RELU,
+						ActivationFunction.LEAKY_RELU, ActivationFunction.LEAKY_RELU, ActivationFunction.IDENTITY },
+				new int[] { 784, 256, 128, 64, 32, 10 }, M, new Initializer.XavierNormal(new Random(1)));
+	}
+
+	/**
+	 * adds gaussian noise to every input value
+	 */
+	private static final class Noise implements BatchPipeline.Transform {
+		private final Random random;
+
+		Noise(long seed) {
+			random = new Random(seed);
+		}
+
+		@Override
+		public void apply(Matrix input, Matrix target) {
+			for (int i = 0; i < input.rows(); i++) {
+				for (int j = 0; j < input.cols(); j++) {
+					input.set(i, j, input.get(i, j) + 0.1f * (float) random.nextGaussian());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package experiments.precision;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Dataset;
+import com.dubiouscandle.dubiousdl.HalfPredictor;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.MappedDataset;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+import com.dubiouscandle.dubiousdl.ModelFormat;
+import com.dubiouscandle.dubiousdl.Predictor;
+
+/**
+ * compares inference with fp16 and bf16 weights against the float model: the size of the parameters, how often the
+ * predicted class agrees with the float model, the accuracy on a held out set, the largest and average difference of
+ * the outputs, and the time of one single sample prediction, on the digits model and on a wide model whose weights
+ * don't fit in the cache.<br>
+ * arguments: optionally a held out set as IDX files, e.g. t10k-images-idx3-ubyte t10k-labels-idx1-ubyte. without it
+ * the comparison runs on random inputs and there is no accuracy.
+ */
+public class Precision {
+	public static void main(String[] args) throws Exception {
+		Model digits = ModelFormat.load(Path.of("src/experiments/digits/digitrecognizer.ddlm"), 1);
+
+		Dataset heldOut;
+		if (args.length >= 2) {
+			heldOut = MappedDataset.openIdx(Path.of(args[0]), Path.of(args[1]));
+		} else {
+			heldOut = null;
+		}
+		int[] digitsLayers = { 784, 256, 128, 64, 32, 10 };
+		float[][] inputs = inputs(heldOut, digitsLayers[0], 2000);
+
+		System.out.println("digits, 784-256-128-64-32-10");
+		compare(digits, digitsLayers, inputs, heldOut, 20_000);
+
+		System.out.println("wide, 4096-4096-4096-10");
+		int[] wideLayers = { 4096, 4096, 4096, 10 };
+		Model wide = new Model(
+				new ActivationFunction[] { ActivationFunction.TANH, ActivationFunction.TANH,
+						ActivationFunction.IDENTITY },
+				wideLayers, 1, new Initializer.XavierNormal(new Random(1)));
+		compare(wide, wideLayers, inputs(null, wideLayers[0], 200), null, 200);
+	}
+
+	/**
+	 * @return the records of the held out set, or count random inputs in [0, 1] if there is none
+	 */
+	private static float[][] inputs(Dataset heldOut, int size, int count) {
+		Random random = new Random(2);
+		float[][] inputs = new float[heldOut == null ? count : heldOut.size()][size];
+		for (int s = 0; s < inputs.length; s++) {
+			if (heldOut != null) {
+				heldOut.read(s, inputs[s], 0, 1);
+			} else {
+				for (int k = 0; k < size; k++) {
+					inputs[s][k] = random.nextFloat();
+				}
+			}
+		}
+		return inputs;
+	}
+
+	private static void compare(Model model, int[] layers, float[][] inputs, Dataset heldOut, int timed) {
+		int out = layers[layers.length - 1];
+		Predictor reference = new Predictor(model, 1);
+		float[][] expected = new float[inputs.length][];
+		for (int s = 0; s < inputs.length; s++) {
+			expected[s] = predict(reference::predict, inputs[s], out);
+		}
+
+		long floatBytes = 0;
+		for (int l = 1; l < layers.length; l++) {
+			floatBytes += 4L * (layers[l] * layers[l - 1] + layers[l]);
+		}
+		report("float32", floatBytes, expected, expected, heldOut, time(reference::predict, inputs, out, timed));
+
+		for (HalfPredictor.Format format : HalfPredictor.Format.values()) {
+			HalfPredictor predictor = new HalfPredictor(model, 1, format);
+			float[][] actual = new float[inputs.length][];
+			for (int s = 0; s < inputs.length; s++) {
+				actual[s] = predict(predictor::predict, inputs[s], out);
+			}
+			report(format.toString().toLowerCase(), predictor.parameterBytes(), expected, actual, heldOut,
+					time(predictor::predict, inputs, out, timed));
+		}
+	}
+
+	private static void report(String name, long bytes, float[][] expected, float[][] actual, Dataset heldOut,
+			double micros) {
+		int agree = 0, correct = 0;
+		double maxDiff = 0, sumDiff = 0;
+		for (int s = 0; s < expected.length; s++) {
+			int predicted = argmax(actual[s]);
+			agree += predicted == argmax(expected[s]) ? 1 : 0;
+			if (heldOut != null) {
+				correct += predicted == heldOut.label(s) ? 1 : 0;
+			}
+			for (int i = 0; i < expected[s].length; i++) {
+				double diff = Math.abs(expected[s][i] - actual[s][i]);
+				maxDiff = Math.max(maxDiff, diff);
+				sumDiff += diff;
+			}
+		}
+
+		System.out.printf("  %-8s %9.2f MB  agreement %6.2f%%  %s max diff %.2e  mean diff %.2e  %8.1f us%n", name,
+				bytes / 1e6, 100.0 * agree / expected.length,
+				heldOut == null ? "" : String.format("accuracy %6.2f%% ", 100.0 * correct / expected.length), maxDiff,
+				sumDiff / (expected.length * expected[0].length), micros);
+	}
+
+	private static int argmax(float[] values) {
+		int best = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[best]) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	private interface Predict {
+		void predict(Matrix in, Matrix out);
+	}
+
+	/**
+	 * @return the output for one input
+	 */
+	private static float[] predict(Predict predict, float[] input, int out) {
+		Matrix result = new Matrix(out, 1);
+		predict.predict(column(input), result);
+		return result.data().clone();
+	}
+
+	private static Matrix column(float[] values) {
+		Matrix column = new Matrix(values.length, 1);
+		System.arraycopy(values, 0, column.data(), 0, values.length);
+		return column;
+	}
+
+	/**
+	 * @return the average time of a single sample prediction in microseconds, after as many predictions to warm up
+	 */
+	private static double time(Predict predict, float[][] inputs, int out, int count) {
+		Matrix[] columns = new Matrix[Math.min(inputs.length, count)];
+		for (int s = 0; s < columns.length; s++) {
+			columns[s] = column(inputs[s]);
+		}
+		Matrix result = new Matrix(out, 1);
+		for (int s = 0; s < count; s++) {
+			predict.predict(columns[s % columns.length], result);
+		}
+
+		long start = System.nanoTime();
+		for (int s = 0; s < count; s++) {
+			predict.predict(columns[s % columns.length], result);
+		}
+		return (System.nanoTime() - start) / 1e3 / count;
+	}
+}
@@ -0,0 +1,223 @@
+package experiments.pruning;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.Adam;
+import com.dubiouscandle.dubiousdl.ArrayDataset;
+import com.dubiouscandle.dubiousdl.Batch;
+import com.dubiouscandle.dubiousdl.Dataset;
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.MappedDataset;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+import com.dubiouscandle.dubiousdl.ModelFormat;
+import com.dubiouscandle.dubiousdl.Predictor;
+import com.dubiouscandle.dubiousdl.PrunedModel;
+import com.dubiouscandle.dubiousdl.Pruner;
+
+/**
+ * prunes the digits model to 50, 80 and 95% sparsity, once and gradually while fine tuning, and compares the compressed
+ * models with the dense one: the accuracy, the size of the parameters and the time per sample of single sample and
+ * batched predictions.<br>
+ * the gradual pruning fine tunes for STEPS steps, pruning every EVERY steps to the sparsity of the schedule of
+ * Pruner.sparsity, which reaches the target after RAMP steps. the row for 0% is the dense model, fine tuned the same
+ * way without pruning.<br>
+ * arguments: optionally the mnist training and test sets as IDX files, train-images-idx3-ubyte
+ * train-labels-idx1-ubyte t10k-images-idx3-ubyte t10k-labels-idx1-ubyte. without them both are digits rendered from
+ * fonts, which look different enough from handwriting that the fine tuning mostly adapts to them, so compare the
+ * pruned rows with the 0% row rather than with the dense model.
+ */
+public class Pruning {
+	private static final int BATCH = 64;
+	private static final int STEPS = 3000;
+	private static final int RAMP = 2000;
+	private static final int EVERY = 100;
+	private static final float ALPHA = 0.0003f;
+
+	public static void main(String[] args) throws Exception {
+		// a copy on the heap, so the dense times aren't those of reading the mapped file
+		Model model = new Model(ModelFormat.load(Path.of("src/experiments/digits/digitrecognizer.ddlm"), BATCH), BATCH);
+		Predictor dense = new Predictor(model, BATCH);
+
+		Dataset train, test;
+		if (args.length >= 4) {
+			train = MappedDataset.openIdx(Path.of(args[0]), Path.of(args[1]));
+			test = MappedDataset.openIdx(Path.of(args[2]), Path.of(args[3]));
+		} else {
+			train = rendered(20_000, new Random(1));
+			test = rendered(2000, new Random(2));
+		}
+		Matrix samples = new Matrix(784, test.size());
+		float[] record = new float[784];
+		for (int s = 0; s < test.size(); s++) {
+			test.read(s, record, 0, 1);
+			for (int k = 0; k < 784; k++) {
+				samples.set(k, s, record[k]);
+			}
+		}
+
+		float[] sparsities = { 0, 0.5f, 0.8f, 0.95f };
+		// the dense model first, then the gradually pruned ones
+		Predict[] predictors = new Predict[sparsities.length + 1];
+		predictors[0] = dense::predict;
+		double[] oneShot = new double[sparsities.length];
+		PrunedModel[] pruned = new PrunedModel[sparsities.length];
+		for (int i = 0; i < sparsities.length; i++) {
+			Model once = new Model(model, BATCH);
+			Pruner.prune(once, sparsities[i]);
+			oneShot[i] = accuracy(Pruner.compress(once, BATCH)::predict, samples, test);
+
+			Model gradual = new Model(model, BATCH);
+			Adam adam = new Adam(gradual, LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f);
+			Batch batch = new Batch(train, 10, BATCH, new Random(3), false);
+			for (int step = 0; step < STEPS; step++) {
+				if (step % EVERY == 0) {
+					adam.prune(Pruner.sparsity(step, 0, RAMP, sparsities[i]));
+				}
+				adam.step(batch.input(), batch.labels(), ALPHA);
+				batch.next();
+			}
+			pruned[i] = Pruner.compress(gradual, BATCH);
+			predictors[i + 1] = pruned[i]::predict;
+		}
+		double[] single = time(predictors, samples, 1);
+		double[] batched = time(predictors, samples, BATCH);
+
+		System.out.printf("digits 784-256-128-64-32-10, %s, fine tuned %d steps of %d%n",
+				args.length >= 4 ? "mnist" : "rendered digits", STEPS, BATCH);
+		System.out.println("sparsity  one shot  gradual   compressed layers  parameters  batch 1     batch 64");
+		System.out.printf("dense     %6.2f%%                               %6.3f MB  %6.2f us   %6.2f us%n",
+				accuracy(dense::predict, samples, test), Pruner.compress(model, BATCH).parameterBytes() / 1e6, single[0], batched[0]);
+		for (int i = 0; i < sparsities.length; i++) {
+			StringBuilder layers = new StringBuilder();
+			for (int l = 1; l <= 5; l++) {
+				layers.append(pruned[i].isSparse(l) ? " " + l : "");
+			}
+			System.out.printf("%7.0f%%  %6.2f%%   %6.2f%%   %-17s  %6.3f MB  %6.2f us   %6.2f us%n", 100 * sparsities[i],
+					oneShot[i], accuracy(predictors[i + 1], samples, test),
+					layers.length() == 0 ? "none" : layers.substring(1), pruned[i].parameterBytes() / 1e6,
+					single[i + 1], batched[i + 1]);
+		}
+	}
+
+	private interface Predict {
+		void predict(Matrix in, Matrix out);
+	}
+
+	/**
+	 * @return count images of digits in the mnist layout, white on black and scaled into a 20 x 20 box in the middle of
+	 *         28 x 28, each drawn from the outline of a random font, rotated, thickened and moved a little
+	 */
+	private static Dataset rendered(int count, Random random) {
+		String[] fonts = { Font.SANS_SERIF, Font.SERIF, Font.MONOSPACED, Font.DIALOG };
+		FontRenderContext context = new FontRenderContext(null, true, true);
+		BufferedImage image = new BufferedImage(28, 28, BufferedImage.TYPE_BYTE_GRAY);
+		float[][] records = new float[count][784];
+		int[] labels = new int[count];
+		for (int s = 0; s < count; s++) {
+			int digit = random.nextInt(10);
+			Font font = new Font(fonts[random.nextInt(fonts.length)], random.nextBoolean() ? Font.BOLD : Font.PLAIN,
+					40);
+			Shape glyph = font.createGlyphVector(context, Integer.toString(digit)).getOutline();
+			glyph = AffineTransform.getRotateInstance((random.nextFloat() - 0.5f) * 0.5f).createTransformedShape(glyph);
+			Rectangle2D bounds = glyph.getBounds2D();
+			double scale = 20 / Math.max(bounds.getWidth(), bounds.getHeight());
+			AffineTransform fit = AffineTransform.getTranslateInstance(14 + random.nextGaussian(),
+					14 + random.nextGaussian());
+			fit.scale(scale, scale);
+			fit.translate(-bounds.getCenterX(), -bounds.getCenterY());
+
+			Graphics2D g = image.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setColor(Color.BLACK);
+			g.fillRect(0, 0, 28, 28);
+			g.setColor(Color.WHITE);
+			g.setStroke(new BasicStroke(1 + 1.5f * random.nextFloat()));
+			Shape shape = fit.createTransformedShape(glyph);
+			g.fill(shape);
+			g.draw(shape);
+			g.dispose();
+
+			for (int k = 0; k < 784; k++) {
+				records[s][k] = image.getRaster().getSample(k % 28, k / 28, 0) / 255f;
+			}
+			labels[s] = digit;
+		}
+		return new ArrayDataset(records, labels, count, 784);
+	}
+
+	private static int argmax(Matrix out, int j) {
+		int best = 0;
+		for (int i = 1; i < out.rows(); i++) {
+			if (out.get(i, j) > out.get(best, j)) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the percentage of the columns of samples whose predicted class is the label of the test set
+	 */
+	private static double accuracy(Predict predict, Matrix samples, Dataset test) {
+		int correct = 0;
+		for (int from = 0; from < samples.cols(); from += BATCH) {
+			int count = Math.min(BATCH, samples.cols() - from);
+			Matrix result = new Matrix(10, count);
+			predict.predict(columns(samples, from, count), result);
+			for (int j = 0; j < count; j++) {
+				correct += argmax(result, j) == test.label(from + j) ? 1 : 0;
+			}
+		}
+		return 100.0 * correct / samples.cols();
+	}
+
+	private static Matrix columns(Matrix matrix, int from, int count) {
+		Matrix columns = new Matrix(matrix.rows(), count);
+		for (int i = 0; i < matrix.rows(); i++) {
+			for (int j = 0; j < count; j++) {
+				columns.set(i, j, matrix.get(i, from + j));
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * @return the best time per sample in microseconds of every predictor on batches of batch samples. the predictors
+	 *         are timed in turns, so they all see the same load on the machine, and the first rounds warm up.
+	 */
+	private static double[] time(Predict[] predictors, Matrix samples, int batch) {
+		Matrix[] batches = new Matrix[Math.min(samples.cols() / batch, 32)];
+		for (int t = 0; t < batches.length; t++) {
+			batches[t] = columns(samples, t * batch, batch);
+		}
+		Matrix result = new Matrix(10, batch);
+		int predictions = Math.max(1, 2000 / batch);
+		double[] best = new double[predictors.length];
+		Arrays.fill(best, Double.MAX_VALUE);
+		for (int round = 0; round < 20; round++) {
+			for (int p = 0; p < predictors.length; p++) {
+				long start = System.nanoTime();
+				for (int r = 0; r < predictions; r++) {
+					predictors[p].predict(batches[r % batches.length], result);
+				}
+				if (round >= 5) {
+					best[p] = Math.min(best[p], (System.nanoTime() - start) / 1e3 / predictions / batch);
+				}
+			}
+		}
+		return best;
+	}
+}
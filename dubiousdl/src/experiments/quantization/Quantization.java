@@ -0,0 +1,157 @@
+package experiments.quantization;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.Dataset;
+import com.dubiouscandle.dubiousdl.MappedDataset;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+import com.dubiouscandle.dubiousdl.ModelFormat;
+import com.dubiouscandle.dubiousdl.Predictor;
+import com.dubiouscandle.dubiousdl.QuantizedModel;
+import com.dubiouscandle.dubiousdl.Quantizer;
+
+/**
+ * quantizes the digits model to int8 and compares it with the float model: the size of the parameters, how often the
+ * predicted class agrees with the float model, the accuracy and its change on a held out set, and the time per sample
+ * of single sample and batched predictions. the float model is timed on a copy of its weights on the heap, not on the
+ * mapped file, and the two are timed in turns so they see the same load on the machine.<br>
+ * arguments: optionally a held out set as IDX files, e.g. t10k-images-idx3-ubyte t10k-labels-idx1-ubyte. its first
+ * CALIBRATION records calibrate the quantization and the rest are predicted. without it both are random inputs and
+ * there is no accuracy.
+ */
+public class Quantization {
+	private static final int CALIBRATION = 1000;
+	private static final int BATCH = 64;
+
+	public static void main(String[] args) throws Exception {
+		Model model = ModelFormat.load(Path.of("src/experiments/digits/digitrecognizer.ddlm"), 1);
+		int[] layers = { 784, 256, 128, 64, 32, 10 };
+		int in = layers[0], out = layers[layers.length - 1];
+
+		Dataset heldOut = args.length >= 2 ? MappedDataset.openIdx(Path.of(args[0]), Path.of(args[1])) : null;
+		int count = heldOut == null ? CALIBRATION + 2000 : heldOut.size();
+		Matrix samples = new Matrix(in, count);
+		Random random = new Random(2);
+		float[] record = new float[in];
+		for (int s = 0; s < count; s++) {
+			if (heldOut != null) {
+				heldOut.read(s, record, 0, 1);
+			} else {
+				for (int k = 0; k < in; k++) {
+					record[k] = random.nextFloat();
+				}
+			}
+			for (int k = 0; k < in; k++) {
+				samples.set(k, s, record[k]);
+			}
+		}
+
+		Matrix calibration = columns(samples, 0, CALIBRATION);
+		Matrix test = columns(samples, CALIBRATION, count - CALIBRATION);
+
+		long start = System.nanoTime();
+		QuantizedModel quantized = Quantizer.quantize(model, calibration, BATCH);
+		System.out.printf("quantized with %d calibration samples in %.1f ms%n", CALIBRATION,
+				(System.nanoTime() - start) / 1e6);
+
+		Predictor reference = new Predictor(new Model(model, BATCH), BATCH);
+		int[] expected = classes(reference::predict, test, out);
+		int[] actual = classes(quantized::predict, test, out);
+
+		int agree = 0, correctFloat = 0, correctInt8 = 0;
+		for (int s = 0; s < expected.length; s++) {
+			agree += expected[s] == actual[s] ? 1 : 0;
+			if (heldOut != null) {
+				correctFloat += expected[s] == heldOut.label(CALIBRATION + s) ? 1 : 0;
+				correctInt8 += actual[s] == heldOut.label(CALIBRATION + s) ? 1 : 0;
+			}
+		}
+
+		long floatBytes = 0;
+		for (int l = 1; l < layers.length; l++) {
+			floatBytes += 4L * (layers[l] * layers[l - 1] + layers[l]);
+		}
+		System.out.printf("parameters  float32 %.2f MB  int8 %.2f MB%n", floatBytes / 1e6,
+				quantized.parameterBytes() / 1e6);
+		System.out.printf("agreement   %.2f%% of %d samples%n", 100.0 * agree / expected.length, expected.length);
+		if (heldOut != null) {
+			double floatAccuracy = 100.0 * correctFloat / expected.length;
+			double int8Accuracy = 100.0 * correctInt8 / expected.length;
+			System.out.printf("accuracy    float32 %.2f%%  int8 %.2f%%  delta %+.2f points%n", floatAccuracy,
+					int8Accuracy, int8Accuracy - floatAccuracy);
+		}
+
+		for (int batch : new int[] { 1, BATCH }) {
+			double[] micros = time(new Predict[] { reference::predict, quantized::predict }, test, batch, out);
+			double floatMicros = micros[0], int8Micros = micros[1];
+			System.out.printf("batch %-3d   float32 %7.2f us  int8 %7.2f us per sample  speedup %.2fx%n", batch,
+					floatMicros, int8Micros, floatMicros / int8Micros);
+		}
+	}
+
+	private interface Predict {
+		void predict(Matrix in, Matrix out);
+	}
+
+	private static Matrix columns(Matrix matrix, int from, int count) {
+		Matrix columns = new Matrix(matrix.rows(), count);
+		for (int i = 0; i < matrix.rows(); i++) {
+			for (int j = 0; j < count; j++) {
+				columns.set(i, j, matrix.get(i, from + j));
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * @return the predicted class of every column of samples
+	 */
+	private static int[] classes(Predict predict, Matrix samples, int out) {
+		int[] classes = new int[samples.cols()];
+		for (int from = 0; from < samples.cols(); from += BATCH) {
+			int count = Math.min(BATCH, samples.cols() - from);
+			Matrix result = new Matrix(out, count);
+			predict.predict(columns(samples, from, count), result);
+			for (int j = 0; j < count; j++) {
+				int best = 0;
+				for (int i = 1; i < out; i++) {
+					if (result.get(i, j) > result.get(best, j)) {
+						best = i;
+					}
+				}
+				classes[from + j] = best;
+			}
+		}
+		return classes;
+	}
+
+	/**
+	 * @return the best time per sample in microseconds of every predictor on batches of batch samples, timed in turns
+	 *         after a round to warm up
+	 */
+	private static double[] time(Predict[] predictors, Matrix samples, int batch, int out) {
+		Matrix[] batches = new Matrix[samples.cols() / batch];
+		for (int t = 0; t < batches.length; t++) {
+			batches[t] = columns(samples, t * batch, batch);
+		}
+		Matrix result = new Matrix(out, batch);
+		int predictions = Math.max(1, 2000 / batch);
+		double[] best = new double[predictors.length];
+		Arrays.fill(best, Double.MAX_VALUE);
+		for (int round = 0; round < 11; round++) {
+			for (int p = 0; p < predictors.length; p++) {
+				long start = System.nanoTime();
+				for (int r = 0; r < predictions; r++) {
+					predictors[p].predict(batches[r % batches.length], result);
+				}
+				if (round > 0) {
+					best[p] = Math.min(best[p], (System.nanoTime() - start) / 1e3 / predictions / batch);
+				}
+			}
+		}
+		return best;
+	}
+}
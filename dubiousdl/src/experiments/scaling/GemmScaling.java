@@ -0,0 +1,101 @@
+package experiments.scaling;
+
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.ComputePool;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+
+/**
+ * prints how Matrix.multiply and Model.forwardPropagate scale from 1 thread up to the number of threads given as the
+ * first argument (defaults to the number of available processors).<br>
+ * it also multiplies the long thin products 4x100000x12 and 6x100000x40, which are one micro kernel tall for the scalar
+ * and the vector kernels and used to be split into themselves forever, and prints the largest difference to the
+ * result of 1 thread. that is only rounding, the dot products have 100000 terms and sums around 100.
+ */
+public class GemmScaling {
+	public static void main(String[] args) {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		Random random = new Random(1);
+
+		Matrix a = randomMatrix(784, 512, random);
+		Matrix b = randomMatrix(512, 256, random);
+		Matrix c = new Matrix(784, 256);
+		double flops = 2.0 * 784 * 512 * 256;
+
+		int m = 256;
+		Model model = new Model(
+				new ActivationFunction[] { ActivationFunction.RELU, ActivationFunction.RELU, ActivationFunction.RELU,
+						ActivationFunction.RELU, ActivationFunction.IDENTITY },
+				new int[] { 784, 256, 128, 64, 32, 10 }, m, new Initializer.HeNormal(random));
+		Matrix in = randomMatrix(784, m, random);
+		Matrix out = new Matrix(10, m);
+
+		int[][] thin = { { 4, 100_000, 12 }, { 6, 100_000, 40 } };
+		Matrix[][] thinOperands = new Matrix[thin.length][];
+		for (int t = 0; t < thin.length; t++) {
+			thinOperands[t] = new Matrix[] { randomMatrix(thin[t][0], thin[t][1], random),
+					randomMatrix(thin[t][1], thin[t][2], random), new Matrix(thin[t][0], thin[t][2]), null };
+		}
+
+		System.out.println("threads  multiply 784x512x256        forwardPropagate 784-256-128-64-32-10 m=" + m
+				+ "  4x100000x12  6x100000x40  difference");
+
+		double baseMultiply = 0, baseForward = 0;
+		for (int threads = 1; threads <= maxThreads; threads++) {
+			ComputePool.setParallelism(threads);
+
+			double multiply = time(() -> Matrix.multiply(a, b, c));
+			double forward = time(() -> model.forwardPropagate(in, out));
+			if (threads == 1) {
+				baseMultiply = multiply;
+				baseForward = forward;
+			}
+
+			System.out.printf("%7d  %7.2f ms %6.1f GFLOP/s %5.2fx  %7.2f ms %5.2fx", threads, multiply,
+					flops / multiply / 1e6, baseMultiply / multiply, forward, baseForward / forward);
+
+			float difference = 0;
+			for (Matrix[] operands : thinOperands) {
+				System.out.printf("  %8.2f ms",
+						time(() -> Matrix.multiply(operands[0], operands[1], operands[2])));
+				if (threads == 1) {
+					operands[3] = new Matrix(operands[2]);
+				}
+				for (int i = 0; i < operands[2].rows(); i++) {
+					for (int j = 0; j < operands[2].cols(); j++) {
+						difference = Math.max(difference, Math.abs(operands[2].get(i, j) - operands[3].get(i, j)));
+					}
+				}
+			}
+			System.out.printf("   %.1e%n", difference);
+		}
+	}
+
+	private static Matrix randomMatrix(int rows, int cols, Random random) {
+		Matrix matrix = new Matrix(rows, cols);
+		for (int i = 0; i < matrix.size(); i++) {
+			matrix.data()[i] = random.nextFloat(-1, 1);
+		}
+		return matrix;
+	}
+
+	/**
+	 * @return the best time out of several runs in milliseconds
+	 */
+	private static double time(Runnable runnable) {
+		for (int i = 0; i < 5; i++) {
+			runnable.run();
+		}
+
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < 20; i++) {
+			long start = System.nanoTime();
+			runnable.run();
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+		}
+		return best;
+	}
+}
@@ -0,0 +1,69 @@
+package experiments.scaling;
+
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Adam;
+import com.dubiouscandle.dubiousdl.ComputePool;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+
+/**
+ * prints how a data parallel Adam.step on the digit recognizer's shape (784-256-128-64-32-10, m=128) scales from 1
+ * worker up to the number given as the first argument (defaults to the number of available processors). the compute
+ * pool gets as many threads as there are workers.
+ */
+public class TrainingScaling {
+	public static void main(String[] args) {
+		int maxWorkers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int m = 128;
+
+		Random random = new Random(1);
+		Matrix in = new Matrix(784, m);
+		Matrix target = new Matrix(10, m);
+		for (int i = 0; i < in.size(); i++) {
+			in.data()[i] = random.nextFloat();
+		}
+		for (int j = 0; j < m; j++) {
+			target.set(random.nextInt(10), j, 1);
+		}
+
+		System.out.println("workers  Adam.step 784-256-128-64-32-10 m=" + m);
+
+		double base = 0;
+		for (int workers = 1; workers <= maxWorkers; workers++) {
+			ComputePool.setParallelism(workers);
+
+			Model model = new Model(
+					new ActivationFunction[] { ActivationFunction.LEAKY_RELU, ActivationFunction.LEAKY_RELU,
+							ActivationFunction.LEAKY_RELU, ActivationFunction.LEAKY_RELU, ActivationFunction.IDENTITY },
+					new int[] { 784, 256, 128, 64, 32, 10 }, m, new Initializer.HeNormal(new Random(2)));
+			Adam adam = new Adam(model, LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f, workers);
+
+			double step = time(() -> adam.step(in, target, 0.001f));
+			if (workers == 1) {
+				base = step;
+			}
+			System.out.printf("%7d  %7.2f ms %5.2fx%n", workers, step, base / step);
+		}
+	}
+
+	/**
+	 * @return the best time out of several runs in milliseconds
+	 */
+	private static double time(Runnable runnable) {
+		for (int i = 0; i < 10; i++) {
+			runnable.run();
+		}
+
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < 30; i++) {
+			long start = System.nanoTime();
+			runnable.run();
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+		}
+		return best;
+	}
+}
@@ -0,0 +1,130 @@
+package experiments.sparse;
+
+import java.util.Random;
+
+import com.dubiouscandle.dubiousdl.ActivationFunction;
+import com.dubiouscandle.dubiousdl.Adam;
+import com.dubiouscandle.dubiousdl.Initializer;
+import com.dubiouscandle.dubiousdl.LossFunction;
+import com.dubiouscandle.dubiousdl.Matrix;
+import com.dubiouscandle.dubiousdl.Model;
+import com.dubiouscandle.dubiousdl.SparseMatrix;
+
+/**
+ * compares sparse inputs with the same inputs as dense matrices, on bag of features inputs with a given fraction of
+ * nonzeros (FEATURES-256-10, m=M): how far apart the outputs of forwardPropagate and the weights after some training
+ * steps are, with one and two workers and with checkpointing, and the time of forwardPropagate and Adam.step for both.
+ */
+public class Sparse {
+	private static final int FEATURES = 20_000;
+	private static final int M = 128;
+	private static final int STEPS = 10;
+
+	public static void main(String[] args) {
+		System.out.printf("%d-256-10 m=%d%n", FEATURES, M);
+		for (double density : new double[] { 0.005, 0.01, 0.05, 0.2 }) {
+			Random random = new Random(1);
+			SparseMatrix sparse = bagOfFeatures(density, random);
+			Matrix dense = sparse.toMatrix();
+			int[] labels = new int[M];
+			for (int j = 0; j < M; j++) {
+				labels[j] = random.nextInt(10);
+			}
+
+			System.out.printf("%.1f%% nonzero%n", 100 * density);
+			Model a = model(), b = model();
+			Matrix outA = new Matrix(10, M), outB = new Matrix(10, M);
+			a.forwardPropagate(dense, outA);
+			b.forwardPropagate(sparse, outB);
+			System.out.printf("  forward difference %.2e%n", difference(outA, outB));
+
+			for (int[] config : new int[][] { { 1, 0 }, { 2, 0 }, { 1, 1 } }) {
+				a = model();
+				b = model();
+				Adam adamA = new Adam(a, LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f, config[0], config[1]);
+				Adam adamB = new Adam(b, LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f, config[0], config[1]);
+				for (int s = 0; s < STEPS; s++) {
+					adamA.step(dense, labels, 0.001f);
+					adamB.step(sparse, labels, 0.001f);
+				}
+				a.forwardPropagate(dense, outA);
+				b.forwardPropagate(dense, outB);
+				System.out.printf("  output difference after %d steps, %d workers, checkpoint %d: %.2e%n", STEPS,
+						config[0], config[1], difference(outA, outB));
+			}
+
+			Model model = model();
+			Matrix out = new Matrix(10, M);
+			double forwardDense = time(() -> model.forwardPropagate(dense, out));
+			double forwardSparse = time(() -> model.forwardPropagate(sparse, out));
+			Adam adam = new Adam(model, LossFunction.SOFT_MAX_CROSS_ENTROPY_LOSS, 0.9f, 0.999f);
+			double stepDense = time(() -> adam.step(dense, labels, 0.001f));
+			double stepSparse = time(() -> adam.step(sparse, labels, 0.001f));
+			System.out.printf("  forwardPropagate  dense %7.2f ms  sparse %6.2f ms  %5.1fx%n", forwardDense,
+					forwardSparse, forwardDense / forwardSparse);
+			System.out.printf("  Adam.step         dense %7.2f ms  sparse %6.2f ms  %5.1fx%n", stepDense, stepSparse,
+					stepDense / stepSparse);
+		}
+	}
+
+	/**
+	 * @return FEATURES x M of mostly zeros, with about density of the features of each sample set to a count from 1
+	 *         to 3
+	 */
+	private static SparseMatrix bagOfFeatures(double density, Random random) {
+		int perSample = (int) (density * FEATURES);
+		int[] colStart = new int[M + 1];
+		int[] rowIndex = new int[perSample * M];
+		float[] values = new float[perSample * M];
+		int p = 0;
+		for (int j = 0; j < M; j++) {
+			// distinct features in increasing order
+			for (int f = 0, left = perSample; f < FEATURES && left > 0; f++) {
+				if (random.nextInt(FEATURES - f) < left) {
+					rowIndex[p] = f;
+					values[p] = 1 + random.nextInt(3);
+					p++;
+					left--;
+				}
+			}
+			colStart[j + 1] = p;
+		}
+		return new SparseMatrix(FEATURES, M, colStart, rowIndex, values);
+	}
+
+	private static Model model() {
+		return new Model(new ActivationFunction[] { ActivationFunction.RELU, ActivationFunction.IDENTITY },
+				new int[] { FEATURES, 256, 10 }, M, new Initializer.HeNormal(new Random(2)));
+	}
+
+	/**
+	 * @return the largest difference between elements of x and y, relative to the largest magnitude in x
+	 */
+	private static double difference(Matrix x, Matrix y) {
+		double max = 0, scale = 0;
+		for (int i = 0; i < x.rows(); i++) {
+			for (int j = 0; j < x.cols(); j++) {
+				max = Math.max(max, Math.abs(x.get(i, j) - y.get(i, j)));
+				scale = Math.max(scale, Math.abs(x.get(i, j)));
+			}
+		}
+		return max / scale;
+	}
+
+	/**
+	 * @return the best time out of several runs in milliseconds
+	 */
+	private static double time(Runnable runnable) {
+		for (int i = 0; i < 5; i++) {
+			runnable.run();
+		}
+
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			long start = System.nanoTime();
+			runnable.run();
+			best = Math.min(best, (System.nanoTime() - start) / 1e6);
+		}
+		return best;
+	}
+}